@@ -0,0 +1,152 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.chl.ruledispatcher.anotations.AsAfterAction;
+import com.chl.ruledispatcher.anotations.AsPreAction;
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+import com.chl.ruledispatcher.handler.AfterAction;
+import com.chl.ruledispatcher.handler.BenchmarkHooks;
+import com.chl.ruledispatcher.handler.PreAction;
+import com.chl.ruledispatcher.handler.RuleDispatcher;
+import com.chl.ruledispatcher.handler.RuleHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+/**
+ * 启动整理耗时。控制器关系是进程级的，且 arrange 只执行一次，因此每次测量使用独立fork、单次执行。
+ * <br/>
+ * synthetic 通过运行时注册构建不同规模的控制器关系，与 arrange 共用添加、排序、编译调度计划的逻辑；
+ * beanFactory 测量从 Spring 容器扫描注解bean的整理过程；
+ * beanFactoryScale 在同一进程内重置后重复整理不同规模的 Spring 容器，测量整理耗时随控制器数量的增长。
+ * @author ccchhhlll1988@163.com
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class ArrangeBenchmark {
+
+    /**
+     * 合成控制器关系的规模，仅 synthetic 使用
+     */
+    @State(Scope.Benchmark)
+    public static class Size {
+        @Param({"10", "100"})
+        int scenes;
+
+        @Param({"4"})
+        int appsPerScene;
+
+        @Param({"8", "64"})
+        int handlersPerNode;
+    }
+
+    /**
+     * 合成的Spring容器，仅 beanFactoryScale 使用；每次测量前重置控制器关系
+     */
+    @State(Scope.Benchmark)
+    public static class Beans {
+        @Param({"10", "100"})
+        int scenes;
+
+        @Param({"4"})
+        int appsPerScene;
+
+        @Param({"8", "64"})
+        int handlersPerNode;
+
+        DefaultListableBeanFactory beanFactory;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            beanFactory = SyntheticBeans.beanFactory(scenes, appsPerScene, handlersPerNode);
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            BenchmarkHooks.reset();
+        }
+    }
+
+    private DefaultListableBeanFactory beanFactory;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("benchPreAction", new BenchPreAction());
+        beanFactory.registerSingleton("benchRuleHandler", new BenchRuleHandler());
+        beanFactory.registerSingleton("benchExclusiveRuleHandler", new BenchExclusiveRuleHandler());
+        beanFactory.registerSingleton("benchAfterAction", new BenchAfterAction());
+    }
+
+    @Benchmark
+    public void synthetic(Size size) {
+        SyntheticRegistry.register(size.scenes, size.appsPerScene, size.handlersPerNode, 0.25, 0.5, false);
+    }
+
+    @Benchmark
+    public void beanFactory() {
+        RuleDispatcher.arrange(beanFactory);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    @Fork(2)
+    public void beanFactoryScale(Beans beans) {
+        RuleDispatcher.arrange(beans.beanFactory);
+    }
+
+    @AsPreAction(scene = "arrange", app = "app")
+    public static class BenchPreAction extends PreAction<BenchContext> {
+        @Override
+        protected boolean handle(BenchContext ruleDispatcherContext) {
+            return false;
+        }
+    }
+
+    @AsRuleHandler(scene = "arrange", app = "app", rule = "rule", priority = 2)
+    public static class BenchRuleHandler extends RuleHandler<BenchContext> {
+        @Override
+        protected boolean match(BenchContext param) {
+            return true;
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+        }
+    }
+
+    @AsRuleHandler(scene = "arrange", app = "app", rule = "exclusiveRule", priority = 1, exclusive = true)
+    public static class BenchExclusiveRuleHandler extends RuleHandler<BenchContext> {
+        @Override
+        protected boolean match(BenchContext param) {
+            return false;
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+        }
+    }
+
+    @AsAfterAction(scene = "arrange", app = "app")
+    public static class BenchAfterAction extends AfterAction<BenchContext> {
+        @Override
+        protected void handle(BenchContext ruleDispatcherContext) {
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.chl.ruledispatcher.benchmark;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 基准测试使用的context
+ * @author ccchhhlll1988@163.com
+ */
+public class BenchContext extends RuleDispatcherContext {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 决定各规则是否命中
+     */
+    int key;
+
+    /**
+     * 前置行为是否立即返回
+     */
+    boolean veto;
+
+    int hits;
+
+    BenchContext(String scene, String app, String rule, int key, boolean veto) {
+        super(scene, app, rule);
+        this.key = key;
+        this.veto = veto;
+    }
+}
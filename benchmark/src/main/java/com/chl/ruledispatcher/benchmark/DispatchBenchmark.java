@@ -0,0 +1,102 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.chl.ruledispatcher.handler.RuleDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 调度吞吐，每个参数组合独立fork，控制器关系在trial开始时构建。
+ * <br/>
+ * 分配率使用 -prof gc 查看。
+ * @author ccchhhlll1988@163.com
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @Param({"1", "100"})
+    int scenes;
+
+    @Param({"4"})
+    int appsPerScene;
+
+    @Param({"8", "64"})
+    int handlersPerNode;
+
+    @Param({"0", "0.25"})
+    double exclusiveRatio;
+
+    @Param({"0.1", "0.5"})
+    double hitRatio;
+
+    @Param({"false", "true"})
+    boolean specializedChain;
+
+    @Param({"true", "false"})
+    boolean metricsEnabled;
+
+    private BenchContext[] fullChainContexts;
+    private BenchContext[] exactRuleContexts;
+    private BenchContext[] earlyReturnContexts;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RuleDispatcher.setMetricsEnabled(metricsEnabled);
+        SyntheticRegistry.register(scenes, appsPerScene, handlersPerNode, exclusiveRatio, hitRatio, specializedChain);
+        fullChainContexts = SyntheticRegistry.contexts(scenes, appsPerScene, handlersPerNode, false, false);
+        exactRuleContexts = SyntheticRegistry.contexts(scenes, appsPerScene, handlersPerNode, true, false);
+        earlyReturnContexts = SyntheticRegistry.contexts(scenes, appsPerScene, handlersPerNode, false, true);
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (SyntheticRegistry.CONTEXT_COUNT - 1);
+        return cursor;
+    }
+
+    /**
+     * 完整的前置、规则链、后置
+     */
+    @Benchmark
+    public BenchContext fullChain() {
+        BenchContext context = fullChainContexts[next()];
+        RuleDispatcher.dispatch(context);
+        return context;
+    }
+
+    /**
+     * 指定精确规则
+     */
+    @Benchmark
+    public BenchContext exactRule() {
+        BenchContext context = exactRuleContexts[next()];
+        RuleDispatcher.dispatch(context);
+        return context;
+    }
+
+    /**
+     * 前置行为立即返回
+     */
+    @Benchmark
+    public BenchContext earlyReturn() {
+        BenchContext context = earlyReturnContexts[next()];
+        RuleDispatcher.dispatch(context);
+        return context;
+    }
+}
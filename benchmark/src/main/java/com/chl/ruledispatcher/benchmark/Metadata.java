@@ -0,0 +1,73 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.chl.ruledispatcher.anotations.AsAfterAction;
+import com.chl.ruledispatcher.anotations.AsPreAction;
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+
+/**
+ * 构造注解实例，作为合成控制器的元数据；未指定的属性取注解默认值。
+ * @author ccchhhlll1988@163.com
+ */
+final class Metadata {
+
+    private Metadata() {
+    }
+
+    static AsPreAction preAction(String scene, String app, String rule, int priority) {
+        return of(AsPreAction.class, values(scene, app, rule, priority));
+    }
+
+    static AsRuleHandler ruleHandler(String scene, String app, String rule, int priority, boolean exclusive) {
+        Map<String, Object> values = values(scene, app, rule, priority);
+        values.put("exclusive", exclusive);
+        return of(AsRuleHandler.class, values);
+    }
+
+    static AsAfterAction afterAction(String scene, String app, String rule, int priority) {
+        return of(AsAfterAction.class, values(scene, app, rule, priority));
+    }
+
+    private static Map<String, Object> values(String scene, String app, String rule, int priority) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("scene", scene);
+        values.put("app", app);
+        values.put("rule", rule);
+        values.put("priority", priority);
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A extends Annotation> A of(final Class<A> annotationType, final Map<String, Object> values) {
+        return (A) Proxy.newProxyInstance(annotationType.getClassLoader(), new Class<?>[]{annotationType},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ("annotationType".equals(name)) {
+                        return annotationType;
+                    }
+                    if ("toString".equals(name)) {
+                        return "@" + annotationType.getSimpleName() + values;
+                    }
+                    if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    }
+                    return values.containsKey(name) ? values.get(name) : defaultValue(method);
+                });
+    }
+
+    private static Object defaultValue(Method method) {
+        Object defaultValue = method.getDefaultValue();
+        if (null == defaultValue) {
+            throw new IllegalStateException("no value for " + method);
+        }
+        return defaultValue;
+    }
+}
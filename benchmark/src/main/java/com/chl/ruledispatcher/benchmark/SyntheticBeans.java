@@ -0,0 +1,121 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.AfterAction;
+import com.chl.ruledispatcher.handler.HandlerDefinition;
+import com.chl.ruledispatcher.handler.PreAction;
+import com.chl.ruledispatcher.handler.RuleHandler;
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.util.StreamUtils;
+
+/**
+ * 合成的Spring容器：每个 scene + app 一个前置行为、若干规则控制器、一个后置行为，均为独立的bean。
+ * <br/>
+ * 整理按控制器类型绑定元数据，因此每个bean由独立的类加载器把模板重新定义为不同的类，
+ * 元数据由 {@link SyntheticHandlerRegistry} 按类型提供。
+ * @author ccchhhlll1988@163.com
+ */
+final class SyntheticBeans {
+
+    private SyntheticBeans() {
+    }
+
+    /**
+     * 构建容器并设置 {@link SyntheticHandlerRegistry} 的定义
+     */
+    static DefaultListableBeanFactory beanFactory(int scenes, int appsPerScene, int handlersPerNode) {
+        byte[] preAction = bytes(TemplatePreAction.class);
+        byte[] ruleHandler = bytes(TemplateRuleHandler.class);
+        byte[] afterAction = bytes(TemplateAfterAction.class);
+
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        List<HandlerDefinition> definitions = new ArrayList<>();
+        for (int s = 0; s < scenes; s++) {
+            for (int a = 0; a < appsPerScene; a++) {
+                String scene = SyntheticRegistry.scene(s);
+                String app = SyntheticRegistry.app(a);
+                Class<?> type = define(TemplatePreAction.class, preAction);
+                definitions.add(HandlerDefinition.preAction(type, scene, app, "pre", 0));
+                register(beanFactory, type, scene, app, "pre");
+                for (int h = 0; h < handlersPerNode; h++) {
+                    // 优先级与注册顺序相反，整理时需要排序
+                    type = define(TemplateRuleHandler.class, ruleHandler);
+                    definitions.add(HandlerDefinition.ruleHandler(type, scene, app, SyntheticRegistry.rule(h),
+                            handlersPerNode - h, (h & 3) == 3));
+                    register(beanFactory, type, scene, app, SyntheticRegistry.rule(h));
+                }
+                type = define(TemplateAfterAction.class, afterAction);
+                definitions.add(HandlerDefinition.afterAction(type, scene, app, "after", 0));
+                register(beanFactory, type, scene, app, "after");
+            }
+        }
+        SyntheticHandlerRegistry.definitions = definitions;
+        return beanFactory;
+    }
+
+    private static void register(DefaultListableBeanFactory beanFactory, Class<?> type, String scene, String app, String rule) {
+        try {
+            beanFactory.registerSingleton(scene + "." + app + "." + rule, type.newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("newInstance fail " + type, e);
+        }
+    }
+
+    private static byte[] bytes(Class<?> template) {
+        String resource = template.getName().replace('.', '/') + ".class";
+        try (InputStream in = template.getClassLoader().getResourceAsStream(resource)) {
+            return StreamUtils.copyToByteArray(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("read fail " + resource, e);
+        }
+    }
+
+    private static Class<?> define(Class<?> template, byte[] bytes) {
+        return new DefiningClassLoader(template.getClassLoader()).define(template.getName(), bytes);
+    }
+
+    /**
+     * 只定义一个类，其余委托给父加载器
+     */
+    private static final class DefiningClassLoader extends ClassLoader {
+        DefiningClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * 模板在其他类加载器中定义后处于不同的运行时包，只能访问公开成员
+     */
+    public static class TemplatePreAction extends PreAction<RuleDispatcherContext> {
+        @Override
+        protected boolean handle(RuleDispatcherContext ruleDispatcherContext) {
+            return false;
+        }
+    }
+
+    public static class TemplateRuleHandler extends RuleHandler<RuleDispatcherContext> {
+        @Override
+        protected boolean match(RuleDispatcherContext param) {
+            return false;
+        }
+
+        @Override
+        protected void action(RuleDispatcherContext param) {
+        }
+    }
+
+    public static class TemplateAfterAction extends AfterAction<RuleDispatcherContext> {
+        @Override
+        protected void handle(RuleDispatcherContext ruleDispatcherContext) {
+        }
+    }
+}
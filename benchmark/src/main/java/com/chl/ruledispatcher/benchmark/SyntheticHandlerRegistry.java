@@ -0,0 +1,24 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.HandlerDefinition;
+import com.chl.ruledispatcher.handler.HandlerRegistry;
+
+/**
+ * 合成容器的控制器注册表，通过 ServiceLoader 加载，代替注解处理器生成的注册表
+ * @author ccchhhlll1988@163.com
+ */
+public class SyntheticHandlerRegistry implements HandlerRegistry {
+
+    /**
+     * 由 {@link SyntheticBeans#beanFactory(int, int, int)} 设置，未构建时为空
+     */
+    static volatile List<HandlerDefinition> definitions = Collections.emptyList();
+
+    @Override
+    public List<HandlerDefinition> definitions() {
+        return definitions;
+    }
+}
@@ -0,0 +1,107 @@
+package com.chl.ruledispatcher.benchmark;
+
+import com.chl.ruledispatcher.handler.AfterAction;
+import com.chl.ruledispatcher.handler.PreAction;
+import com.chl.ruledispatcher.handler.RuleHandler;
+
+/**
+ * 合成控制器，命中与否只取决于context的key与控制器的种子，开销固定且很小
+ * @author ccchhhlll1988@163.com
+ */
+final class SyntheticHandlers {
+
+    private SyntheticHandlers() {
+    }
+
+    /**
+     * key与种子混合后的伪随机百分位 [0, 100)
+     */
+    static int percentile(int key, int seed) {
+        int h = key * 0x9E3779B9 ^ seed * 0x85EBCA6B;
+        h ^= h >>> 15;
+        return (h & 0x7fffffff) % 100;
+    }
+
+    static class SyntheticPreAction extends PreAction<BenchContext> {
+        @Override
+        protected boolean handle(BenchContext ruleDispatcherContext) {
+            return ruleDispatcherContext.veto;
+        }
+    }
+
+    static class SyntheticRuleHandler extends RuleHandler<BenchContext> {
+        private final int seed;
+        private final int hitPercent;
+
+        SyntheticRuleHandler(int seed, int hitPercent) {
+            this.seed = seed;
+            this.hitPercent = hitPercent;
+        }
+
+        @Override
+        protected boolean match(BenchContext param) {
+            return percentile(param.key, seed) < hitPercent;
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+            param.hits++;
+        }
+    }
+
+    /**
+     * 按seed分到四个具体类型，使规则链上的调用点多态，接近真实业务
+     */
+    static SyntheticRuleHandler ruleHandler(int seed, int hitPercent) {
+        switch (seed & 3) {
+            case 1:
+                return new ShiftRuleHandler(seed, hitPercent);
+            case 2:
+                return new XorRuleHandler(seed, hitPercent);
+            case 3:
+                return new MaskRuleHandler(seed, hitPercent);
+            default:
+                return new SyntheticRuleHandler(seed, hitPercent);
+        }
+    }
+
+    static class ShiftRuleHandler extends SyntheticRuleHandler {
+        ShiftRuleHandler(int seed, int hitPercent) {
+            super(seed, hitPercent);
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+            param.hits += 2;
+        }
+    }
+
+    static class XorRuleHandler extends SyntheticRuleHandler {
+        XorRuleHandler(int seed, int hitPercent) {
+            super(seed, hitPercent);
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+            param.hits ^= 1;
+        }
+    }
+
+    static class MaskRuleHandler extends SyntheticRuleHandler {
+        MaskRuleHandler(int seed, int hitPercent) {
+            super(seed, hitPercent);
+        }
+
+        @Override
+        protected void action(BenchContext param) {
+            param.hits = (param.hits + 1) & 0xff;
+        }
+    }
+
+    static class SyntheticAfterAction extends AfterAction<BenchContext> {
+        @Override
+        protected void handle(BenchContext ruleDispatcherContext) {
+            ruleDispatcherContext.hits = ruleDispatcherContext.hits & 0xffff;
+        }
+    }
+}
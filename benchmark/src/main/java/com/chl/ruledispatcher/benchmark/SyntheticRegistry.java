@@ -0,0 +1,75 @@
+package com.chl.ruledispatcher.benchmark;
+
+import java.util.Random;
+
+import com.chl.ruledispatcher.handler.RuleDispatcher;
+import com.chl.ruledispatcher.handler.SceneConfig;
+
+/**
+ * 合成控制器关系：每个 scene + app 一个前置行为、若干规则控制器、一个后置行为
+ * @author ccchhhlll1988@163.com
+ */
+final class SyntheticRegistry {
+
+    static final int CONTEXT_COUNT = 1024;
+
+    private SyntheticRegistry() {
+    }
+
+    static String scene(int index) {
+        return "scene" + index;
+    }
+
+    static String app(int index) {
+        return "app" + index;
+    }
+
+    static String rule(int index) {
+        return "rule" + index;
+    }
+
+    /**
+     * 通过运行时注册构建控制器关系
+     * @param exclusiveRatio 排他性规则占比，均匀分布在链上
+     * @param hitRatio 单个规则的命中概率
+     */
+    static void register(int scenes, int appsPerScene, int handlersPerNode, double exclusiveRatio, double hitRatio,
+            boolean specializedChain) {
+        if (specializedChain) {
+            for (int s = 0; s < scenes; s++) {
+                SceneConfig sceneConfig = new SceneConfig(scene(s));
+                sceneConfig.setSpecializedChain(true);
+                RuleDispatcher.configScene(sceneConfig);
+            }
+        }
+        int hitPercent = (int) Math.round(hitRatio * 100);
+        for (int s = 0; s < scenes; s++) {
+            for (int a = 0; a < appsPerScene; a++) {
+                String scene = scene(s);
+                String app = app(a);
+                RuleDispatcher.register(new SyntheticHandlers.SyntheticPreAction(), Metadata.preAction(scene, app, "pre", 0));
+                for (int h = 0; h < handlersPerNode; h++) {
+                    boolean exclusive = Math.floor((h + 1) * exclusiveRatio) > Math.floor(h * exclusiveRatio);
+                    RuleDispatcher.register(SyntheticHandlers.ruleHandler(h, hitPercent),
+                            Metadata.ruleHandler(scene, app, rule(h), h, exclusive));
+                }
+                RuleDispatcher.register(new SyntheticHandlers.SyntheticAfterAction(), Metadata.afterAction(scene, app, "after", 0));
+            }
+        }
+    }
+
+    /**
+     * @param exactRule 是否指定精确规则
+     * @param veto 前置行为是否立即返回
+     */
+    static BenchContext[] contexts(int scenes, int appsPerScene, int handlersPerNode, boolean exactRule, boolean veto) {
+        Random random = new Random(42);
+        BenchContext[] contexts = new BenchContext[CONTEXT_COUNT];
+        for (int i = 0; i < CONTEXT_COUNT; i++) {
+            String rule = exactRule ? rule(random.nextInt(handlersPerNode)) : null;
+            contexts[i] = new BenchContext(scene(random.nextInt(scenes)), app(random.nextInt(appsPerScene)), rule,
+                    random.nextInt(), veto);
+        }
+        return contexts;
+    }
+}
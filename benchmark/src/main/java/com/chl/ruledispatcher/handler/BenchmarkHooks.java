@@ -0,0 +1,18 @@
+package com.chl.ruledispatcher.handler;
+
+/**
+ * 基准使用的包内入口，只在基准中提供，不随 ruledispatcher 发布
+ * @author ccchhhlll1988@163.com
+ */
+public final class BenchmarkHooks {
+
+    private BenchmarkHooks() {
+    }
+
+    /**
+     * 见 {@link RuleDispatcher#reset()}
+     */
+    public static void reset() {
+        RuleDispatcher.reset();
+    }
+}
@@ -0,0 +1,348 @@
+package com.chl.ruledispatcher.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * 编译期收集 AsPreAction、AsRuleHandler、AsAfterAction 标注的控制器，生成已排序的 HandlerRegistry 实现及其
+ * ServiceLoader 声明，启动整理时不再扫描注解。
+ * <br/>
+ * 注解按名称读取，处理器不依赖 ruledispatcher。生成类所在的包通过 -Aruledispatcher.registryPackage 指定，
+ * 多个模块同时使用时需各自指定。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+public class RuleDispatcherProcessor extends AbstractProcessor {
+
+    static final String OPTION_REGISTRY_PACKAGE = "ruledispatcher.registryPackage";
+    static final String DEFAULT_REGISTRY_PACKAGE = "com.chl.ruledispatcher.registry";
+    static final String REGISTRY_CLASS = "RuleDispatcherRegistry";
+
+    static final String HANDLER_PACKAGE = "com.chl.ruledispatcher.handler";
+    static final String REGISTRY_INTERFACE = HANDLER_PACKAGE + ".HandlerRegistry";
+
+    /**
+     * 注解 -> 控制器基类、定义工厂方法
+     */
+    private static final String[][] KINDS = {
+            {"com.chl.ruledispatcher.anotations.AsPreAction", HANDLER_PACKAGE + ".PreAction", "preAction"},
+            {"com.chl.ruledispatcher.anotations.AsRuleHandler", HANDLER_PACKAGE + ".RuleHandler", "ruleHandler"},
+            {"com.chl.ruledispatcher.anotations.AsAfterAction", HANDLER_PACKAGE + ".AfterAction", "afterAction"},
+    };
+
+    /**
+     * 作为定义字段生成的属性
+     */
+    private static final Set<String> DEFINITION_ATTRIBUTES = new HashSet<>(
+            Arrays.asList("scene", "app", "rule", "priority", "exclusive"));
+
+    private static final String[] GENERATED_ANNOTATIONS = {
+            "javax.annotation.processing.Generated",
+            "javax.annotation.Generated",
+    };
+
+    private final List<Definition> definitions = new ArrayList<>();
+    private boolean generated;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new HashSet<>();
+        for (String[] kind : KINDS) {
+            types.add(kind[0]);
+        }
+        return types;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return new HashSet<>(Arrays.asList(OPTION_REGISTRY_PACKAGE));
+    }
+
+    /**
+     * 注解按名称读取，不依赖特定版本的语法，支持当前编译器的最新版本，高版本javac不再告警
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            return false;
+        }
+
+        int found = 0;
+        for (String[] kind : KINDS) {
+            TypeElement annotation = processingEnv.getElementUtils().getTypeElement(kind[0]);
+            if (null == annotation) {
+                continue;
+            }
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Definition definition = collect(element, kind);
+                if (null != definition) {
+                    definitions.add(definition);
+                    found++;
+                }
+            }
+        }
+
+        if (found == 0) {
+            return false;
+        }
+        if (generated) {
+            // 注册表已在前一轮生成，不能再追加
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "RuleDispatcher handler generated by other processors is not supported in registry");
+            return false;
+        }
+
+        generate();
+        generated = true;
+        return false;
+    }
+
+    /**
+     * 校验并读取一个控制器，不合法时报告错误并返回null
+     */
+    private Definition collect(Element element, String[] kind) {
+        if (element.getKind() != ElementKind.CLASS) {
+            error(element, kind[0] + " can only be applied to class");
+            return null;
+        }
+        TypeElement type = (TypeElement) element;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(type, "RuleDispatcher handler can not be abstract");
+            return null;
+        }
+        // 生成类在其他包中引用控制器，需要逐层public
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (!e.getModifiers().contains(Modifier.PUBLIC)) {
+                error(type, "RuleDispatcher handler must be public: " + e);
+                return null;
+            }
+            if (e.getEnclosingElement() instanceof TypeElement && !e.getModifiers().contains(Modifier.STATIC)) {
+                error(type, "RuleDispatcher nested handler must be static");
+                return null;
+            }
+        }
+        TypeElement base = processingEnv.getElementUtils().getTypeElement(kind[1]);
+        if (null != base) {
+            TypeMirror baseType = processingEnv.getTypeUtils().erasure(base.asType());
+            if (!processingEnv.getTypeUtils().isSubtype(processingEnv.getTypeUtils().erasure(type.asType()), baseType)) {
+                error(type, "RuleDispatcher handler must extend " + kind[1]);
+                return null;
+            }
+        }
+
+        AnnotationMirror mirror = null;
+        for (AnnotationMirror annotationMirror : type.getAnnotationMirrors()) {
+            if (((TypeElement) annotationMirror.getAnnotationType().asElement()).getQualifiedName()
+                    .contentEquals(kind[0])) {
+                mirror = annotationMirror;
+            }
+        }
+        if (null == mirror) {
+            return null;
+        }
+
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            values.put(entry.getKey().getSimpleName().toString(), entry.getValue().getValue());
+        }
+
+        Definition definition = new Definition();
+        definition.factory = kind[2];
+        definition.type = type.getQualifiedName().toString();
+        definition.scene = (String) values.get("scene");
+        definition.app = (String) values.get("app");
+        definition.rule = (String) values.get("rule");
+        definition.priority = (Integer) values.get("priority");
+        definition.exclusive = Boolean.TRUE.equals(values.get("exclusive"));
+        // 其余显式声明的属性原样生成，整理时据此构建元数据
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            String name = entry.getKey().getSimpleName().toString();
+            if (DEFINITION_ATTRIBUTES.contains(name)) {
+                continue;
+            }
+            String literal = literal(entry.getKey().getReturnType(), entry.getValue());
+            if (null == literal) {
+                error(type, "RuleDispatcher unsupported attribute " + name);
+                return null;
+            }
+            definition.attributes.put(name, literal);
+        }
+
+        for (Definition exist : definitions) {
+            if (exist.factory.equals(definition.factory) && exist.scene.equals(definition.scene)
+                    && exist.app.equals(definition.app) && exist.rule.equals(definition.rule)) {
+                // 整理时只保留先注册的一个
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "RuleDispatcher duplicate " + definition.factory + " " + definition.scene + " "
+                                + definition.app + " " + definition.rule + " with " + exist.type, type);
+            }
+        }
+        return definition;
+    }
+
+    private void generate() {
+        String registryPackage = processingEnv.getOptions().get(OPTION_REGISTRY_PACKAGE);
+        if (null == registryPackage || registryPackage.isEmpty()) {
+            registryPackage = DEFAULT_REGISTRY_PACKAGE;
+        }
+        String registryName = registryPackage + "." + REGISTRY_CLASS;
+
+        List<Definition> sorted = new ArrayList<>(definitions);
+        sorted.sort(Comparator.comparing((Definition d) -> d.factory)
+                .thenComparing(d -> d.scene)
+                .thenComparing(d -> d.app)
+                .thenComparingInt(d -> d.priority)
+                .thenComparing(d -> d.rule));
+
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(registryPackage).append(";\n\n");
+        source.append("import java.util.Arrays;\n");
+        source.append("import java.util.List;\n\n");
+        source.append("import ").append(HANDLER_PACKAGE).append(".HandlerDefinition;\n");
+        source.append("import ").append(REGISTRY_INTERFACE).append(";\n\n");
+        String generatedAnnotation = generatedAnnotation();
+        if (null != generatedAnnotation) {
+            source.append('@').append(generatedAnnotation).append("(\"").append(getClass().getName()).append("\")\n");
+        }
+        source.append("public final class ").append(REGISTRY_CLASS).append(" implements HandlerRegistry {\n\n");
+        source.append("    @Override\n");
+        source.append("    public List<HandlerDefinition> definitions() {\n");
+        source.append("        return Arrays.asList(");
+        for (int i = 0; i < sorted.size(); i++) {
+            Definition d = sorted.get(i);
+            source.append(i == 0 ? "\n" : ",\n");
+            source.append("                HandlerDefinition.").append(d.factory).append('(')
+                    .append(d.type).append(".class, ")
+                    .append(processingEnv.getElementUtils().getConstantExpression(d.scene)).append(", ")
+                    .append(processingEnv.getElementUtils().getConstantExpression(d.app)).append(", ")
+                    .append(processingEnv.getElementUtils().getConstantExpression(d.rule)).append(", ")
+                    .append(d.priority);
+            if ("ruleHandler".equals(d.factory)) {
+                source.append(", ").append(d.exclusive);
+            }
+            source.append(')');
+            for (Map.Entry<String, String> attribute : d.attributes.entrySet()) {
+                source.append("\n                        .attribute(")
+                        .append(processingEnv.getElementUtils().getConstantExpression(attribute.getKey())).append(", ")
+                        .append(attribute.getValue()).append(')');
+            }
+        }
+        source.append(");\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(registryName);
+            try (Writer writer = sourceFile.openWriter()) {
+                writer.write(source.toString());
+            }
+            FileObject serviceFile = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + REGISTRY_INTERFACE);
+            try (Writer writer = serviceFile.openWriter()) {
+                writer.write(registryName);
+                writer.write("\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "RuleDispatcher generate registry fail " + e);
+        }
+    }
+
+    /**
+     * @param type 属性类型
+     * @return 属性值的Java字面量，不支持的类型（如嵌套注解）返回null
+     */
+    private String literal(TypeMirror type, AnnotationValue value) {
+        Object v = value.getValue();
+        if (v instanceof List) {
+            TypeMirror componentType = ((ArrayType) type).getComponentType();
+            StringBuilder literal = new StringBuilder("new ")
+                    .append(processingEnv.getTypeUtils().erasure(componentType)).append("[]{");
+            List<?> elements = (List<?>) v;
+            for (int i = 0; i < elements.size(); i++) {
+                String element = literal(componentType, (AnnotationValue) elements.get(i));
+                if (null == element) {
+                    return null;
+                }
+                literal.append(i == 0 ? "" : ", ").append(element);
+            }
+            return literal.append('}').toString();
+        }
+        if (v instanceof VariableElement) {
+            VariableElement constant = (VariableElement) v;
+            return ((TypeElement) constant.getEnclosingElement()).getQualifiedName() + "." + constant.getSimpleName();
+        }
+        if (v instanceof TypeMirror) {
+            return processingEnv.getTypeUtils().erasure((TypeMirror) v) + ".class";
+        }
+        if (v instanceof AnnotationMirror) {
+            return null;
+        }
+        return processingEnv.getElementUtils().getConstantExpression(v);
+    }
+
+    /**
+     * Generated 注解在JDK9+为 javax.annotation.processing.Generated，JDK8为 javax.annotation.Generated，
+     * 编译环境中都不存在时不标注
+     */
+    private String generatedAnnotation() {
+        for (String name : GENERATED_ANNOTATIONS) {
+            if (null != processingEnv.getElementUtils().getTypeElement(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static class Definition {
+        String factory;
+        String type;
+        String scene;
+        String app;
+        String rule;
+        int priority;
+        boolean exclusive;
+
+        /**
+         * 属性名 -> 字面量
+         */
+        final Map<String, String> attributes = new LinkedHashMap<>();
+    }
+}
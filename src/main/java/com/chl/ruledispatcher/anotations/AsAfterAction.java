@@ -35,4 +35,79 @@ public @interface AsAfterAction {
      * @return 优先级 越小优先级越高,默认50.
      */
     int priority() default 50;
+
+    /**
+     * @return 异步执行，context放入有界队列后立即返回，由后台线程按批次调用；默认false
+     */
+    boolean async() default false;
+
+    /**
+     * @return 异步队列容量
+     */
+    int queueCapacity() default 1024;
+
+    /**
+     * @return 异步时每批最多context数
+     */
+    int batchSize() default 100;
+
+    /**
+     * @return 异步时一批从第一个context入队起最多等待的毫秒数
+     */
+    long flushIntervalMillis() default 100;
+
+    /**
+     * @return 异步队列已满时的处理方式
+     */
+    Overflow overflow() default Overflow.BLOCK;
+
+    /**
+     * 异步队列已满时的处理方式
+     */
+    enum Overflow {
+        /**
+         * 阻塞调度线程直到有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃，计入统计
+         */
+        DROP,
+        /**
+         * 在调度线程上直接执行
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * 读取的context属性或键，按名称比较；与 writes 均未声明时视为读写全部
+     * @return 默认空
+     */
+    String[] reads() default {};
+
+    /**
+     * 写入的context属性或键，场景开启 SceneConfig#dependencyScheduling 时，与前序控制器读写不冲突的后置行为提前并行执行
+     * @return 默认空
+     */
+    String[] writes() default {};
+
+    /**
+     * @return 时间预算毫秒数，执行超出时记为超时；0为不限
+     */
+    long budgetMillis() default 0;
+
+    /**
+     * @return 可选，调度剩余时间不足预算或断路时跳过；异步时在入队前判断；默认false
+     */
+    boolean optional() default false;
+
+    /**
+     * @return 可选且声明预算时，连续超时多少次后断路，断路期间跳过；0为不断路
+     */
+    int breakerThreshold() default 5;
+
+    /**
+     * @return 断路持续的毫秒数，期满后放行一次试探
+     */
+    long breakerOpenMillis() default 10000;
 }
@@ -34,4 +34,51 @@ public @interface AsPreAction {
      * @return 优先级 越小优先级越高,默认50.
      */
     int priority() default 50;
+
+    /**
+     * @return 并行执行，与同一 scene + app 下其他并行前置行为同时开始，结果仍按优先级取；前置行为互不依赖时可开启，默认false
+     */
+    boolean parallel() default false;
+
+    /**
+     * @return 并行执行时的超时毫秒数，从开始调度计时，0为不限
+     */
+    long timeoutMillis() default 0;
+
+    /**
+     * @return 超时是否视为立即返回，默认false即视为通过
+     */
+    boolean vetoOnTimeout() default false;
+
+    /**
+     * 读取的context属性或键，按名称比较；整理时检查并行前置行为之间的读写冲突
+     * @return 默认空
+     */
+    String[] reads() default {};
+
+    /**
+     * 写入的context属性或键
+     * @return 默认空
+     */
+    String[] writes() default {};
+
+    /**
+     * @return 时间预算毫秒数，执行超出时记为超时；0为不限
+     */
+    long budgetMillis() default 0;
+
+    /**
+     * @return 可选，调度剩余时间不足预算或断路时跳过；默认false
+     */
+    boolean optional() default false;
+
+    /**
+     * @return 可选且声明预算时，连续超时多少次后断路，断路期间跳过；0为不断路
+     */
+    int breakerThreshold() default 5;
+
+    /**
+     * @return 断路持续的毫秒数，期满后放行一次试探
+     */
+    long breakerOpenMillis() default 10000;
 }
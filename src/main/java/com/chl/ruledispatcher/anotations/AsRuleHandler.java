@@ -38,4 +38,75 @@ public @interface AsRuleHandler {
      * @return 排他性，命中后不再匹配后续规则处理器，默认false，即继续后续规则匹配
      */
     boolean exclusive() default false;
+
+    /**
+     * @return 并行匹配，match不依赖前序规则action的结果时可开启，调度时与其他规则的match并行执行，action仍按优先级执行；默认false
+     */
+    boolean parallelMatch() default false;
+
+    /**
+     * @return 匹配结果缓存容量，大于0时开启，需要实现 RuleHandler#matchCacheKey；批量匹配时按context分别读取缓存，只批量匹配未命中的context；默认0，即不缓存
+     */
+    int matchCacheSize() default 0;
+
+    /**
+     * @return 匹配结果缓存过期时间，毫秒，小于等于0时不过期；默认60000
+     */
+    long matchCacheTtlMillis() default 60000;
+
+    /**
+     * 声明式匹配条件，对context属性的等值或范围判断，全部满足后再调用match；纯声明式规则的match可直接返回true。
+     * <br/>
+     * 形如 {@code channel == 'app'}、{@code level in (1, 2)}、{@code amount >= 100}，支持 ==、in、&gt;、&gt;=、&lt;、&lt;=；
+     * 整理时编译为索引，调度时只对满足条件的规则调用match。
+     * @return 默认空，即只由match判断
+     */
+    String[] conditions() default {};
+
+    /**
+     * 标签，调度时可按 RuleDispatcherContext#tags 的标签表达式只执行部分规则，如 fraud、fraud | aml
+     * @return 默认空
+     */
+    String[] tags() default {};
+
+    /**
+     * 读取的context属性或键，按名称比较；与 writes 均未声明时视为读写全部
+     * @return 默认空
+     */
+    String[] reads() default {};
+
+    /**
+     * 写入的context属性或键，场景开启 SceneConfig#dependencyScheduling 时，与前序控制器读写不冲突的规则提前并行执行
+     * @return 默认空
+     */
+    String[] writes() default {};
+
+    /**
+     * 顺序无关分组：按优先级相邻且分组相同的非排他性规则为一段，段内按在线统计的match耗时调整执行顺序；
+     * 排他性规则不参与调整，保持优先级位置并作为段的边界，未分组的规则同样保持优先级顺序。
+     * <br/>
+     * 同组规则的action须互不依赖。
+     * @return 默认空，即不参与调整
+     */
+    String orderGroup() default "";
+
+    /**
+     * @return 时间预算毫秒数，执行超出时记为超时；0为不限
+     */
+    long budgetMillis() default 0;
+
+    /**
+     * @return 可选，调度剩余时间不足预算或断路时跳过；排他性规则总是执行；默认false
+     */
+    boolean optional() default false;
+
+    /**
+     * @return 可选且声明预算时，连续超时多少次后断路，断路期间跳过；0为不断路
+     */
+    int breakerThreshold() default 5;
+
+    /**
+     * @return 断路持续的毫秒数，期满后放行一次试探
+     */
+    long breakerOpenMillis() default 10000;
 }
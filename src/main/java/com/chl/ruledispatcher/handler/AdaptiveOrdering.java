@@ -0,0 +1,292 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 规则顺序的自适应调整，只在 {@link com.chl.ruledispatcher.anotations.AsRuleHandler#orderGroup()} 相同的相邻非排他性规则段内进行；
+ * 排他性规则命中时截断后续，移动它会改变哪些action执行，因此保持优先级位置并作为段的边界。
+ * <br/>
+ * 后台线程按间隔读取规则控制器的调用统计，取上次以来的增量估计每个规则的match耗时 c，段内按 c 升序。
+ * 期望耗时为段内 Σ c，新顺序的期望耗时降低超过 {@link #MIN_IMPROVEMENT} 时记录新顺位并重新发布节点，
+ * 调度只读取发布后的不可变顺序；段内规则全部执行时期望耗时与顺序无关，保持原顺序。
+ * <br/>
+ * 统计关闭或样本不足的段保持原顺序。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class AdaptiveOrdering implements Runnable {
+
+    static final long DEFAULT_INTERVAL_MILLIS = 10000;
+
+    /**
+     * 估计耗时与命中率需要的最少调用次数
+     */
+    static final int MIN_SAMPLES = 32;
+
+    /**
+     * 期望耗时至少降低的比例，避免统计抖动导致反复发布
+     */
+    static final double MIN_IMPROVEMENT = 0.1;
+
+    /**
+     * scene/app -> 顺序调整，重新发布后沿用
+     */
+    private static final Map<String, AdaptiveOrdering> orderingMap = new ConcurrentHashMap<>();
+
+    /**
+     * 全部顺序调整共用的后台线程，首次使用时创建
+     */
+    private static ScheduledExecutorService scheduler;
+
+    final String name;
+    private final String scene;
+    private final String app;
+    private final long intervalMillis;
+    private final ScheduledFuture<?> future;
+
+    /**
+     * rule -> 段内顺位，由后台线程更新，编译节点时读取
+     */
+    private volatile Map<String, Integer> ranks = Collections.emptyMap();
+
+    /**
+     * rule -> 上次读取的调用次数、命中次数、match总耗时，仅后台线程访问
+     */
+    private final Map<String, long[]> lastCounters = new HashMap<>();
+
+    private volatile long reorderCount;
+    private volatile long lastReorderMillis;
+    private volatile double expectedNanos;
+
+    private AdaptiveOrdering(String scene, String app, long intervalMillis) {
+        this.scene = scene;
+        this.app = app;
+        this.name = scene + "/" + app;
+        this.intervalMillis = intervalMillis;
+        this.future = scheduler().scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 编译节点时调用，按记录的顺位调整分组段内的顺序；没有分组时移除已有的顺序调整
+     * @param ruleHandlers 按优先级排序的规则控制器
+     * @return 调整后的规则控制器，不修改入参
+     */
+    static RuleHandler[] apply(SceneConfig sceneConfig, String scene, String app, RuleHandler[] ruleHandlers) {
+        String name = scene + "/" + app;
+        long intervalMillis = null == sceneConfig ? DEFAULT_INTERVAL_MILLIS : sceneConfig.getReorderIntervalMillis();
+        AdaptiveOrdering exist = orderingMap.get(name);
+        if (intervalMillis <= 0 || !hasGroup(ruleHandlers)) {
+            if (null != exist) {
+                orderingMap.remove(name);
+                exist.future.cancel(false);
+            }
+            return ruleHandlers;
+        }
+
+        AdaptiveOrdering ordering = exist;
+        if (null == ordering || ordering.intervalMillis != intervalMillis) {
+            if (null != exist) {
+                exist.future.cancel(false);
+            }
+            ordering = new AdaptiveOrdering(scene, app, intervalMillis);
+            orderingMap.put(name, ordering);
+        }
+        return ordering.order(ruleHandlers);
+    }
+
+    static Map<String, OrderingStats> allStats() {
+        Map<String, OrderingStats> statsMap = new TreeMap<>();
+        for (AdaptiveOrdering ordering : orderingMap.values()) {
+            statsMap.put(ordering.name, ordering.stats());
+        }
+        return statsMap;
+    }
+
+    private RuleHandler[] order(RuleHandler[] ruleHandlers) {
+        Map<String, Integer> ranks = this.ranks;
+        RuleHandler[] ordered = ruleHandlers.clone();
+        if (ranks.isEmpty()) {
+            return ordered;
+        }
+        Comparator<RuleHandler> comparator = Comparator.comparingInt(
+                ruleHandler -> ranks.getOrDefault(ruleHandler.asRuleHandler.rule(), Integer.MAX_VALUE));
+        for (int start = 0, end; start < ordered.length; start = end) {
+            end = runEnd(ordered, start);
+            if (end - start > 1) {
+                // 稳定排序，没有顺位的保持原顺序
+                Arrays.sort(ordered, start, end, comparator);
+            }
+        }
+        return ordered;
+    }
+
+    @Override
+    public void run() {
+        try {
+            reorder();
+        } catch (Throwable e) {
+            log.warn("RuleDispatcher reorder fail {}", name, e);
+        }
+    }
+
+    private void reorder() {
+        DispatchNode dispatchNode = RuleDispatcher.currentDispatchNode(scene, app);
+        if (null == dispatchNode) {
+            return;
+        }
+
+        RuleHandler[] ruleHandlers = dispatchNode.ruleHandlers;
+        Map<String, Integer> newRanks = new HashMap<>();
+        double currentNanos = 0;
+        double proposedNanos = 0;
+        for (int start = 0, end; start < ruleHandlers.length; start = end) {
+            end = runEnd(ruleHandlers, start);
+            if (null == group(ruleHandlers[start])) {
+                continue;
+            }
+
+            List<Estimate> estimates = new ArrayList<>(end - start);
+            boolean known = true;
+            for (int i = start; i < end; i++) {
+                Estimate estimate = estimate(ruleHandlers[i]);
+                known &= null != estimate;
+                estimates.add(estimate);
+            }
+            if (!known) {
+                for (int i = start; i < end; i++) {
+                    newRanks.put(dispatchNode.rules[i], i - start);
+                }
+                continue;
+            }
+
+            List<Estimate> proposed = new ArrayList<>(estimates);
+            proposed.sort(Comparator.comparingDouble(estimate -> estimate.cost));
+            currentNanos += expectedNanos(estimates);
+            proposedNanos += expectedNanos(proposed);
+            for (int i = 0; i < proposed.size(); i++) {
+                newRanks.put(proposed.get(i).rule, i);
+            }
+        }
+
+        if (proposedNanos < currentNanos * (1 - MIN_IMPROVEMENT)) {
+            ranks = newRanks;
+            reorderCount++;
+            lastReorderMillis = System.currentTimeMillis();
+            expectedNanos = proposedNanos;
+            RuleDispatcher.republish(scene, app);
+            log.info("RuleDispatcher reorder {} expectedNanos {} -> {} {}", name, (long) currentNanos,
+                    (long) proposedNanos, Arrays.toString(RuleDispatcher.currentDispatchNode(scene, app).rules));
+        } else {
+            expectedNanos = currentNanos;
+        }
+    }
+
+    /**
+     * 取上次以来的增量估计，增量不足时取累计值
+     * @return 样本不足时返回null
+     */
+    private Estimate estimate(RuleHandler ruleHandler) {
+        HandlerMetrics metrics = ruleHandler.metrics;
+        String rule = ruleHandler.asRuleHandler.rule();
+        long[] now = {metrics.invocationCount.sum(), metrics.hitCount.sum(), metrics.latency.totalNanos()};
+        long[] last = lastCounters.put(rule, now);
+        long[] window = null == last || now[0] - last[0] < MIN_SAMPLES ? now
+                : new long[]{now[0] - last[0], now[1] - last[1], now[2] - last[2]};
+        if (window[0] < MIN_SAMPLES) {
+            return null;
+        }
+        return new Estimate(rule, (double) window[2] / window[0]);
+    }
+
+    /**
+     * 按顺序的期望耗时，段内没有排他性规则，每个规则都会执行
+     */
+    private static double expectedNanos(List<Estimate> estimates) {
+        double nanos = 0;
+        for (Estimate estimate : estimates) {
+            nanos += estimate.cost;
+        }
+        return nanos;
+    }
+
+    /**
+     * @return 从start开始分组相同的相邻非排他性规则段的结束下标，未分组或排他性的规则单独为一段
+     */
+    private static int runEnd(RuleHandler[] ruleHandlers, int start) {
+        String group = group(ruleHandlers[start]);
+        int end = start + 1;
+        if (null == group) {
+            return end;
+        }
+        while (end < ruleHandlers.length && group.equals(group(ruleHandlers[end]))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return 参与调整的分组，未分组或排他性规则为null
+     */
+    private static String group(RuleHandler ruleHandler) {
+        String group = ruleHandler.asRuleHandler.orderGroup();
+        return RuleDispatcher.isEmpty(group) || ruleHandler.asRuleHandler.exclusive() ? null : group;
+    }
+
+    private static boolean hasGroup(RuleHandler[] ruleHandlers) {
+        for (RuleHandler ruleHandler : ruleHandlers) {
+            if (null != group(ruleHandler)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (null == scheduler) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "RuleDispatcher-reorder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+
+    OrderingStats stats() {
+        OrderingStats stats = new OrderingStats();
+        stats.setName(name);
+        DispatchNode dispatchNode = RuleDispatcher.currentDispatchNode(scene, app);
+        stats.setRuleOrder(null == dispatchNode ? Collections.<String>emptyList() : Arrays.asList(dispatchNode.rules.clone()));
+        stats.setReorderCount(reorderCount);
+        stats.setExpectedNanos(expectedNanos);
+        stats.setLastReorderMillis(lastReorderMillis);
+        return stats;
+    }
+
+    private static final class Estimate {
+        final String rule;
+        final double cost;
+
+        Estimate(String rule, double cost) {
+            this.rule = rule;
+            this.cost = cost;
+        }
+    }
+}
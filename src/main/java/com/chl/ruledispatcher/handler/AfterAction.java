@@ -2,6 +2,7 @@ package com.chl.ruledispatcher.handler;
 
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.chl.ruledispatcher.anotations.AsAfterAction;
@@ -14,17 +15,107 @@ import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
 public abstract class AfterAction<T extends RuleDispatcherContext> {
     AsAfterAction asAfterAction;
 
+    /**
+     * 调用统计
+     */
+    final HandlerMetrics metrics = new HandlerMetrics(false);
+
+    /**
+     * 时间预算与断路器，未声明可选与预算时为null
+     */
+    HandlerBudget budget;
+
+    /**
+     * 异步队列，同步执行时为null
+     */
+    volatile AfterActionQueue queue;
+
     /**
      * 可以将处理结果放在context中
      * @param ruleDispatcherContext
      */
     abstract protected void handle(T ruleDispatcherContext);
 
+    /**
+     * 执行并记录统计
+     */
+    void doHandle(T ruleDispatcherContext) {
+        if (!HandlerMetrics.enabled) {
+            handle(ruleDispatcherContext);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            handle(ruleDispatcherContext);
+        } catch (Throwable e) {
+            metrics.errorCount.increment();
+            throw e;
+        }
+        metrics.record(System.nanoTime() - start, false);
+    }
+
+    /**
+     * 批量执行并记录统计，批量后置行为一次处理，否则逐个执行
+     */
+    @SuppressWarnings("unchecked")
+    void doHandle(List<T> ruleDispatcherContexts) {
+        long start = HandlerMetrics.enabled ? System.nanoTime() : 0;
+        try {
+            if (this instanceof BatchAfterAction) {
+                ((BatchAfterAction) this).handle(ruleDispatcherContexts);
+            } else {
+                for (T ruleDispatcherContext : ruleDispatcherContexts) {
+                    handle(ruleDispatcherContext);
+                }
+            }
+        } catch (Throwable e) {
+            metrics.errorCount.increment();
+            throw e;
+        }
+        if (HandlerMetrics.enabled) {
+            metrics.record(ruleDispatcherContexts.size(), 0, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 异步时入队，否则直接执行
+     */
+    void submit(T ruleDispatcherContext) {
+        AfterActionQueue afterActionQueue = queue;
+        if (null == afterActionQueue) {
+            doHandle(ruleDispatcherContext);
+        } else {
+            afterActionQueue.submit(ruleDispatcherContext);
+        }
+    }
+
+    /**
+     * 异步时启动队列，加入控制器关系时调用；已停止的队列由新队列代替
+     */
+    void start() {
+        AfterActionQueue afterActionQueue = queue;
+        if (asAfterAction.async() && (null == afterActionQueue || afterActionQueue.isStopped())) {
+            queue = new AfterActionQueue(this);
+        }
+    }
+
+    /**
+     * 停止接收，已入队的继续处理；移出控制器关系时调用，再次加入时重新启动
+     */
+    void stop() {
+        AfterActionQueue afterActionQueue = queue;
+        if (null != afterActionQueue) {
+            afterActionQueue.stop();
+            queue = null;
+        }
+    }
+
     static Comparator<AfterAction> comparator = new Comparator<AfterAction>() {
 
         @Override
         public int compare(AfterAction o1, AfterAction o2) {
-            return o1.asAfterAction.priority() < o2.asAfterAction.priority() ? -1 : 1;
+            return Integer.compare(o1.asAfterAction.priority(), o2.asAfterAction.priority());
         }
     };
 
@@ -0,0 +1,168 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.chl.ruledispatcher.anotations.AsAfterAction;
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 异步后置行为的有界队列与后台线程，按数量或时间凑批后调用后置行为。
+ * <br/>
+ * 停止后不再接收，已入队的context全部处理完后线程退出；停止后提交的context在调度线程上直接执行，
+ * 与停止并发入队的context由后台线程或提交线程之一处理。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class AfterActionQueue implements Runnable {
+
+    private final AfterAction afterAction;
+    private final BlockingQueue<RuleDispatcherContext> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AsAfterAction.Overflow overflow;
+    private final Thread worker;
+
+    private volatile boolean stopped;
+
+    /**
+     * 后台线程已退出，之后入队的context由提交线程取出处理
+     */
+    private volatile boolean exited;
+
+    AfterActionQueue(AfterAction afterAction) {
+        AsAfterAction asAfterAction = afterAction.asAfterAction;
+        this.afterAction = afterAction;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, asAfterAction.queueCapacity()));
+        this.batchSize = Math.max(1, asAfterAction.batchSize());
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, asAfterAction.flushIntervalMillis()));
+        this.overflow = asAfterAction.overflow();
+        this.worker = new Thread(this, "RuleDispatcher-afterAction-" + asAfterAction.scene() + "-"
+                + asAfterAction.app() + "-" + asAfterAction.rule());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 入队，队列已满时按 overflow 处理
+     */
+    @SuppressWarnings("unchecked")
+    void submit(RuleDispatcherContext ruleDispatcherContext) {
+        if (!stopped && queue.offer(ruleDispatcherContext)) {
+            drainIfExited();
+            return;
+        }
+        if (stopped) {
+            afterAction.doHandle(ruleDispatcherContext);
+            return;
+        }
+
+        switch (overflow) {
+            case DROP:
+                afterAction.metrics.droppedCount.increment();
+                return;
+            case CALLER_RUNS:
+                afterAction.doHandle(ruleDispatcherContext);
+                return;
+            default:
+                try {
+                    queue.put(ruleDispatcherContext);
+                    drainIfExited();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("RuleDispatcher afterAction interrupted", e);
+                }
+        }
+    }
+
+    /**
+     * 入队与后台线程退出并发时，后台线程可能已不再取队列，由提交线程处理剩余的context
+     */
+    private void drainIfExited() {
+        if (!exited) {
+            return;
+        }
+        List<RuleDispatcherContext> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        flush(rest);
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * 停止接收，已入队的继续处理
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return 是否在超时前处理完
+     */
+    boolean await(long timeoutMillis) throws InterruptedException {
+        worker.join(Math.max(1, timeoutMillis));
+        return !worker.isAlive();
+    }
+
+    @Override
+    public void run() {
+        List<RuleDispatcherContext> batch = new ArrayList<>(batchSize);
+        while (!stopped || !queue.isEmpty()) {
+            try {
+                RuleDispatcherContext first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || stopped || remaining <= 0) {
+                        break;
+                    }
+                    RuleDispatcherContext next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (null == next) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 只响应停止，已取出的与剩余的继续处理
+                stopped = true;
+                flush(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        // 先标记退出再取剩余，与提交线程的入队后检查配合，保证每个已入队的context都被处理
+        exited = true;
+        queue.drainTo(batch);
+        flush(batch);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void flush(List<RuleDispatcherContext> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            afterAction.doHandle(batch);
+        } catch (Throwable e) {
+            log.warn("RuleDispatcher afterAction batch fail {} {}", afterAction.asAfterAction, batch.size(), e);
+        }
+    }
+}
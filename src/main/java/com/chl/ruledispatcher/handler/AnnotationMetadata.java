@@ -0,0 +1,48 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * 由属性值构建注解实例，用于决策表规则与编译期生成的控制器定义；未给出的属性取注解默认值
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class AnnotationMetadata {
+
+    private AnnotationMetadata() {
+    }
+
+    /**
+     * @param values 属性名 -> 值，数组属性返回时拷贝
+     */
+    @SuppressWarnings("unchecked")
+    static <A extends Annotation> A of(Class<A> annotationType, Map<String, Object> values) {
+        return (A) Proxy.newProxyInstance(annotationType.getClassLoader(), new Class[]{annotationType},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ("annotationType".equals(name)) {
+                        return annotationType;
+                    }
+                    if ("toString".equals(name)) {
+                        return "@" + annotationType.getName() + values;
+                    }
+                    if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    }
+                    Object value = values.containsKey(name) ? values.get(name) : method.getDefaultValue();
+                    if (null != value && value.getClass().isArray()) {
+                        int length = Array.getLength(value);
+                        Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+                        System.arraycopy(value, 0, copy, 0, length);
+                        return copy;
+                    }
+                    return value;
+                });
+    }
+}
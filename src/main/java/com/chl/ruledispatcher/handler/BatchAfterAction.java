@@ -0,0 +1,25 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 支持批量执行的后置行为，异步执行时一批context一次性处理，
+ * 同步执行时以一个元素的批次调用。
+ * @author ccchhhlll1988@163.com
+ */
+public abstract class BatchAfterAction<T extends RuleDispatcherContext> extends AfterAction<T> {
+
+    /**
+     * 批量执行，可以在此合并写入
+     * @param ruleDispatcherContexts
+     */
+    abstract protected void handle(List<T> ruleDispatcherContexts);
+
+    @Override
+    protected final void handle(T ruleDispatcherContext) {
+        handle(Collections.singletonList(ruleDispatcherContext));
+    }
+}
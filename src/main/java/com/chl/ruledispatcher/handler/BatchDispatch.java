@@ -0,0 +1,356 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 批量调度，同一场景+app+规则选择的一组context共用节点，按控制器逐个处理整组。
+ * <br/>
+ * 与逐个调度的区别：先由一个控制器处理完整组，再进入下一个控制器；单个context看到的处理顺序不变。
+ * 批量调度不使用并行匹配。
+ * <br/>
+ * 可选控制器按每个context的截止时间与断路状态跳过；批量控制器只处理未跳过的context，整批耗时判定一次预算，
+ * 超时记录到整批的每个context。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class BatchDispatch {
+
+    private BatchDispatch() {
+    }
+
+    /**
+     * 调度一组context，组内的 rule、rules、tags 相同：rule 为精确规则，为空时按 rules、tags 选择规则链
+     */
+    static void dispatch(DispatchNode dispatchNode, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        RuleDispatcherContext first = ruleDispatcherContexts.get(0);
+        String rule = first.getRule();
+        List<RuleDispatcherContext> actives = doPreAction(dispatchNode, ruleDispatcherContexts);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatchBatch after doPreAction {} {} {} {}/{}", dispatchNode.scene, dispatchNode.app,
+                    rule, actives.size(), ruleDispatcherContexts.size());
+        }
+
+        if (actives.isEmpty()) {
+            return;
+        }
+
+        doRuleHandler(dispatchNode, rule, first.getRules(), first.getTags(), actives);
+        doAfterAction(dispatchNode, actives);
+    }
+
+    /**
+     * @return 未被前置行为返回的context
+     */
+    @SuppressWarnings("unchecked")
+    private static List<RuleDispatcherContext> doPreAction(DispatchNode dispatchNode, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        PreAction[] preActions = dispatchNode.preActions;
+        HandlerBudget[] budgets = dispatchNode.preActionBudgets;
+        List<RuleDispatcherContext> actives = ruleDispatcherContexts;
+        for (int p = 0; p < preActions.length && !actives.isEmpty(); p++) {
+            PreAction preAction = preActions[p];
+            HandlerBudget budget = budgets[p];
+            List<RuleDispatcherContext> remains = new ArrayList<>(actives.size());
+            if (preAction instanceof BatchPreAction) {
+                // 跳过的context视为未返回
+                boolean[] skipped = skip(budget, actives);
+                List<RuleDispatcherContext> participants = null == skipped ? actives : participants(actives, skipped);
+                boolean[] isReturns = null;
+                if (!participants.isEmpty()) {
+                    long start = System.nanoTime();
+                    isReturns = checkResults(((BatchPreAction) preAction).handle(participants), participants.size(),
+                            HandlerMetricsSnapshot.KIND_PRE_ACTION, preAction, preAction.asPreAction.rule());
+                    long nanos = System.nanoTime() - start;
+                    RuleDispatcher.complete(budget, nanos, participants);
+                    if (HandlerMetrics.enabled) {
+                        int returned = 0;
+                        for (boolean isReturn : isReturns) {
+                            returned += isReturn ? 1 : 0;
+                        }
+                        preAction.metrics.record(participants.size(), returned, nanos);
+                    }
+                }
+                for (int i = 0, j = 0; i < actives.size(); i++) {
+                    if ((null != skipped && skipped[i]) || !isReturns[j++]) {
+                        remains.add(actives.get(i));
+                    }
+                }
+            } else {
+                for (RuleDispatcherContext ruleDispatcherContext : actives) {
+                    if (RuleDispatcher.skip(budget, ruleDispatcherContext, null)) {
+                        remains.add(ruleDispatcherContext);
+                        continue;
+                    }
+                    long start = null == budget ? 0 : System.nanoTime();
+                    boolean isReturn = preAction.doHandle(ruleDispatcherContext);
+                    if (null != budget) {
+                        RuleDispatcher.complete(budget, HandlerMetricsSnapshot.KIND_PRE_ACTION, preAction.asPreAction.rule(),
+                                isReturn, System.nanoTime() - start, ruleDispatcherContext, null);
+                    }
+                    if (!isReturn) {
+                        remains.add(ruleDispatcherContext);
+                    }
+                }
+            }
+            actives = remains;
+        }
+        return actives;
+    }
+
+    private static void doRuleHandler(DispatchNode dispatchNode, String rule, Collection<String> rules, String tags,
+            List<RuleDispatcherContext> ruleDispatcherContexts) {
+        RuleHandler[] ruleHandlers = dispatchNode.ruleHandlers;
+
+        // 执行精确rule，不存在时记录到每个context
+        if (!RuleDispatcher.isEmpty(rule)) {
+            int index = dispatchNode.indexOf(rule);
+            if (index < 0) {
+                for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+                    RuleDispatcher.unknownRules(dispatchNode, ruleDispatcherContext, rule);
+                }
+                return;
+            }
+            // 指定的规则不跳过
+            doRuleHandler(dispatchNode, index, ruleDispatcherContexts, false);
+            return;
+        }
+
+        if (ruleHandlers.length == 0) {
+            return;
+        }
+
+        // 按规则集合、标签表达式选择部分规则
+        long[] selected = null;
+        long[] tagged = null;
+        if (!RuleDispatcher.isEmpty(rules)) {
+            selected = select(dispatchNode, dispatchNode.selectRules(rules), ruleDispatcherContexts);
+        }
+        if (!RuleDispatcher.isEmpty(tags)) {
+            tagged = select(dispatchNode, dispatchNode.selectTags(tags), ruleDispatcherContexts);
+        }
+
+        List<RuleDispatcherContext> actives = ruleDispatcherContexts;
+        for (int i = dispatchNode.nextCandidate(null, selected, tagged, 0); i >= 0 && !actives.isEmpty();
+                i = dispatchNode.nextCandidate(null, selected, tagged, i + 1)) {
+            boolean[] matches = doRuleHandler(dispatchNode, i, actives, true);
+
+            // 排他性规则，命中的context不再匹配后续规则处理器
+            if (dispatchNode.exclusives[i]) {
+                List<RuleDispatcherContext> remains = new ArrayList<>(actives.size());
+                for (int j = 0; j < matches.length; j++) {
+                    if (!matches[j]) {
+                        remains.add(actives.get(j));
+                    }
+                }
+                if (i < ruleHandlers.length - 1) {
+                    ruleHandlers[i].metrics.exclusiveCutoffCount.add(actives.size() - remains.size());
+                }
+                actives = remains;
+            }
+        }
+    }
+
+    /**
+     * 记录选择中不存在的规则与标签到每个context
+     * @return 选中的规则位图
+     */
+    private static long[] select(DispatchNode dispatchNode, RuleSelection selection, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        if (selection.unknown.length > 0) {
+            for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+                RuleDispatcher.unknownRules(dispatchNode, ruleDispatcherContext, selection.unknown);
+            }
+        }
+        return selection.bits;
+    }
+
+    /**
+     * 一个规则控制器处理整组
+     * @param skippable 可选控制器是否按预算跳过
+     * @return 与入参下标一一对应的命中结果，跳过的context为未命中
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean[] doRuleHandler(DispatchNode dispatchNode, int index, List<RuleDispatcherContext> ruleDispatcherContexts,
+            boolean skippable) {
+        RuleHandler ruleHandler = dispatchNode.ruleHandlers[index];
+        HandlerBudget budget = dispatchNode.ruleHandlerBudgets[index];
+
+        boolean[] matches = new boolean[ruleDispatcherContexts.size()];
+        if (ruleHandler instanceof BatchRuleHandler) {
+            BatchRuleHandler batchRuleHandler = (BatchRuleHandler) ruleHandler;
+            boolean[] skipped = skippable ? skip(budget, ruleDispatcherContexts) : null;
+            List<RuleDispatcherContext> participants = null == skipped ? ruleDispatcherContexts
+                    : participants(ruleDispatcherContexts, skipped);
+            if (participants.isEmpty()) {
+                return matches;
+            }
+
+            long start = System.nanoTime();
+            boolean[] participantMatches = batchMatch(batchRuleHandler, participants);
+            long matchNanos = System.nanoTime() - start;
+            List<RuleDispatcherContext> hits = new ArrayList<>();
+            for (int i = 0, j = 0; i < matches.length; i++) {
+                if (null == skipped || !skipped[i]) {
+                    matches[i] = participantMatches[j++];
+                    if (matches[i]) {
+                        hits.add(ruleDispatcherContexts.get(i));
+                    }
+                }
+            }
+            if (HandlerMetrics.enabled) {
+                ruleHandler.metrics.record(participants.size(), hits.size(), matchNanos);
+            }
+
+            long actionNanos = 0;
+            if (!hits.isEmpty()) {
+                start = System.nanoTime();
+                batchRuleHandler.action(hits);
+                actionNanos = System.nanoTime() - start;
+                if (HandlerMetrics.enabled) {
+                    ruleHandler.metrics.actionLatency.record(actionNanos);
+                }
+            }
+            RuleDispatcher.complete(budget, matchNanos + actionNanos, participants);
+        } else {
+            for (int i = 0; i < matches.length; i++) {
+                RuleDispatcherContext ruleDispatcherContext = ruleDispatcherContexts.get(i);
+                if (skippable && RuleDispatcher.skip(budget, ruleDispatcherContext, null)) {
+                    continue;
+                }
+                long start = null == budget ? 0 : System.nanoTime();
+                matches[i] = ruleHandler.handle(ruleDispatcherContext);
+                if (null != budget) {
+                    RuleDispatcher.complete(budget, HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.rules[index],
+                            matches[i], System.nanoTime() - start, ruleDispatcherContext, null);
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            int hitCount = 0;
+            for (boolean match : matches) {
+                if (match) {
+                    hitCount++;
+                }
+            }
+            log.debug("dispatchBatch hitRule {} {} {} {}/{}", dispatchNode.scene, dispatchNode.app, dispatchNode.rules[index],
+                    hitCount, matches.length);
+        }
+        return matches;
+    }
+
+    /**
+     * 只对满足声明条件的context批量匹配；开启匹配结果缓存时按context分别读取缓存，只批量匹配未命中缓存的context
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean[] batchMatch(BatchRuleHandler batchRuleHandler, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        MatchCache cache = batchRuleHandler.matchCache;
+        if (batchRuleHandler.conditions.length == 0 && null == cache) {
+            return checkResults(batchRuleHandler.match(ruleDispatcherContexts), ruleDispatcherContexts.size(),
+                    HandlerMetricsSnapshot.KIND_RULE_HANDLER, batchRuleHandler, batchRuleHandler.asRuleHandler.rule());
+        }
+
+        boolean[] matches = new boolean[ruleDispatcherContexts.size()];
+        List<Integer> positions = new ArrayList<>();
+        List<RuleDispatcherContext> pending = new ArrayList<>();
+        List<Object> keys = null == cache ? null : new ArrayList<>();
+        for (int i = 0; i < ruleDispatcherContexts.size(); i++) {
+            RuleDispatcherContext ruleDispatcherContext = ruleDispatcherContexts.get(i);
+            if (!batchRuleHandler.conditionsHold(ruleDispatcherContext)) {
+                continue;
+            }
+            if (null != cache) {
+                Object key = batchRuleHandler.matchCacheKey(ruleDispatcherContext);
+                Boolean cached = null == key ? null : cache.get(key);
+                if (null != cached) {
+                    matches[i] = cached;
+                    continue;
+                }
+                keys.add(key);
+            }
+            positions.add(i);
+            pending.add(ruleDispatcherContext);
+        }
+
+        if (!pending.isEmpty()) {
+            boolean[] pendingMatches = checkResults(batchRuleHandler.match(pending), pending.size(),
+                    HandlerMetricsSnapshot.KIND_RULE_HANDLER, batchRuleHandler, batchRuleHandler.asRuleHandler.rule());
+            for (int i = 0; i < pendingMatches.length; i++) {
+                matches[positions.get(i)] = pendingMatches[i];
+                if (null != keys && null != keys.get(i)) {
+                    cache.put(keys.get(i), pendingMatches[i]);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 批量控制器的结果须与入参下标一一对应
+     * @return results
+     */
+    private static boolean[] checkResults(boolean[] results, int size, String kind, Object handler, String rule) {
+        if (null == results || results.length != size) {
+            throw new RuntimeException("RuleDispatcher batch resultSizeMismatch " + kind + " " + rule + " "
+                    + handler.getClass().getName() + " expect " + size + " actual " + (null == results ? null : results.length));
+        }
+        return results;
+    }
+
+    /**
+     * 按每个context的截止时间与断路状态判定可选控制器是否跳过
+     * @return 与入参下标一一对应的跳过结果，都不跳过时返回null
+     */
+    private static boolean[] skip(HandlerBudget budget, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        if (null == budget || !budget.optional) {
+            return null;
+        }
+        boolean[] skipped = null;
+        for (int i = 0; i < ruleDispatcherContexts.size(); i++) {
+            if (RuleDispatcher.skip(budget, ruleDispatcherContexts.get(i), null)) {
+                if (null == skipped) {
+                    skipped = new boolean[ruleDispatcherContexts.size()];
+                }
+                skipped[i] = true;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * @return 未跳过的context
+     */
+    private static List<RuleDispatcherContext> participants(List<RuleDispatcherContext> ruleDispatcherContexts, boolean[] skipped) {
+        List<RuleDispatcherContext> participants = new ArrayList<>(ruleDispatcherContexts.size());
+        for (int i = 0; i < skipped.length; i++) {
+            if (!skipped[i]) {
+                participants.add(ruleDispatcherContexts.get(i));
+            }
+        }
+        return participants;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void doAfterAction(DispatchNode dispatchNode, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        AfterAction[] afterActions = dispatchNode.afterActions;
+        HandlerBudget[] budgets = dispatchNode.afterActionBudgets;
+        for (int i = 0; i < afterActions.length; i++) {
+            HandlerBudget budget = budgets[i];
+            for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+                if (RuleDispatcher.skip(budget, ruleDispatcherContext, null)) {
+                    continue;
+                }
+                long start = null == budget ? 0 : System.nanoTime();
+                afterActions[i].submit(ruleDispatcherContext);
+                if (null != budget) {
+                    RuleDispatcher.complete(budget, HandlerMetricsSnapshot.KIND_AFTER_ACTION, afterActions[i].asAfterAction.rule(),
+                            false, System.nanoTime() - start, ruleDispatcherContext, null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 支持批量处理的前置行为，批量调度时同一场景+app+规则的context一次性传入，
+ * 单个调度时以一个元素的批次调用。
+ * @author ccchhhlll1988@163.com
+ */
+public abstract class BatchPreAction<T extends RuleDispatcherContext> extends PreAction<T> {
+
+    /**
+     * 可将结果放在context
+     * @param ruleDispatcherContexts
+     * @return 与入参下标一一对应，长度须与入参一致，否则调度抛出异常；true 对应的context立即返回
+     */
+    abstract protected boolean[] handle(List<T> ruleDispatcherContexts);
+
+    @Override
+    protected final boolean handle(T ruleDispatcherContext) {
+        return handle(Collections.singletonList(ruleDispatcherContext))[0];
+    }
+}
@@ -0,0 +1,36 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 支持批量匹配的规则控制器，批量调度时同一场景+app+规则的context一次性匹配，
+ * 单个调度时以一个元素的批次调用。
+ * @author ccchhhlll1988@163.com
+ */
+public abstract class BatchRuleHandler<T extends RuleDispatcherContext> extends RuleHandler<T> {
+
+    /**
+     * 批量命中规则
+     * @param params
+     * @return 与入参下标一一对应，长度须与入参一致，否则调度抛出异常；true 规则命中
+     */
+    abstract protected boolean[] match(List<T> params);
+
+    /**
+     * 规则命中后的批量行为，默认逐个执行
+     * @param params 命中的context
+     */
+    protected void action(List<T> params) {
+        for (T param : params) {
+            action(param);
+        }
+    }
+
+    @Override
+    protected final boolean match(T param) {
+        return match(Collections.singletonList(param))[0];
+    }
+}
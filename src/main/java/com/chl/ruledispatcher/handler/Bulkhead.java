@@ -0,0 +1,186 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 场景（或场景+app）维度的并发隔离。
+ * <br/>
+ * 未达上限时无锁获取；达到上限时最多等待 maxWait，超时拒绝。
+ * 开启自适应时按AIMD调整上限：调度超过延迟阈值或异常时乘以0.9，否则每次加 1/上限，即每轮约加1，范围 [1, maxConcurrency]。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class Bulkhead {
+
+    private static final double DECREASE_RATIO = 0.9;
+
+    /**
+     * name -> 隔离，重新发布后沿用，保留在途计数
+     */
+    private static final Map<String, Bulkhead> bulkheadMap = new ConcurrentHashMap<>();
+
+    final String name;
+    final int maxConcurrency;
+    final long maxWaitNanos;
+
+    /**
+     * 自适应的延迟阈值，0为固定上限
+     */
+    final long latencyThresholdNanos;
+
+    /**
+     * 当前上限，double的位
+     */
+    private final AtomicLong limitBits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    final LongAdder acceptedCount = new LongAdder();
+    final LongAdder rejectedCount = new LongAdder();
+
+    Bulkhead(String name, SceneConfig sceneConfig) {
+        this.name = name;
+        this.maxConcurrency = sceneConfig.getMaxConcurrency();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(sceneConfig.getMaxWaitMillis());
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(sceneConfig.getAdaptiveLatencyMillis());
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(maxConcurrency));
+    }
+
+    /**
+     * @return 场景配置对应的隔离，未配置并发上限时返回null
+     */
+    static Bulkhead resolve(SceneConfig sceneConfig, String app) {
+        if (null == sceneConfig || sceneConfig.getMaxConcurrency() <= 0) {
+            return null;
+        }
+
+        String name = sceneConfig.isConcurrencyPerApp() ? sceneConfig.getScene() + "/" + app : sceneConfig.getScene();
+        Bulkhead bulkhead = bulkheadMap.get(name);
+        if (null == bulkhead || !bulkhead.sameConfig(sceneConfig)) {
+            bulkhead = new Bulkhead(name, sceneConfig);
+            bulkheadMap.put(name, bulkhead);
+        }
+        return bulkhead;
+    }
+
+    static Map<String, BulkheadStats> allStats() {
+        Map<String, BulkheadStats> statsMap = new TreeMap<>();
+        for (Bulkhead bulkhead : bulkheadMap.values()) {
+            statsMap.put(bulkhead.name, bulkhead.stats());
+        }
+        return statsMap;
+    }
+
+    /**
+     * @return 配置是否与当前一致，一致时沿用以保留在途计数
+     */
+    boolean sameConfig(SceneConfig sceneConfig) {
+        return maxConcurrency == sceneConfig.getMaxConcurrency()
+                && maxWaitNanos == TimeUnit.MILLISECONDS.toNanos(sceneConfig.getMaxWaitMillis())
+                && latencyThresholdNanos == TimeUnit.MILLISECONDS.toNanos(sceneConfig.getAdaptiveLatencyMillis());
+    }
+
+    /**
+     * @return 是否获取成功，成功后必须 {@link #release(long, boolean)}
+     */
+    boolean tryAcquire() {
+        if (tryIncrement()) {
+            acceptedCount.increment();
+            return true;
+        }
+        if (maxWaitNanos <= 0) {
+            rejectedCount.increment();
+            return false;
+        }
+
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while (!tryIncrement()) {
+                if (remaining <= 0) {
+                    rejectedCount.increment();
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            acceptedCount.increment();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectedCount.increment();
+            return false;
+        } finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param nanos 调度耗时
+     * @param success 调度是否正常结束
+     */
+    void release(long nanos, boolean success) {
+        inFlight.decrementAndGet();
+        if (latencyThresholdNanos > 0) {
+            adapt(!success || nanos > latencyThresholdNanos);
+        }
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean tryIncrement() {
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= (int) limit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void adapt(boolean overload) {
+        for (;;) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double next = overload ? Math.max(1, limit * DECREASE_RATIO) : Math.min(maxConcurrency, limit + 1 / limit);
+            if (next == limit || limitBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    double limit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    BulkheadStats stats() {
+        BulkheadStats stats = new BulkheadStats();
+        stats.setName(name);
+        stats.setMaxConcurrency(maxConcurrency);
+        stats.setLimit((int) limit());
+        stats.setInFlight(inFlight.get());
+        stats.setWaiting(waiting.get());
+        stats.setAcceptedCount(acceptedCount.sum());
+        stats.setRejectedCount(rejectedCount.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,32 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 并发隔离统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class BulkheadStats {
+
+    /**
+     * scene 或 scene/app
+     */
+    private String name;
+
+    private int maxConcurrency;
+
+    /**
+     * 当前上限，未开启自适应时等于 maxConcurrency
+     */
+    private int limit;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private long acceptedCount;
+
+    private long rejectedCount;
+}
@@ -0,0 +1,34 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.File;
+
+import lombok.Data;
+
+/**
+ * 调度流量录制配置，见 {@link RuleDispatcher#startCapture(CaptureConfig)}
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class CaptureConfig {
+
+    /**
+     * 段文件所在目录，不存在时创建
+     */
+    private File directory;
+
+    /**
+     * 录制采样率 (0, 1]
+     */
+    private double sampleRate = 1;
+
+    /**
+     * 单个段文件的字节数，创建时按此大小映射；超过该大小的记录丢弃
+     */
+    private int segmentBytes = 64 * 1024 * 1024;
+
+    /**
+     * 最多段文件数，写满后不再录制，计入丢弃；0为不限
+     */
+    private int maxSegments = 16;
+}
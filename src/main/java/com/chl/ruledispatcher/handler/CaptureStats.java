@@ -0,0 +1,26 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 调度流量录制统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class CaptureStats {
+
+    private long capturedCount;
+
+    /**
+     * 序列化失败、记录过大或段文件已满而丢弃的次数
+     */
+    private long droppedCount;
+
+    /**
+     * 已写入的字节数，不含段文件预分配的空余部分
+     */
+    private long bytes;
+
+    private int segmentCount;
+}
@@ -0,0 +1,353 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 规则控制器声明条件的索引，下标与 {@link DispatchNode#ruleHandlers} 一致。
+ * <br/>
+ * 每个属性一个等值哈希索引与一个区间索引，调度时按属性取值查出满足条件的候选集合（位图），
+ * 未声明该属性条件的控制器对任意取值都是候选，因此未声明条件的控制器始终是候选，继续由match判断。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class ConditionIndex {
+
+    private final int words;
+    private final long[] all;
+    private final PropertyIndex[] propertyIndexes;
+
+    private ConditionIndex(int size, PropertyIndex[] propertyIndexes) {
+        this.words = (size + 63) >>> 6;
+        this.all = new long[words];
+        for (int i = 0; i < size; i++) {
+            set(all, i);
+        }
+        this.propertyIndexes = propertyIndexes;
+    }
+
+    /**
+     * @return 没有控制器声明条件时返回null
+     */
+    static ConditionIndex build(RuleHandler[] ruleHandlers) {
+        Set<String> properties = new LinkedHashSet<>();
+        for (RuleHandler ruleHandler : ruleHandlers) {
+            for (RuleCondition condition : ruleHandler.conditions) {
+                properties.add(condition.property);
+            }
+        }
+        if (properties.isEmpty()) {
+            return null;
+        }
+
+        List<PropertyIndex> propertyIndexes = new ArrayList<>();
+        for (String property : properties) {
+            propertyIndexes.add(new PropertyIndex(property, ruleHandlers));
+        }
+        return new ConditionIndex(ruleHandlers.length, propertyIndexes.toArray(new PropertyIndex[0]));
+    }
+
+    /**
+     * 只有一个位图参与时直接返回索引内的位图，多个位图时复制后求交集
+     * @return 满足声明条件的控制器位图，只读
+     */
+    long[] candidates(RuleDispatcherContext ruleDispatcherContext) {
+        long[] candidates = null;
+        boolean owned = false;
+        for (PropertyIndex propertyIndex : propertyIndexes) {
+            Accessor accessor = propertyIndex.accessor(ruleDispatcherContext.getClass());
+            if (null != accessor.number) {
+                long[] bits = propertyIndex.segment(accessor.number.applyAsDouble(ruleDispatcherContext));
+                candidates = retain(candidates, owned, bits);
+                owned = candidates != bits;
+                continue;
+            }
+
+            Object value = accessor.getter.apply(ruleDispatcherContext);
+            if (null != propertyIndex.equalities) {
+                long[] bits = propertyIndex.equality(value);
+                candidates = retain(candidates, owned, bits);
+                owned = candidates != bits;
+            }
+            if (null != propertyIndex.segments) {
+                long[] bits = value instanceof Number ? propertyIndex.segment(((Number) value).doubleValue())
+                        : propertyIndex.rangeWildcards;
+                candidates = retain(candidates, owned, bits);
+                owned = candidates != bits;
+            }
+        }
+        return null == candidates ? all : candidates;
+    }
+
+    /**
+     * @param owned candidates是否为本次调度复制出的位图，否则为索引内共享的位图，不能修改
+     */
+    private static long[] retain(long[] candidates, boolean owned, long[] bits) {
+        if (null == candidates) {
+            return bits;
+        }
+        long[] target = owned ? candidates : candidates.clone();
+        and(target, bits);
+        return target;
+    }
+
+    /**
+     * @return 下标不小于from的第一个候选，不存在返回-1
+     */
+    static int next(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+
+        long current = bits[word] & (-1L << (from & 63));
+        while (true) {
+            if (current != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static void and(long[] target, long[] bits) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= bits[i];
+        }
+    }
+
+    /**
+     * 单个属性的索引
+     */
+    private static final class PropertyIndex {
+        final String property;
+
+        /**
+         * 取值 -> 候选，为null时该属性没有等值条件
+         */
+        Map<String, long[]> equalities;
+        long[] equalityWildcards;
+
+        /**
+         * 区间端点，排序去重；第2i+1段为端点i本身，第2i段为端点i之前的开区间
+         */
+        double[] points;
+        long[][] segments;
+        long[] rangeWildcards;
+
+        /**
+         * 最近一次调度的context类型的访问器
+         */
+        private volatile Accessor accessor;
+
+        PropertyIndex(String property, RuleHandler[] ruleHandlers) {
+            this.property = property;
+            int words = (ruleHandlers.length + 63) >>> 6;
+
+            // 等值条件：每个控制器允许的取值为各条件取值的交集
+            List<Set<String>> alloweds = new ArrayList<>();
+            Set<String> keys = new HashSet<>();
+            boolean hasEquality = false;
+            for (RuleHandler ruleHandler : ruleHandlers) {
+                Set<String> allowed = null;
+                for (RuleCondition condition : ruleHandler.conditions) {
+                    if (condition.property.equals(property) && condition.isEquality()) {
+                        if (null == allowed) {
+                            allowed = new HashSet<>(condition.values);
+                        } else {
+                            allowed.retainAll(condition.values);
+                        }
+                    }
+                }
+                alloweds.add(allowed);
+                if (null != allowed) {
+                    hasEquality = true;
+                    keys.addAll(allowed);
+                }
+            }
+            if (hasEquality) {
+                equalityWildcards = new long[words];
+                for (int i = 0; i < ruleHandlers.length; i++) {
+                    if (null == alloweds.get(i)) {
+                        set(equalityWildcards, i);
+                    }
+                }
+                equalities = new HashMap<>(keys.size() * 2);
+                for (String key : keys) {
+                    long[] bits = equalityWildcards.clone();
+                    for (int i = 0; i < ruleHandlers.length; i++) {
+                        if (null != alloweds.get(i) && alloweds.get(i).contains(key)) {
+                            set(bits, i);
+                        }
+                    }
+                    equalities.put(key, bits);
+                }
+            }
+
+            // 范围条件：每个控制器的区间为各条件的交集
+            List<Interval> intervals = new ArrayList<>();
+            TreeSet<Double> bounds = new TreeSet<>();
+            boolean hasRange = false;
+            for (RuleHandler ruleHandler : ruleHandlers) {
+                Interval interval = null;
+                for (RuleCondition condition : ruleHandler.conditions) {
+                    if (condition.property.equals(property) && !condition.isEquality()) {
+                        if (null == interval) {
+                            interval = new Interval();
+                        }
+                        interval.narrow(condition);
+                        bounds.add(condition.bound);
+                    }
+                }
+                intervals.add(interval);
+                hasRange |= null != interval;
+            }
+            if (hasRange) {
+                rangeWildcards = new long[words];
+                for (int i = 0; i < ruleHandlers.length; i++) {
+                    if (null == intervals.get(i)) {
+                        set(rangeWildcards, i);
+                    }
+                }
+
+                points = new double[bounds.size()];
+                int p = 0;
+                for (Double bound : bounds) {
+                    points[p++] = bound;
+                }
+                segments = new long[points.length * 2 + 1][];
+                for (int s = 0; s < segments.length; s++) {
+                    double representative = representative(s);
+                    long[] bits = rangeWildcards.clone();
+                    for (int i = 0; i < ruleHandlers.length; i++) {
+                        if (null != intervals.get(i) && intervals.get(i).contains(representative)) {
+                            set(bits, i);
+                        }
+                    }
+                    segments[s] = bits;
+                }
+            }
+        }
+
+        /**
+         * 段内任取一个值
+         */
+        private double representative(int segment) {
+            if ((segment & 1) == 1) {
+                return points[segment >>> 1];
+            }
+            int upper = segment >>> 1;
+            if (upper == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            if (upper == points.length) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return points[upper - 1] + (points[upper] - points[upper - 1]) / 2;
+        }
+
+        /**
+         * 调度的context通常是同一类型，类型变化时重新生成访问器
+         */
+        Accessor accessor(Class<?> type) {
+            Accessor current = accessor;
+            if (null == current || current.type != type) {
+                // 只有区间条件且为基本数值类型时不装箱读取
+                ToDoubleFunction<Object> number = null == equalities
+                        ? ContextProperties.numberGetter(type, property) : null;
+                current = new Accessor(type, null == number ? ContextProperties.getter(type, property) : null, number);
+                accessor = current;
+            }
+            return current;
+        }
+
+        long[] equality(Object value) {
+            long[] bits = null == value ? null : equalities.get(RuleCondition.normalize(value));
+            return null == bits ? equalityWildcards : bits;
+        }
+
+        long[] segment(double value) {
+            if (Double.isNaN(value)) {
+                return rangeWildcards;
+            }
+            int index = Arrays.binarySearch(points, value);
+            return segments[index >= 0 ? index * 2 + 1 : -(index + 1) * 2];
+        }
+    }
+
+    /**
+     * 某个context类型的属性访问器，getter与number有且只有一个
+     */
+    private static final class Accessor {
+        final Class<?> type;
+        final Function<Object, Object> getter;
+        final ToDoubleFunction<Object> number;
+
+        Accessor(Class<?> type, Function<Object, Object> getter, ToDoubleFunction<Object> number) {
+            this.type = type;
+            this.getter = getter;
+            this.number = number;
+        }
+    }
+
+    /**
+     * 数值区间
+     */
+    private static final class Interval {
+        double low = Double.NEGATIVE_INFINITY;
+        boolean lowInclusive = true;
+        double high = Double.POSITIVE_INFINITY;
+        boolean highInclusive = true;
+
+        void narrow(RuleCondition condition) {
+            double bound = condition.bound;
+            switch (condition.op) {
+                case GT:
+                    if (bound >= low) {
+                        low = bound;
+                        lowInclusive = false;
+                    }
+                    break;
+                case GE:
+                    if (bound > low) {
+                        low = bound;
+                        lowInclusive = true;
+                    }
+                    break;
+                case LT:
+                    if (bound <= high) {
+                        high = bound;
+                        highInclusive = false;
+                    }
+                    break;
+                default:
+                    if (bound < high) {
+                        high = bound;
+                        highInclusive = true;
+                    }
+                    break;
+            }
+        }
+
+        boolean contains(double value) {
+            return (lowInclusive ? value >= low : value > low) && (highInclusive ? value <= high : value < high);
+        }
+    }
+}
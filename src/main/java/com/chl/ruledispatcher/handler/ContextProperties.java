@@ -0,0 +1,197 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 按属性名读取context的属性值，通过 getXxx/isXxx 读取。
+ * <br/>
+ * 访问器由 LambdaMetafactory 生成直接调用getter/setter，按context类型缓存，读取时不反射；
+ * 方法或所在类不可链接时退化为 MethodHandle 调用。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class ContextProperties {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private ContextProperties() {
+    }
+
+    private static final ClassValue<ConcurrentHashMap<String, Function<Object, Object>>> GETTERS =
+            new ClassValue<ConcurrentHashMap<String, Function<Object, Object>>>() {
+        @Override
+        protected ConcurrentHashMap<String, Function<Object, Object>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    static Object get(RuleDispatcherContext ruleDispatcherContext, String property) {
+        return getter(ruleDispatcherContext.getClass(), property).apply(ruleDispatcherContext);
+    }
+
+    /**
+     * @return 属性的访问器，按类型缓存
+     */
+    static Function<Object, Object> getter(Class<?> type, String property) {
+        ConcurrentHashMap<String, Function<Object, Object>> getters = GETTERS.get(type);
+        Function<Object, Object> getter = getters.get(property);
+        if (null == getter) {
+            getter = getter(findGetter(type, property));
+            getters.putIfAbsent(property, getter);
+        }
+        return getter;
+    }
+
+    /**
+     * @return 属性为基本数值类型时不装箱的访问器，否则返回null
+     */
+    static ToDoubleFunction<Object> numberGetter(Class<?> type, String property) {
+        Method getter = findGetter(type, property);
+        return isNumber(getter.getReturnType()) ? numberGetter(getter) : null;
+    }
+
+    static Method findGetter(Class<?> type, String property) {
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String name : new String[]{"get" + suffix, "is" + suffix}) {
+            try {
+                Method method = type.getMethod(name);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                // 尝试下一个
+            }
+        }
+        throw new RuntimeException("RuleDispatcher noProperty " + type.getName() + " " + property);
+    }
+
+    /**
+     * @return 单参数的公开 setXxx 方法
+     */
+    static Method findSetter(Class<?> type, String property) {
+        String name = "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterCount() == 1) {
+                method.setAccessible(true);
+                return method;
+            }
+        }
+        throw new RuntimeException("RuleDispatcher noProperty " + type.getName() + " " + property);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ToDoubleFunction<Object> numberGetter(Method getter) {
+        MethodHandle handle = unreflect(getter);
+        if (isLinkable(getter)) {
+            try {
+                return (ToDoubleFunction<Object>) LambdaMetafactory.metafactory(LOOKUP, "applyAsDouble",
+                        MethodType.methodType(ToDoubleFunction.class), MethodType.methodType(double.class, Object.class),
+                        handle, MethodType.methodType(double.class, getter.getDeclaringClass())).getTarget().invoke();
+            } catch (Throwable e) {
+                log.info("RuleDispatcher property getter fallback {} {}", getter, e.toString());
+            }
+        }
+
+        MethodHandle generic = handle.asType(MethodType.methodType(double.class, Object.class));
+        return ruleDispatcherContext -> {
+            try {
+                return (double) generic.invokeExact(ruleDispatcherContext);
+            } catch (Throwable e) {
+                throw new RuntimeException("RuleDispatcher readProperty fail " + getter, e);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> getter(Method getter) {
+        MethodHandle handle = unreflect(getter);
+        if (isLinkable(getter)) {
+            try {
+                return (Function<Object, Object>) LambdaMetafactory.metafactory(LOOKUP, "apply",
+                        MethodType.methodType(Function.class), MethodType.methodType(Object.class, Object.class),
+                        handle, MethodType.methodType(wrap(getter.getReturnType()), getter.getDeclaringClass()))
+                        .getTarget().invoke();
+            } catch (Throwable e) {
+                log.info("RuleDispatcher property getter fallback {} {}", getter, e.toString());
+            }
+        }
+
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return ruleDispatcherContext -> {
+            try {
+                return (Object) generic.invokeExact(ruleDispatcherContext);
+            } catch (Throwable e) {
+                throw new RuntimeException("RuleDispatcher readProperty fail " + getter, e);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> setter(Method setter) {
+        MethodHandle handle = unreflect(setter);
+        if (isLinkable(setter)) {
+            try {
+                return (BiConsumer<Object, Object>) LambdaMetafactory.metafactory(LOOKUP, "accept",
+                        MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class), handle,
+                        MethodType.methodType(void.class, setter.getDeclaringClass(),
+                                wrap(setter.getParameterTypes()[0]))).getTarget().invoke();
+            } catch (Throwable e) {
+                log.info("RuleDispatcher property setter fallback {} {}", setter, e.toString());
+            }
+        }
+
+        MethodHandle generic = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (ruleDispatcherContext, value) -> {
+            try {
+                generic.invokeExact(ruleDispatcherContext, value);
+            } catch (Throwable e) {
+                throw new RuntimeException("RuleDispatcher writeProperty fail " + setter, e);
+            }
+        };
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("RuleDispatcher property unreflect fail " + method, e);
+        }
+    }
+
+    /**
+     * 生成的访问器直接调用方法：方法与所在类公开，且所在类对本类的类加载器可见
+     */
+    private static boolean isLinkable(Method method) {
+        Class<?> type = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(type.getModifiers())) {
+            return false;
+        }
+        try {
+            return Class.forName(type.getName(), false, ContextProperties.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static boolean isNumber(Class<?> type) {
+        return type == int.class || type == long.class || type == double.class || type == float.class
+                || type == short.class || type == byte.class;
+    }
+
+    static Class<?> wrap(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type;
+    }
+}
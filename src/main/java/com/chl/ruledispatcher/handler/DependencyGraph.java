@@ -0,0 +1,378 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 按控制器声明的 reads、writes 构建的依赖图，下标与按优先级排序的控制器数组一致。
+ * <br/>
+ * 前序控制器 i 与后序控制器 j 满足以下任一条件时 j 依赖 i，在 i 完成后执行：
+ * i 写入 j 读写的键，或 i 读取 j 写入的键；任一方未声明读写；i 为排他性规则。
+ * 其余控制器在线程池上并行执行；图只保留传递规约后的边，全部控制器仍是全序时不构建。
+ * <br/>
+ * 整理时同时检查声明并行的控制器之间的读写冲突并告警。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DependencyGraph {
+
+    final int size;
+
+    /**
+     * 下标 -> 直接依赖它的控制器
+     */
+    private final int[][] successors;
+
+    /**
+     * 下标 -> 直接依赖的控制器数
+     */
+    private final int[] predecessorCounts;
+
+    /**
+     * 不依赖其他控制器的下标，升序
+     */
+    private final int[] roots;
+
+    /**
+     * 按依赖深度分层的控制器名称，用于日志
+     */
+    final List<List<String>> levels;
+
+    private DependencyGraph(int[][] successors, int[] predecessorCounts, int[] roots, List<List<String>> levels) {
+        this.size = successors.length;
+        this.successors = successors;
+        this.predecessorCounts = predecessorCounts;
+        this.roots = roots;
+        this.levels = levels;
+    }
+
+    /**
+     * 检查并行匹配与顺序无关分组的规则之间的读写冲突，开启依赖调度时构建依赖图
+     * @return 没有可并行的规则时返回null
+     */
+    static DependencyGraph ofRuleHandlers(String scene, String app, RuleHandler[] ruleHandlers, boolean[] exclusives,
+            boolean[] parallelMatches, boolean schedule) {
+        int size = ruleHandlers.length;
+        String[] names = new String[size];
+        Access[] accesses = new Access[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = ruleHandlers[i].asRuleHandler.rule();
+            accesses[i] = Access.of(ruleHandlers[i].asRuleHandler.reads(), ruleHandlers[i].asRuleHandler.writes());
+        }
+
+        for (int j = 0; j < size; j++) {
+            String group = ruleHandlers[j].asRuleHandler.orderGroup();
+            for (int i = 0; i < j; i++) {
+                // 并行匹配的match可能先于前序规则的action执行
+                String key = parallelMatches[j] ? Access.intersection(accesses[i].writes, accesses[j].reads) : null;
+                if (null != key) {
+                    log.warn("RuleDispatcher conflict {} {} parallelMatch {} reads {} written by {}", scene, app, names[j], key, names[i]);
+                }
+                key = !RuleDispatcher.isEmpty(group) && group.equals(ruleHandlers[i].asRuleHandler.orderGroup())
+                        ? declaredConflict(accesses[i], accesses[j]) : null;
+                if (null != key) {
+                    log.warn("RuleDispatcher conflict {} {} orderGroup {} {} {} on {}", scene, app, group, names[i], names[j], key);
+                }
+            }
+        }
+
+        return schedule ? build(scene, app, HandlerMetricsSnapshot.KIND_RULE_HANDLER, names, accesses, exclusives) : null;
+    }
+
+    /**
+     * 开启依赖调度时构建后置行为的依赖图
+     * @return 没有可并行的后置行为时返回null
+     */
+    static DependencyGraph ofAfterActions(String scene, String app, AfterAction[] afterActions, boolean schedule) {
+        if (!schedule) {
+            return null;
+        }
+        int size = afterActions.length;
+        String[] names = new String[size];
+        Access[] accesses = new Access[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = afterActions[i].asAfterAction.rule();
+            accesses[i] = Access.of(afterActions[i].asAfterAction.reads(), afterActions[i].asAfterAction.writes());
+        }
+        return build(scene, app, HandlerMetricsSnapshot.KIND_AFTER_ACTION, names, accesses, new boolean[size]);
+    }
+
+    /**
+     * 检查并行前置行为之间的读写冲突，前置行为可能立即返回，仍按原方式执行
+     */
+    static void checkPreActions(String scene, String app, PreAction[] preActions, boolean[] parallelPreActions) {
+        for (int j = 0; j < preActions.length; j++) {
+            if (!parallelPreActions[j]) {
+                continue;
+            }
+            Access access = Access.of(preActions[j].asPreAction.reads(), preActions[j].asPreAction.writes());
+            for (int i = 0; i < j; i++) {
+                String key = parallelPreActions[i]
+                        ? declaredConflict(Access.of(preActions[i].asPreAction.reads(), preActions[i].asPreAction.writes()), access)
+                        : null;
+                if (null != key) {
+                    log.warn("RuleDispatcher conflict {} {} parallel preAction {} {} on {}", scene, app,
+                            preActions[i].asPreAction.rule(), preActions[j].asPreAction.rule(), key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param barriers 下标 -> 后序控制器是否全部依赖它
+     */
+    private static DependencyGraph build(String scene, String app, String kind, String[] names, Access[] accesses,
+            boolean[] barriers) {
+        int size = names.length;
+        if (size < 2) {
+            return null;
+        }
+
+        // 自后向前计算可达集合，依赖已可达时不再加边
+        long[][] reach = new long[size][(size + 63) >>> 6];
+        List<List<Integer>> successorLists = new ArrayList<>(size);
+        int[] predecessorCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            successorLists.add(new ArrayList<>());
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            for (int j = i + 1; j < size; j++) {
+                if ((reach[i][j >>> 6] & 1L << j) != 0 || !barriers[i] && null == conflict(accesses[i], accesses[j])) {
+                    continue;
+                }
+                successorLists.get(i).add(j);
+                predecessorCounts[j]++;
+                reach[i][j >>> 6] |= 1L << j;
+                for (int w = 0; w < reach[i].length; w++) {
+                    reach[i][w] |= reach[j][w];
+                }
+            }
+        }
+
+        boolean totalOrder = true;
+        for (int i = 0; i < size - 1 && totalOrder; i++) {
+            totalOrder = (reach[i][(i + 1) >>> 6] & 1L << (i + 1)) != 0;
+        }
+        if (totalOrder) {
+            return null;
+        }
+
+        int[][] successors = new int[size][];
+        List<Integer> roots = new ArrayList<>();
+        int[] depths = new int[size];
+        List<List<String>> levels = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            List<Integer> successorList = successorLists.get(i);
+            successors[i] = new int[successorList.size()];
+            for (int k = 0; k < successors[i].length; k++) {
+                successors[i][k] = successorList.get(k);
+                depths[successors[i][k]] = Math.max(depths[successors[i][k]], depths[i] + 1);
+            }
+            if (0 == predecessorCounts[i]) {
+                roots.add(i);
+            }
+            if (levels.size() <= depths[i]) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(depths[i]).add(names[i]);
+        }
+
+        DependencyGraph graph = new DependencyGraph(successors, predecessorCounts,
+                roots.stream().mapToInt(Integer::intValue).toArray(), levels);
+        log.info("RuleDispatcher dependencyGraph {} {} {} {}", scene, app, kind, levels);
+        return graph;
+    }
+
+    /**
+     * @return 冲突的键，任一方未声明时为 *，不冲突时为null
+     */
+    private static String conflict(Access before, Access after) {
+        if (!before.declared || !after.declared) {
+            return "*";
+        }
+        return declaredConflict(before, after);
+    }
+
+    /**
+     * @return 双方均声明时冲突的键，否则为null
+     */
+    private static String declaredConflict(Access before, Access after) {
+        if (!before.declared || !after.declared) {
+            return null;
+        }
+        String key = Access.intersection(before.writes, after.reads);
+        if (null == key) {
+            key = Access.intersection(before.writes, after.writes);
+        }
+        if (null == key) {
+            key = Access.intersection(before.reads, after.writes);
+        }
+        return key;
+    }
+
+    /**
+     * 依赖满足后执行各控制器，调用线程执行第一个，全部完成后返回；
+     * 控制器异常时不再开始其余控制器，完成后抛出第一个异常
+     * @param step 执行下标对应的控制器，返回true时截断下标更大的控制器
+     */
+    void execute(ForkJoinPool pool, IntPredicate step) {
+        Run run = new Run(this, pool, step);
+        run.invoke();
+        Throwable error = run.error;
+        if (null == error) {
+            return;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new RuntimeException("RuleDispatcher dependencyGraph fail", error);
+    }
+
+    /**
+     * 控制器声明的读写
+     */
+    private static final class Access {
+        /**
+         * 读写均未声明时为false，视为读写全部
+         */
+        final boolean declared;
+        final Set<String> reads;
+        final Set<String> writes;
+
+        private Access(boolean declared, Set<String> reads, Set<String> writes) {
+            this.declared = declared;
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        static Access of(String[] reads, String[] writes) {
+            if (reads.length == 0 && writes.length == 0) {
+                return new Access(false, Collections.<String>emptySet(), Collections.<String>emptySet());
+            }
+            return new Access(true, new HashSet<>(Arrays.asList(reads)), new HashSet<>(Arrays.asList(writes)));
+        }
+
+        /**
+         * @return 任一共同的键，没有时为null
+         */
+        static String intersection(Set<String> a, Set<String> b) {
+            for (String key : a) {
+                if (b.contains(key)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 一次调度的执行，待完成数为控制器数
+     */
+    private static final class Run extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        final DependencyGraph graph;
+        final ForkJoinPool pool;
+        final IntPredicate step;
+
+        /**
+         * 下标 -> 未完成的直接依赖数
+         */
+        final AtomicIntegerArray pending;
+
+        /**
+         * 截断的最小下标，下标更大的控制器不再执行
+         */
+        final AtomicInteger cutoff;
+
+        volatile Throwable error;
+
+        Run(DependencyGraph graph, ForkJoinPool pool, IntPredicate step) {
+            super(null, graph.size);
+            this.graph = graph;
+            this.pool = pool;
+            this.step = step;
+            this.pending = new AtomicIntegerArray(graph.predecessorCounts);
+            this.cutoff = new AtomicInteger(graph.size);
+        }
+
+        @Override
+        public void compute() {
+            int[] roots = graph.roots;
+            for (int k = 1; k < roots.length; k++) {
+                submit(new Step(this, roots[k]));
+            }
+            new Step(this, roots[0]).compute();
+            tryComplete();
+        }
+
+        void submit(Step task) {
+            if (ForkJoinTask.getPool() == pool) {
+                task.fork();
+            } else {
+                pool.execute(task);
+            }
+        }
+    }
+
+    /**
+     * 执行一个控制器，就绪的后继中最后一个在当前线程继续执行，其余提交到线程池
+     */
+    private static final class Step extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private int index;
+
+        Step(Run run, int index) {
+            super(run);
+            this.run = run;
+            this.index = index;
+        }
+
+        @Override
+        public void compute() {
+            while (index >= 0) {
+                if (null == run.error && index <= run.cutoff.get()) {
+                    try {
+                        if (run.step.test(index)) {
+                            run.cutoff.accumulateAndGet(index, Math::min);
+                        }
+                    } catch (Throwable e) {
+                        if (null == run.error) {
+                            run.error = e;
+                        }
+                    }
+                }
+
+                int next = -1;
+                for (int successor : run.graph.successors[index]) {
+                    if (run.pending.decrementAndGet(successor) == 0) {
+                        if (next >= 0) {
+                            run.submit(new Step(run, next));
+                        }
+                        next = successor;
+                    }
+                }
+                run.tryComplete();
+                index = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.chl.ruledispatcher.handler;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 节点专用的控制器链，抽象类而非接口以便调用点走虚方法表。由 {@link DispatchChains} 生成，只用于不记录轨迹、不按条件索引、不并行匹配的调度
+ *
+ * @author ccchhhlll1988@163.com
+ */
+abstract class DispatchChain {
+
+    /**
+     * 依次执行前置行为
+     * @return 是否return
+     */
+    abstract boolean preAction(RuleDispatcherContext ruleDispatcherContext);
+
+    /**
+     * 依次执行规则控制器
+     * @return 命中的排他性规则下标，未命中返回-1
+     */
+    abstract int ruleHandler(RuleDispatcherContext ruleDispatcherContext);
+
+    /**
+     * 依次执行后置行为
+     */
+    abstract void afterAction(RuleDispatcherContext ruleDispatcherContext);
+}
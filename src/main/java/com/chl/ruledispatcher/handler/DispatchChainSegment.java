@@ -0,0 +1,68 @@
+package com.chl.ruledispatcher.handler;
+
+/**
+ * 专用控制器链的一段，每段 {@link #SLOTS} 个控制器，未使用的槽为null
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class DispatchChainSegment {
+
+    static final int SLOTS = 8;
+
+    final PreAction p0, p1, p2, p3, p4, p5, p6, p7;
+    final RuleHandler r0, r1, r2, r3, r4, r5, r6, r7;
+    final boolean x0, x1, x2, x3, x4, x5, x6, x7;
+    final AfterAction a0, a1, a2, a3, a4, a5, a6, a7;
+
+    /**
+     * 本段第一个规则控制器的下标
+     */
+    final int offset;
+
+    /**
+     * 下一段，没有时为null
+     */
+    final DispatchChain next;
+
+    DispatchChainSegment(PreAction[] preActions, RuleHandler[] ruleHandlers, boolean[] exclusives,
+            AfterAction[] afterActions, int offset, DispatchChain next) {
+        this.p0 = slot(preActions, offset + 0);
+        this.p1 = slot(preActions, offset + 1);
+        this.p2 = slot(preActions, offset + 2);
+        this.p3 = slot(preActions, offset + 3);
+        this.p4 = slot(preActions, offset + 4);
+        this.p5 = slot(preActions, offset + 5);
+        this.p6 = slot(preActions, offset + 6);
+        this.p7 = slot(preActions, offset + 7);
+        this.r0 = slot(ruleHandlers, offset + 0);
+        this.r1 = slot(ruleHandlers, offset + 1);
+        this.r2 = slot(ruleHandlers, offset + 2);
+        this.r3 = slot(ruleHandlers, offset + 3);
+        this.r4 = slot(ruleHandlers, offset + 4);
+        this.r5 = slot(ruleHandlers, offset + 5);
+        this.r6 = slot(ruleHandlers, offset + 6);
+        this.r7 = slot(ruleHandlers, offset + 7);
+        this.x0 = offset + 0 < exclusives.length && exclusives[offset + 0];
+        this.x1 = offset + 1 < exclusives.length && exclusives[offset + 1];
+        this.x2 = offset + 2 < exclusives.length && exclusives[offset + 2];
+        this.x3 = offset + 3 < exclusives.length && exclusives[offset + 3];
+        this.x4 = offset + 4 < exclusives.length && exclusives[offset + 4];
+        this.x5 = offset + 5 < exclusives.length && exclusives[offset + 5];
+        this.x6 = offset + 6 < exclusives.length && exclusives[offset + 6];
+        this.x7 = offset + 7 < exclusives.length && exclusives[offset + 7];
+        this.a0 = slot(afterActions, offset + 0);
+        this.a1 = slot(afterActions, offset + 1);
+        this.a2 = slot(afterActions, offset + 2);
+        this.a3 = slot(afterActions, offset + 3);
+        this.a4 = slot(afterActions, offset + 4);
+        this.a5 = slot(afterActions, offset + 5);
+        this.a6 = slot(afterActions, offset + 6);
+        this.a7 = slot(afterActions, offset + 7);
+        this.offset = offset;
+        this.next = next;
+    }
+
+    private static <H> H slot(H[] handlers, int index) {
+        return index < handlers.length ? handlers[index] : null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.reflect.Constructor;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 为节点生成专用控制器链。
+ * <br/>
+ * 共用一个链类时，调用点见到全部控制器类型而无法内联；这里把 {@link UnrolledDispatchChain} 的字节码
+ * 按段经 {@link TemplateClasses} 重新定义为独立的类，每个节点的每个调用点都是单态的。
+ * 不支持时返回null，调度退化为通用路径。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DispatchChains {
+
+    private DispatchChains() {
+    }
+
+    /**
+     * @return 节点专用的控制器链，不支持时返回null
+     */
+    static DispatchChain create(PreAction[] preActions, RuleHandler[] ruleHandlers, boolean[] exclusives,
+            AfterAction[] afterActions) {
+        if (!TemplateClasses.isSupported()) {
+            return null;
+        }
+
+        int length = Math.max(Math.max(preActions.length, ruleHandlers.length), afterActions.length);
+        int segments = Math.max(1, (length + DispatchChainSegment.SLOTS - 1) / DispatchChainSegment.SLOTS);
+        try {
+            DispatchChain next = null;
+            for (int i = segments - 1; i >= 0; i--) {
+                DispatchChainSegment segment = new DispatchChainSegment(preActions, ruleHandlers, exclusives,
+                        afterActions, i * DispatchChainSegment.SLOTS, next);
+                Class<?> chainClass = TemplateClasses.define(UnrolledDispatchChain.class);
+                if (null == chainClass) {
+                    return null;
+                }
+                Constructor<?> constructor = chainClass.getDeclaredConstructor(DispatchChainSegment.class);
+                constructor.setAccessible(true);
+                next = (DispatchChain) constructor.newInstance(segment);
+            }
+            return next;
+        } catch (Exception e) {
+            log.warn("RuleDispatcher create dispatchChain fail", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 当前JDK是否支持专用控制器链
+     */
+    static boolean isSupported() {
+        return TemplateClasses.isSupported();
+    }
+}
@@ -0,0 +1,65 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 异步调度的执行器选择
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DispatchExecutors {
+
+    private DispatchExecutors() {
+    }
+
+    /**
+     * 默认执行器
+     */
+    static volatile Executor defaultExecutor = ForkJoinPool.commonPool();
+
+    /**
+     * 每任务一个虚拟线程的执行器，JDK21以下为null
+     */
+    private static final ExecutorService VIRTUAL_THREAD_EXECUTOR = newVirtualThreadExecutor();
+
+    /**
+     * 场景配置对应的执行器
+     */
+    static Executor resolve(SceneConfig sceneConfig) {
+        if (null != sceneConfig) {
+            if (null != sceneConfig.getExecutor()) {
+                return sceneConfig.getExecutor();
+            }
+            if (sceneConfig.isVirtualThread() && null != VIRTUAL_THREAD_EXECUTOR) {
+                return VIRTUAL_THREAD_EXECUTOR;
+            }
+        }
+        return defaultExecutor;
+    }
+
+    static boolean isVirtualThreadSupported() {
+        return null != VIRTUAL_THREAD_EXECUTOR;
+    }
+
+    /**
+     * 编译目标为JDK8，通过反射获取 Executors.newVirtualThreadPerTaskExecutor
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            log.warn("RuleDispatcher newVirtualThreadExecutor fail", e);
+            return null;
+        }
+    }
+}
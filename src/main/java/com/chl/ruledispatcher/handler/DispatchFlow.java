@@ -0,0 +1,45 @@
+package com.chl.ruledispatcher.handler;
+
+/**
+ * 流式调度使用的响应式接口，方法签名与 java.util.concurrent.Flow、org.reactivestreams 一致，
+ * 可用方法引用互相适配；JDK8下不依赖二者。
+ * <br/>
+ * 语义遵循 Reactive Streams 规范：onNext 总数不超过 request 的累计数，信号串行发出。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+public final class DispatchFlow {
+
+    private DispatchFlow() {
+    }
+
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * @param n 追加的需求数，必须大于0
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
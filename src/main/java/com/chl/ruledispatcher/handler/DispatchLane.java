@@ -0,0 +1,104 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 单线程调度通道，任务按入队顺序执行。
+ * <br/>
+ * 队列为无锁的 ConcurrentLinkedQueue，容量由计数约束；消费线程空闲时park，入队方仅在其park时unpark。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DispatchLane implements Runnable {
+
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final Thread thread;
+
+    private volatile boolean parked;
+    private volatile boolean stopped;
+
+    final LongAdder completedCount = new LongAdder();
+
+    DispatchLane(String name, int capacity) {
+        this.capacity = capacity;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return 是否入队，已满或已停止时返回false
+     */
+    boolean offer(Runnable task) {
+        // 先计数再检查停止，与消费线程的 停止 -> 读计数 配对，停止后不会遗留任务
+        if (size.incrementAndGet() > capacity || stopped) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.offer(task);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * 停止接收，已入队的继续执行
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return 是否在超时前执行完
+     */
+    boolean await(long timeoutMillis) throws InterruptedException {
+        thread.join(Math.max(1, timeoutMillis));
+        return !thread.isAlive();
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            Runnable task = queue.poll();
+            if (null == task) {
+                if (stopped) {
+                    if (size.get() == 0) {
+                        return;
+                    }
+                    // 入队方已计数、尚未放入队列
+                    Thread.yield();
+                    continue;
+                }
+                // 先声明park再复查，与入队方的 offer -> 读parked 配对，不会丢失唤醒
+                parked = true;
+                if (queue.isEmpty() && !stopped) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+
+            size.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.warn("RuleDispatcher lane task fail {}", thread.getName(), e);
+            }
+            completedCount.increment();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 场景维度的分区调度通道，按分区键哈希到固定通道，同一键严格按提交顺序执行，不同键并行。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class DispatchLanes {
+
+    /**
+     * scene -> 通道，重新发布后沿用；配置变化或已停止时新建，旧通道执行完已入队的任务后退出
+     */
+    private static final Map<String, DispatchLanes> lanesMap = new ConcurrentHashMap<>();
+
+    final String scene;
+    final int laneCount;
+    final int laneCapacity;
+    private final DispatchLane[] lanes;
+
+    /**
+     * 已停止，停止后不再复用，重新发布时新建
+     */
+    private volatile boolean stopped;
+
+    final LongAdder rejectedCount = new LongAdder();
+
+    private DispatchLanes(String scene, int laneCount, int laneCapacity) {
+        this.scene = scene;
+        this.laneCount = laneCount;
+        this.laneCapacity = laneCapacity;
+        this.lanes = new DispatchLane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new DispatchLane("RuleDispatcher-lane-" + scene + "-" + i, laneCapacity);
+        }
+    }
+
+    /**
+     * @return 场景配置对应的通道，未配置分区键时返回null
+     */
+    static DispatchLanes resolve(SceneConfig sceneConfig) {
+        if (null == sceneConfig || null == sceneConfig.getPartitionKey()) {
+            return null;
+        }
+
+        int laneCount = sceneConfig.getLaneCount() > 0 ? sceneConfig.getLaneCount()
+                : Runtime.getRuntime().availableProcessors();
+        int laneCapacity = Math.max(1, sceneConfig.getLaneQueueCapacity());
+        DispatchLanes exist = lanesMap.get(sceneConfig.getScene());
+        if (null != exist && !exist.stopped && exist.laneCount == laneCount && exist.laneCapacity == laneCapacity) {
+            return exist;
+        }
+
+        DispatchLanes dispatchLanes = new DispatchLanes(sceneConfig.getScene(), laneCount, laneCapacity);
+        lanesMap.put(sceneConfig.getScene(), dispatchLanes);
+        if (null != exist) {
+            exist.stop();
+        }
+        return dispatchLanes;
+    }
+
+    /**
+     * 提交到分区键对应的通道
+     * @return 执行完成时完成；通道已满时以 RejectedExecutionException 异常完成
+     */
+    <T> CompletableFuture<T> submit(Object partitionKey, final T result, final Runnable dispatch) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        int h = partitionKey.hashCode();
+        h ^= h >>> 16;
+        DispatchLane lane = lanes[Math.floorMod(h, laneCount)];
+        boolean offered = lane.offer(() -> {
+            try {
+                dispatch.run();
+                future.complete(result);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        if (!offered) {
+            rejectedCount.increment();
+            future.completeExceptionally(new RejectedExecutionException("RuleDispatcher lane full or stopped " + scene));
+        }
+        return future;
+    }
+
+    void stop() {
+        stopped = true;
+        for (DispatchLane lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    boolean await(long deadlineMillis) throws InterruptedException {
+        for (DispatchLane lane : lanes) {
+            if (!lane.await(deadlineMillis - System.currentTimeMillis())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    LaneStats stats() {
+        LaneStats stats = new LaneStats();
+        stats.setScene(scene);
+        stats.setLaneCount(laneCount);
+        stats.setLaneQueueCapacity(laneCapacity);
+        int[] queueSizes = new int[laneCount];
+        long completedCount = 0;
+        for (int i = 0; i < laneCount; i++) {
+            queueSizes[i] = lanes[i].size();
+            completedCount += lanes[i].completedCount.sum();
+        }
+        stats.setQueueSizes(queueSizes);
+        stats.setCompletedCount(completedCount);
+        stats.setRejectedCount(rejectedCount.sum());
+        return stats;
+    }
+
+    static Map<String, LaneStats> allStats() {
+        Map<String, LaneStats> statsMap = new TreeMap<>();
+        for (DispatchLanes dispatchLanes : lanesMap.values()) {
+            statsMap.put(dispatchLanes.scene, dispatchLanes.stats());
+        }
+        return statsMap;
+    }
+
+    /**
+     * 停止全部通道并等待已入队的任务执行完
+     */
+    static boolean shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (DispatchLanes dispatchLanes : lanesMap.values()) {
+            dispatchLanes.stop();
+        }
+        for (DispatchLanes dispatchLanes : lanesMap.values()) {
+            if (!dispatchLanes.await(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
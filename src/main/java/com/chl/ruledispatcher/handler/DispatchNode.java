@@ -0,0 +1,388 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.chl.ruledispatcher.anotations.AsAfterAction;
+import com.chl.ruledispatcher.anotations.AsPreAction;
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * scene + app 维度的不可变调度节点，由 {@link RuleDispatcher.SceneAppHandlerNode} 在整理完成后冻结得到。
+ * <br/>
+ * 控制器链为已排序的数组，排他性、优先级拷贝为基本类型，调度时不再访问注解与链表。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DispatchNode {
+
+    /**
+     * 选择缓存的上限，超出后不再缓存，每次重新计算
+     */
+    private static final int MAX_SELECTIONS = 1024;
+
+    final String scene;
+    final String app;
+
+    /**
+     * 前置行为，按照优先级正序
+     */
+    final PreAction[] preActions;
+
+    /**
+     * 与 preActions 下标一一对应
+     */
+    final boolean[] parallelPreActions;
+    final long[] preActionTimeoutNanos;
+    final boolean[] vetoOnTimeouts;
+
+    /**
+     * 存在并行的前置行为
+     */
+    final boolean parallelPreAction;
+
+    /**
+     * 并行前置行为使用的执行器
+     */
+    final Executor preActionExecutor;
+
+    /**
+     * 规则控制器，按照优先级正序
+     */
+    final RuleHandler[] ruleHandlers;
+
+    /**
+     * 与 ruleHandlers 下标一一对应
+     */
+    final String[] rules;
+    final int[] priorities;
+    final boolean[] exclusives;
+    final boolean[] parallelMatches;
+
+    /**
+     * 存在并行匹配的规则
+     */
+    final boolean parallelMatch;
+
+    /**
+     * 并行匹配使用的线程池
+     */
+    final ForkJoinPool matchPool;
+
+    /**
+     * 调度轨迹采样率
+     */
+    final double traceSampleRate;
+
+    /**
+     * 声明条件的索引，没有规则声明条件时为null
+     */
+    final ConditionIndex conditionIndex;
+
+    /**
+     * 规则 -> ruleHandlers 下标
+     */
+    final Map<String, Integer> ruleIndexMap;
+
+    /**
+     * 标签 -> 规则位图，编译节点时按排序后的规则数组确定
+     */
+    final Map<String, long[]> tagBits;
+
+    /**
+     * 规则集合或标签表达式 -> 选中的规则，最多缓存 {@link #MAX_SELECTIONS} 个
+     */
+    private final ConcurrentHashMap<Object, RuleSelection> selections = new ConcurrentHashMap<>();
+
+    /**
+     * 专用控制器链，未开启或不支持时为null
+     */
+    final DispatchChain chain;
+
+    /**
+     * 后置行为，按照优先级正序
+     */
+    final AfterAction[] afterActions;
+
+    /**
+     * 规则控制器、后置行为的依赖图，未开启依赖调度或没有可并行的控制器时为null
+     */
+    final DependencyGraph ruleGraph;
+    final DependencyGraph afterActionGraph;
+
+    /**
+     * 与各控制器下标一一对应的时间预算，未声明时元素为null
+     */
+    final HandlerBudget[] preActionBudgets;
+    final HandlerBudget[] ruleHandlerBudgets;
+    final HandlerBudget[] afterActionBudgets;
+
+    /**
+     * 存在声明可选或预算的控制器
+     */
+    final boolean budgeted;
+
+    /**
+     * 场景配置，可能为null
+     */
+    final SceneConfig sceneConfig;
+
+    /**
+     * 异步调度使用的执行器
+     */
+    final Executor executor;
+
+    /**
+     * 并发隔离，未配置并发上限时为null
+     */
+    final Bulkhead bulkhead;
+
+    /**
+     * 分区调度通道，未配置分区键时为null
+     */
+    final DispatchLanes lanes;
+
+    /**
+     * 合并调度，未配置指纹时为null
+     */
+    final SingleFlight singleFlight;
+
+    /**
+     * 影子评估，未开启时为null
+     */
+    final ShadowEvaluation shadow;
+
+    private DispatchNode(String scene, String app, PreAction[] preActions, RuleHandler[] ruleHandlers,
+            AfterAction[] afterActions, SceneConfig sceneConfig) {
+        this.scene = scene;
+        this.app = app;
+        this.sceneConfig = sceneConfig;
+        this.executor = DispatchExecutors.resolve(sceneConfig);
+        this.bulkhead = Bulkhead.resolve(sceneConfig, app);
+        this.lanes = DispatchLanes.resolve(sceneConfig);
+        this.singleFlight = SingleFlight.resolve(sceneConfig, app);
+        this.shadow = ShadowEvaluation.get(scene, app);
+        this.preActions = preActions;
+        this.ruleHandlers = ruleHandlers;
+        this.afterActions = afterActions;
+
+        int size = ruleHandlers.length;
+        this.rules = new String[size];
+        this.priorities = new int[size];
+        this.exclusives = new boolean[size];
+        this.parallelMatches = new boolean[size];
+        this.ruleIndexMap = new HashMap<>(size * 2);
+        boolean sceneParallelMatch = null != sceneConfig && sceneConfig.isParallelMatch();
+        int parallelCount = 0;
+        for (int i = 0; i < size; i++) {
+            RuleHandler ruleHandler = ruleHandlers[i];
+            rules[i] = ruleHandler.asRuleHandler.rule();
+            priorities[i] = ruleHandler.asRuleHandler.priority();
+            exclusives[i] = ruleHandler.asRuleHandler.exclusive();
+            parallelMatches[i] = sceneParallelMatch || ruleHandler.asRuleHandler.parallelMatch();
+            if (parallelMatches[i]) {
+                parallelCount++;
+            }
+            ruleIndexMap.put(rules[i], i);
+        }
+        this.conditionIndex = ConditionIndex.build(ruleHandlers);
+        this.tagBits = RuleSelection.tagBits(ruleHandlers);
+
+        boolean budgeted = false;
+        this.ruleHandlerBudgets = new HandlerBudget[size];
+        for (int i = 0; i < size; i++) {
+            AsRuleHandler asRuleHandler = ruleHandlers[i].asRuleHandler;
+            ruleHandlerBudgets[i] = ruleHandlers[i].budget = HandlerBudget.resolve(ruleHandlers[i].budget,
+                    HandlerMetricsSnapshot.KIND_RULE_HANDLER, rules[i], asRuleHandler.optional(), exclusives[i],
+                    asRuleHandler.budgetMillis(), asRuleHandler.breakerThreshold(), asRuleHandler.breakerOpenMillis(),
+                    ruleHandlers[i].metrics);
+            budgeted |= null != ruleHandlerBudgets[i];
+        }
+        this.preActionBudgets = new HandlerBudget[preActions.length];
+        for (int i = 0; i < preActions.length; i++) {
+            AsPreAction asPreAction = preActions[i].asPreAction;
+            preActionBudgets[i] = preActions[i].budget = HandlerBudget.resolve(preActions[i].budget,
+                    HandlerMetricsSnapshot.KIND_PRE_ACTION, asPreAction.rule(), asPreAction.optional(), false,
+                    asPreAction.budgetMillis(), asPreAction.breakerThreshold(), asPreAction.breakerOpenMillis(),
+                    preActions[i].metrics);
+            budgeted |= null != preActionBudgets[i];
+        }
+        this.afterActionBudgets = new HandlerBudget[afterActions.length];
+        for (int i = 0; i < afterActions.length; i++) {
+            AsAfterAction asAfterAction = afterActions[i].asAfterAction;
+            afterActionBudgets[i] = afterActions[i].budget = HandlerBudget.resolve(afterActions[i].budget,
+                    HandlerMetricsSnapshot.KIND_AFTER_ACTION, asAfterAction.rule(), asAfterAction.optional(), false,
+                    asAfterAction.budgetMillis(), asAfterAction.breakerThreshold(), asAfterAction.breakerOpenMillis(),
+                    afterActions[i].metrics);
+            budgeted |= null != afterActionBudgets[i];
+        }
+        this.budgeted = budgeted;
+        // 只有一个规则时并行没有收益
+        this.parallelMatch = parallelCount > 0 && size > 1;
+        this.traceSampleRate = null == sceneConfig ? 0 : sceneConfig.getTraceSampleRate();
+        this.matchPool = null != sceneConfig && null != sceneConfig.getMatchPool()
+                ? sceneConfig.getMatchPool() : ForkJoinPool.commonPool();
+
+        int preSize = preActions.length;
+        this.parallelPreActions = new boolean[preSize];
+        this.preActionTimeoutNanos = new long[preSize];
+        this.vetoOnTimeouts = new boolean[preSize];
+        boolean sceneParallelPreAction = null != sceneConfig && sceneConfig.isParallelPreAction();
+        int parallelPreCount = 0;
+        boolean hasTimeout = false;
+        for (int i = 0; i < preSize; i++) {
+            AsPreAction asPreAction = preActions[i].asPreAction;
+            parallelPreActions[i] = sceneParallelPreAction || asPreAction.parallel();
+            preActionTimeoutNanos[i] = TimeUnit.MILLISECONDS.toNanos(asPreAction.timeoutMillis());
+            vetoOnTimeouts[i] = asPreAction.vetoOnTimeout();
+            if (parallelPreActions[i]) {
+                parallelPreCount++;
+                hasTimeout |= preActionTimeoutNanos[i] > 0;
+            }
+        }
+        // 只有一个前置行为且不限时，并行没有收益
+        this.parallelPreAction = parallelPreCount > 0 && (preSize > 1 || hasTimeout);
+        this.preActionExecutor = null != sceneConfig && null != sceneConfig.getPreActionExecutor()
+                ? sceneConfig.getPreActionExecutor() : matchPool;
+
+        DependencyGraph.checkPreActions(scene, app, preActions, parallelPreActions);
+        boolean dependencyScheduling = null != sceneConfig && sceneConfig.isDependencyScheduling();
+        this.ruleGraph = DependencyGraph.ofRuleHandlers(scene, app, ruleHandlers, exclusives, parallelMatches, dependencyScheduling);
+        this.afterActionGraph = DependencyGraph.ofAfterActions(scene, app, afterActions, dependencyScheduling);
+
+        boolean asyncAfterAction = false;
+        for (AfterAction afterAction : afterActions) {
+            asyncAfterAction |= afterAction.asAfterAction.async();
+        }
+
+        // 条件索引、并行、依赖调度、异步、时间预算仍走通用路径
+        this.chain = null != sceneConfig && sceneConfig.isSpecializedChain() && null == conditionIndex && !parallelMatch
+                && !parallelPreAction && null == ruleGraph && null == afterActionGraph && !asyncAfterAction && !budgeted
+                ? DispatchChains.create(preActions, ruleHandlers, exclusives, afterActions) : null;
+    }
+
+    /**
+     * 冻结 scene + app 维度的控制器集合
+     */
+    static DispatchNode compile(RuleDispatcher.SceneAppHandlerNode sceneAppHandlerNode, SceneConfig sceneConfig) {
+        String scene = sceneAppHandlerNode.scene;
+        String app = sceneAppHandlerNode.app;
+
+        PreAction[] preActions = sceneAppHandlerNode.preActions.toArray(new PreAction[0]);
+        // 顺序无关分组内按统计调整后的顺序
+        RuleHandler[] ruleHandlers = AdaptiveOrdering.apply(sceneConfig, scene, app,
+                sceneAppHandlerNode.ruleHandlers.toArray(new RuleHandler[0]));
+        AfterAction[] afterActions = sceneAppHandlerNode.afterActions.toArray(new AfterAction[0]);
+
+        if (preActions.length == 0) {
+            log.info("RuleDispatcher noPreAction {} {}", scene, app);
+        }
+        if (ruleHandlers.length == 0) {
+            log.info("RuleDispatcher noRuleHandlers {} {}", scene, app);
+        }
+        if (afterActions.length == 0) {
+            log.info("RuleDispatcher noAfterAction {} {}", scene, app);
+        }
+
+        return new DispatchNode(scene, app, preActions, ruleHandlers, afterActions, sceneConfig);
+    }
+
+    /**
+     * @return 本次调度是否记录轨迹
+     */
+    boolean sampleTrace(RuleDispatcherContext ruleDispatcherContext) {
+        return ruleDispatcherContext.isTrace()
+                || (traceSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < traceSampleRate);
+    }
+
+    /**
+     * @return 满足声明条件的规则位图，可能与索引共享、只读；没有条件索引时返回null，即全部规则都是候选
+     */
+    long[] candidates(RuleDispatcherContext ruleDispatcherContext) {
+        return null == conditionIndex ? null : conditionIndex.candidates(ruleDispatcherContext);
+    }
+
+    /**
+     * @param candidates 为null时全部规则都是候选
+     * @return 下标不小于from的第一个候选规则，不存在返回-1
+     */
+    int nextCandidate(long[] candidates, int from) {
+        if (null == candidates) {
+            return from < ruleHandlers.length ? from : -1;
+        }
+        return ConditionIndex.next(candidates, from);
+    }
+
+    /**
+     * @param selected 按规则集合选中的规则，为null时不限
+     * @param tagged 按标签表达式选中的规则，为null时不限
+     * @return 下标不小于from的第一个同时满足三者的规则，不存在返回-1
+     */
+    int nextCandidate(long[] candidates, long[] selected, long[] tagged, int from) {
+        if (null == selected && null == tagged) {
+            return nextCandidate(candidates, from);
+        }
+        long[] bits = null != selected ? selected : tagged;
+        for (int i = ConditionIndex.next(bits, from); i >= 0; i = ConditionIndex.next(bits, i + 1)) {
+            if (RuleSelection.contains(candidates, i) && RuleSelection.contains(tagged, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 规则集合选中的规则，相同集合沿用缓存
+     */
+    RuleSelection selectRules(Collection<String> rules) {
+        RuleSelection selection = selections.get(rules);
+        if (null == selection) {
+            selection = RuleSelection.ofRules(ruleIndexMap, ruleHandlers.length, rules);
+            cacheSelection(rules instanceof Set ? new HashSet<>(rules) : new ArrayList<>(rules), selection);
+        }
+        return selection;
+    }
+
+    /**
+     * @return 标签表达式选中的规则，相同表达式沿用缓存
+     */
+    RuleSelection selectTags(String tags) {
+        RuleSelection selection = selections.get(tags);
+        if (null == selection) {
+            selection = RuleSelection.ofTags(tagBits, ruleHandlers.length, tags);
+            cacheSelection(tags, selection);
+        }
+        return selection;
+    }
+
+    /**
+     * 缓存新的选择，存在不存在的规则或标签时仅在首次缓存时告警
+     */
+    private void cacheSelection(Object key, RuleSelection selection) {
+        boolean cached = selections.size() < MAX_SELECTIONS && null == selections.putIfAbsent(key, selection);
+        if (cached && selection.unknown.length > 0) {
+            log.warn("RuleDispatcher unknownRules {} {} {} {}", scene, app, key, Arrays.toString(selection.unknown));
+        }
+    }
+
+    /**
+     * @return 规则对应的下标，不存在返回-1
+     */
+    int indexOf(String rule) {
+        Integer index = ruleIndexMap.get(rule);
+        return null == index ? -1 : index;
+    }
+}
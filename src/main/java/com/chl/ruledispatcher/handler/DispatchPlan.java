@@ -0,0 +1,97 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 不可变调度计划，整理完成后由控制器关系一次性编译得到。
+ * <br/>
+ * scene + app 平铺在一张开放寻址表中，一次调度只需一次查找。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class DispatchPlan {
+
+    static final DispatchPlan EMPTY = new DispatchPlan(new DispatchNode[0]);
+
+    /**
+     * 全部节点，顺序无意义
+     */
+    final DispatchNode[] nodes;
+
+    /**
+     * 线性探测表，长度为2的幂且至少为节点数的两倍，保证存在空槽
+     */
+    private final DispatchNode[] table;
+    private final int mask;
+
+    private DispatchPlan(DispatchNode[] nodes) {
+        this.nodes = nodes;
+
+        int capacity = 2;
+        while (capacity < nodes.length * 2) {
+            capacity <<= 1;
+        }
+        this.table = new DispatchNode[capacity];
+        this.mask = capacity - 1;
+
+        for (DispatchNode node : nodes) {
+            int index = hash(node.scene, node.app) & mask;
+            while (null != table[index]) {
+                index = (index + 1) & mask;
+            }
+            table[index] = node;
+        }
+    }
+
+    /**
+     * 编译控制器关系
+     */
+    static DispatchPlan compile(Map<String, RuleDispatcher.SceneHandlerNode> sceneHandlerMap,
+            Map<String, SceneConfig> sceneConfigMap) {
+        List<DispatchNode> nodes = new ArrayList<>();
+        for (RuleDispatcher.SceneHandlerNode sceneHandlerNode : sceneHandlerMap.values()) {
+            SceneConfig sceneConfig = sceneConfigMap.get(sceneHandlerNode.scene);
+            for (RuleDispatcher.SceneAppHandlerNode sceneAppHandlerNode : sceneHandlerNode.appHandlerMap.values()) {
+                nodes.add(DispatchNode.compile(sceneAppHandlerNode, sceneConfig));
+            }
+        }
+        return new DispatchPlan(nodes.toArray(new DispatchNode[0]));
+    }
+
+    /**
+     * 替换或新增一个节点，其余节点沿用
+     * @return 新的调度计划
+     */
+    DispatchPlan with(DispatchNode dispatchNode) {
+        List<DispatchNode> nodes = new ArrayList<>(this.nodes.length + 1);
+        for (DispatchNode node : this.nodes) {
+            if (!(node.scene.equals(dispatchNode.scene) && node.app.equals(dispatchNode.app))) {
+                nodes.add(node);
+            }
+        }
+        nodes.add(dispatchNode);
+        return new DispatchPlan(nodes.toArray(new DispatchNode[0]));
+    }
+
+    /**
+     * @return scene + app 对应的节点，不存在返回null
+     */
+    DispatchNode getNode(String scene, String app) {
+        int index = hash(scene, app) & mask;
+        DispatchNode node;
+        while (null != (node = table[index])) {
+            if (node.scene.equals(scene) && node.app.equals(app)) {
+                return node;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int hash(String scene, String app) {
+        int h = scene.hashCode() * 31 + app.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
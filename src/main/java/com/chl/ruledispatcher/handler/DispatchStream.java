@@ -0,0 +1,251 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 一次流式调度订阅：从上游接收context，经 {@link RuleDispatcher#dispatchAsync(RuleDispatcherContext)} 调度后发给下游。
+ * <br/>
+ * 上游的未完成需求不超过 bufferSize，context发给下游（或异常丢弃）后再向上游补一个，下游不请求时上游随之停止；
+ * 同时调度的context不超过 parallelism。各信号经 wip 计数串行处理，只有抢到 wip 的线程发出信号。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class DispatchStream<T extends RuleDispatcherContext> implements DispatchFlow.Subscriber<T>,
+        DispatchFlow.Subscription {
+
+    private final DispatchFlow.Subscriber<? super T> downstream;
+    private final int parallelism;
+    private final int bufferSize;
+    private final boolean ordered;
+    private final BiConsumer<RuleDispatcherContext, Throwable> errorHandler;
+
+    private volatile DispatchFlow.Subscription upstream;
+
+    /**
+     * 已接收、尚未开始调度
+     */
+    private final Queue<T> incoming = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 有序时为已开始调度的全部context，按上游顺序；无序时为已完成的context，按完成顺序
+     */
+    private final Queue<Slot<T>> slots = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile Throwable requestError;
+    private volatile boolean cancelled;
+
+    /**
+     * 以下只在持有 wip 时访问
+     */
+    private boolean terminated;
+    private long emitted;
+
+    DispatchStream(DispatchFlow.Subscriber<? super T> downstream, StreamConfig streamConfig) {
+        this.downstream = downstream;
+        this.parallelism = streamConfig.getParallelism() > 0 ? streamConfig.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.bufferSize = Math.max(parallelism, streamConfig.getBufferSize());
+        this.ordered = streamConfig.isOrdered();
+        this.errorHandler = streamConfig.getErrorHandler();
+    }
+
+    @Override
+    public void onSubscribe(DispatchFlow.Subscription subscription) {
+        if (null != upstream) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        downstream.onSubscribe(this);
+        if (!cancelled) {
+            subscription.request(bufferSize);
+        }
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (null == item) {
+            onError(new NullPointerException("RuleDispatcher dispatchStream null context"));
+            return;
+        }
+        incoming.offer(item);
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            requestError = new IllegalArgumentException("RuleDispatcher dispatchStream request must be positive " + n);
+        } else {
+            long current;
+            do {
+                current = requested.get();
+                if (current == Long.MAX_VALUE) {
+                    break;
+                }
+            } while (!requested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        DispatchFlow.Subscription subscription = upstream;
+        if (null != subscription) {
+            subscription.cancel();
+        }
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            if (!terminated) {
+                drainLoop();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drainLoop() {
+        if (cancelled) {
+            terminate();
+            return;
+        }
+        if (null != requestError) {
+            upstream.cancel();
+            terminate();
+            downstream.onError(requestError);
+            return;
+        }
+
+        T item;
+        while (running.get() < parallelism && null != (item = incoming.poll())) {
+            start(item);
+        }
+
+        long replenish = 0;
+        long demand = requested.get();
+        Slot<T> slot;
+        while (null != (slot = slots.peek()) && slot.done) {
+            if (null == slot.error && emitted >= demand) {
+                break;
+            }
+            slots.poll();
+            replenish++;
+
+            if (null != slot.error) {
+                if (null == errorHandler) {
+                    upstream.cancel();
+                    terminate();
+                    downstream.onError(slot.error);
+                    return;
+                }
+                errorHandler.accept(slot.context, slot.error);
+                continue;
+            }
+            downstream.onNext(slot.context);
+            emitted++;
+            if (cancelled) {
+                terminate();
+                return;
+            }
+        }
+
+        // 开始调度后仍可能有空闲的并行度
+        while (running.get() < parallelism && null != (item = incoming.poll())) {
+            start(item);
+        }
+
+        if (upstreamDone && incoming.isEmpty() && running.get() == 0 && slots.isEmpty()) {
+            terminate();
+            if (null != upstreamError) {
+                downstream.onError(upstreamError);
+            } else {
+                downstream.onComplete();
+            }
+            return;
+        }
+        if (replenish > 0 && !upstreamDone) {
+            upstream.request(replenish);
+        }
+    }
+
+    private void start(T item) {
+        final Slot<T> slot = new Slot<>(item);
+        running.incrementAndGet();
+        if (ordered) {
+            slots.offer(slot);
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = RuleDispatcher.dispatchAsync(item);
+        } catch (Throwable e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((result, throwable) -> {
+            slot.error = throwable instanceof CompletionException && null != throwable.getCause()
+                    ? throwable.getCause() : throwable;
+            slot.done = true;
+            if (!ordered) {
+                slots.offer(slot);
+            }
+            running.decrementAndGet();
+            drain();
+        });
+    }
+
+    private void terminate() {
+        terminated = true;
+        incoming.clear();
+        slots.clear();
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatchStream terminated emitted {}", emitted);
+        }
+    }
+
+    private static final class Slot<T> {
+        final T context;
+        volatile Throwable error;
+        volatile boolean done;
+
+        Slot(T context) {
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一次被采样调度的轨迹：经过的控制器、匹配结果与耗时
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+@NoArgsConstructor
+public class DispatchTrace {
+
+    /**
+     * 记录顺序
+     */
+    private long sequence;
+
+    private String scene;
+
+    private String app;
+
+    private String rule;
+
+    private long startMillis;
+
+    private long totalNanos;
+
+    /**
+     * 前置行为立即返回
+     */
+    private boolean returned;
+
+    /**
+     * 截断规则链的排他性规则
+     */
+    private String exclusiveRule;
+
+    /**
+     * 调度异常
+     */
+    private String error;
+
+    private List<Step> steps = new ArrayList<>();
+
+    DispatchTrace(String scene, String app, String rule) {
+        this.scene = scene;
+        this.app = app;
+        this.rule = rule;
+        this.startMillis = System.currentTimeMillis();
+    }
+
+    void addStep(String kind, String rule, boolean hit, long nanos) {
+        steps.add(new Step(kind, rule, hit, nanos, false));
+    }
+
+    void addSkippedStep(String kind, String rule) {
+        steps.add(new Step(kind, rule, false, 0, true));
+    }
+
+    /**
+     * 经过的一个控制器
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Step {
+
+        /**
+         * 同 {@link HandlerMetricsSnapshot#getKind()}
+         */
+        private String kind;
+
+        private String rule;
+
+        /**
+         * 前置行为为立即返回，规则控制器为命中，后置行为恒为false
+         */
+        private boolean hit;
+
+        /**
+         * 规则控制器为match与action耗时之和
+         */
+        private long nanos;
+
+        /**
+         * 可选控制器因时间不足或断路被跳过
+         */
+        private boolean skipped;
+    }
+}
@@ -0,0 +1,75 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 表达式规则编译后的条件与行为，由 {@link UnrolledExpressionRule} 展开执行。
+ * <br/>
+ * 每个条件占一个槽：基本数值类型属性的范围条件通过 n 读取，不装箱；其余通过 g 读取。未使用的槽为null。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class ExpressionRuleSegment {
+
+    static final int SLOTS = 8;
+
+    /**
+     * 规则编译时的context类型，其他类型的context不匹配
+     */
+    final Class<?> contextType;
+
+    final RuleCondition c0, c1, c2, c3, c4, c5, c6, c7;
+    final ToDoubleFunction<Object> n0, n1, n2, n3, n4, n5, n6, n7;
+    final Function<Object, Object> g0, g1, g2, g3, g4, g5, g6, g7;
+
+    /**
+     * 命中后依次设置的属性与取值
+     */
+    private final BiConsumer<Object, Object>[] setters;
+    private final Object[] values;
+
+    ExpressionRuleSegment(Class<?> contextType, RuleCondition[] conditions, ToDoubleFunction<Object>[] numbers,
+            Function<Object, Object>[] getters, BiConsumer<Object, Object>[] setters, Object[] values) {
+        this.contextType = contextType;
+        this.c0 = slot(conditions, 0);
+        this.c1 = slot(conditions, 1);
+        this.c2 = slot(conditions, 2);
+        this.c3 = slot(conditions, 3);
+        this.c4 = slot(conditions, 4);
+        this.c5 = slot(conditions, 5);
+        this.c6 = slot(conditions, 6);
+        this.c7 = slot(conditions, 7);
+        this.n0 = slot(numbers, 0);
+        this.n1 = slot(numbers, 1);
+        this.n2 = slot(numbers, 2);
+        this.n3 = slot(numbers, 3);
+        this.n4 = slot(numbers, 4);
+        this.n5 = slot(numbers, 5);
+        this.n6 = slot(numbers, 6);
+        this.n7 = slot(numbers, 7);
+        this.g0 = slot(getters, 0);
+        this.g1 = slot(getters, 1);
+        this.g2 = slot(getters, 2);
+        this.g3 = slot(getters, 3);
+        this.g4 = slot(getters, 4);
+        this.g5 = slot(getters, 5);
+        this.g6 = slot(getters, 6);
+        this.g7 = slot(getters, 7);
+        this.setters = setters;
+        this.values = values;
+    }
+
+    void action(RuleDispatcherContext ruleDispatcherContext) {
+        for (int i = 0; i < setters.length; i++) {
+            setters[i].accept(ruleDispatcherContext, values[i]);
+        }
+    }
+
+    private static <H> H slot(H[] handlers, int index) {
+        return index < handlers.length ? handlers[index] : null;
+    }
+}
@@ -0,0 +1,244 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 决策表形式的表达式规则，加载时编译为规则控制器。
+ * <br/>
+ * 每行一条规则，列以 | 分隔：{@code scene | app | rule | priority | exclusive | when | then}，空行与 # 开头的行忽略。
+ * <ul>
+ *     <li>priority 为空时50，exclusive 为空时false</li>
+ *     <li>when 为以 &amp;&amp; 连接的条件，写法同 {@link AsRuleHandler#conditions()}，最多 {@link ExpressionRuleSegment#SLOTS} 个；
+ *     为空或 * 时总是命中</li>
+ *     <li>then 为以 , 分隔的赋值，形如 {@code decision = 'review'}，命中后通过 setXxx 设置；可为空</li>
+ * </ul>
+ * 属性读写在加载时由 LambdaMetafactory 生成直接调用getter/setter的访问器，每条规则定义为独立的
+ * {@link UnrolledExpressionRule} 类，调度时不解释表达式、不反射。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class ExpressionRules {
+
+    private ExpressionRules() {
+    }
+
+    /**
+     * 读取并编译决策表，任一行有误时整体失败
+     * @return 已绑定元数据的规则控制器
+     */
+    static List<RuleHandler> compile(Class<?> contextType, Reader reader) throws IOException {
+        List<RuleHandler> ruleHandlers = new ArrayList<>();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while (null != (line = bufferedReader.readLine())) {
+            lineNumber++;
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            try {
+                ruleHandlers.add(compile(contextType, text));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("RuleDispatcher illegal expressionRule line " + lineNumber + " " + text, e);
+            }
+        }
+        return ruleHandlers;
+    }
+
+    private static RuleHandler compile(Class<?> contextType, String text) {
+        List<String> columns = split(text, "|");
+        if (columns.size() != 6 && columns.size() != 7) {
+            throw new RuntimeException("RuleDispatcher expressionRule columns " + columns.size());
+        }
+        String scene = columns.get(0);
+        String app = columns.get(1);
+        String rule = columns.get(2);
+        if (scene.isEmpty() || app.isEmpty() || rule.isEmpty()) {
+            throw new RuntimeException("RuleDispatcher expressionRule must set scene app rule");
+        }
+        int priority = columns.get(3).isEmpty() ? 50 : Integer.parseInt(columns.get(3));
+        boolean exclusive = !columns.get(4).isEmpty() && parseBoolean(columns.get(4));
+        String when = columns.get(5);
+        String then = columns.size() > 6 ? columns.get(6) : "";
+
+        List<String> expressions = when.isEmpty() || "*".equals(when) ? Collections.<String>emptyList() : split(when, "&&");
+        if (expressions.size() > ExpressionRuleSegment.SLOTS) {
+            throw new RuntimeException("RuleDispatcher expressionRule tooManyConditions " + expressions.size());
+        }
+        RuleCondition[] conditions = new RuleCondition[expressions.size()];
+        @SuppressWarnings("unchecked")
+        ToDoubleFunction<Object>[] numbers = new ToDoubleFunction[expressions.size()];
+        @SuppressWarnings("unchecked")
+        Function<Object, Object>[] getters = new Function[expressions.size()];
+        for (int i = 0; i < expressions.size(); i++) {
+            conditions[i] = RuleCondition.parse(expressions.get(i));
+            Method getter = ContextProperties.findGetter(contextType, conditions[i].property);
+            if (!conditions[i].isEquality() && ContextProperties.isNumber(getter.getReturnType())) {
+                numbers[i] = ContextProperties.numberGetter(getter);
+            } else {
+                getters[i] = ContextProperties.getter(getter);
+            }
+        }
+
+        List<String> assignments = then.isEmpty() ? Collections.<String>emptyList() : split(then, ",");
+        @SuppressWarnings("unchecked")
+        BiConsumer<Object, Object>[] setters = new BiConsumer[assignments.size()];
+        Object[] values = new Object[assignments.size()];
+        for (int i = 0; i < assignments.size(); i++) {
+            String assignment = assignments.get(i);
+            int index = assignment.indexOf('=');
+            if (index <= 0 || assignment.startsWith("=", index + 1)) {
+                throw new RuntimeException("RuleDispatcher illegal assignment " + assignment);
+            }
+            Method setter = ContextProperties.findSetter(contextType, assignment.substring(0, index).trim());
+            setters[i] = ContextProperties.setter(setter);
+            values[i] = value(setter.getParameterTypes()[0], assignment.substring(index + 1).trim());
+        }
+
+        ExpressionRuleSegment segment = new ExpressionRuleSegment(contextType, conditions, numbers, getters, setters,
+                values);
+        RuleHandler ruleHandler = newRuleHandler(segment);
+        ruleHandler.bind(metadata(scene, app, rule, priority, exclusive));
+        return ruleHandler;
+    }
+
+    /**
+     * 每条规则一个独立的类，不支持时共用模板类
+     */
+    private static RuleHandler newRuleHandler(ExpressionRuleSegment segment) {
+        try {
+            Class<?> ruleClass = TemplateClasses.define(UnrolledExpressionRule.class);
+            Constructor<?> constructor = (null == ruleClass ? UnrolledExpressionRule.class : ruleClass)
+                    .getDeclaredConstructor(ExpressionRuleSegment.class);
+            constructor.setAccessible(true);
+            return (RuleHandler) constructor.newInstance(segment);
+        } catch (Exception e) {
+            log.warn("RuleDispatcher define expressionRule fail, use shared class", e);
+            return new UnrolledExpressionRule(segment);
+        }
+    }
+
+    /**
+     * 赋值字面量转换为setter参数类型
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object value(Class<?> type, String literal) {
+        if ("null".equals(literal)) {
+            if (type.isPrimitive()) {
+                throw new RuntimeException("RuleDispatcher illegal value " + literal + " for " + type.getName());
+            }
+            return null;
+        }
+        String text = literal.length() >= 2 && (literal.startsWith("'") && literal.endsWith("'")
+                || literal.startsWith("\"") && literal.endsWith("\"")) ? literal.substring(1, literal.length() - 1) : literal;
+        Class<?> wrapped = ContextProperties.wrap(type);
+        if (wrapped == String.class || wrapped == Object.class || wrapped == CharSequence.class) {
+            return text;
+        }
+        if (wrapped.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) wrapped, text);
+        }
+        if (wrapped == Boolean.class) {
+            return parseBoolean(text);
+        }
+        if (wrapped == Character.class && text.length() == 1) {
+            return text.charAt(0);
+        }
+        try {
+            if (wrapped == Integer.class) {
+                return Integer.valueOf(text);
+            }
+            if (wrapped == Long.class) {
+                return Long.valueOf(text);
+            }
+            if (wrapped == Double.class) {
+                return Double.valueOf(text);
+            }
+            if (wrapped == Float.class) {
+                return Float.valueOf(text);
+            }
+            if (wrapped == Short.class) {
+                return Short.valueOf(text);
+            }
+            if (wrapped == Byte.class) {
+                return Byte.valueOf(text);
+            }
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("RuleDispatcher illegal value " + literal + " for " + type.getName());
+        }
+        throw new RuntimeException("RuleDispatcher unsupported property type " + type.getName());
+    }
+
+    private static boolean parseBoolean(String text) {
+        if ("true".equalsIgnoreCase(text)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(text)) {
+            return false;
+        }
+        throw new RuntimeException("RuleDispatcher illegal boolean " + text);
+    }
+
+    /**
+     * 按分隔符切分，引号与括号内的分隔符不切分
+     */
+    static List<String> split(String text, String separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (0 != quote) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if (0 == depth && text.startsWith(separator, i)) {
+                parts.add(text.substring(start, i).trim());
+                start = i + separator.length();
+                i = start - 1;
+            }
+        }
+        if (0 != quote || 0 != depth) {
+            throw new RuntimeException("RuleDispatcher unbalanced quote or parenthesis " + text);
+        }
+        parts.add(text.substring(start).trim());
+        return parts;
+    }
+
+    /**
+     * 由决策表的列生成元数据，其余取注解默认值
+     */
+    static AsRuleHandler metadata(String scene, String app, String rule, int priority, boolean exclusive) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("scene", scene);
+        values.put("app", app);
+        values.put("rule", rule);
+        values.put("priority", priority);
+        values.put("exclusive", exclusive);
+        return AnnotationMetadata.of(AsRuleHandler.class, values);
+    }
+}
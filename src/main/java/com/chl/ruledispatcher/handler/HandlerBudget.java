@@ -0,0 +1,215 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 控制器的时间预算与断路器，挂在控制器实例上，重新发布调度计划后仍保留断路状态。
+ * <br/>
+ * 可选控制器在剩余时间不足预算、或断路时跳过；执行超出预算记为超时，连续超时达到阈值后断路，
+ * 断路期满后放行一次试探，未超时则恢复，否则再断路一个周期。必需控制器只统计超时，不跳过。
+ * 控制器同步执行无法中断，超时只在执行完成后判定。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class HandlerBudget {
+
+    final String kind;
+    final String rule;
+
+    /**
+     * 可选，排他性规则总是必需
+     */
+    final boolean optional;
+    final long budgetMillis;
+    final long budgetNanos;
+
+    /**
+     * 连续超时多少次后断路，0为不断路；只作用于可选控制器
+     */
+    final int breakerThreshold;
+    final long breakerOpenNanos;
+
+    private final HandlerMetrics metrics;
+
+    /**
+     * 记录跳过与超时的分段锁，按context的identityHashCode选择
+     */
+    private static final Object[] RECORD_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < RECORD_LOCKS.length; i++) {
+            RECORD_LOCKS[i] = new Object();
+        }
+    }
+
+    private final AtomicInteger consecutiveOverruns = new AtomicInteger();
+
+    /**
+     * 断路截止的nanoTime，0为闭合
+     */
+    private final AtomicLong openUntil = new AtomicLong();
+
+    private HandlerBudget(String kind, String rule, boolean optional, long budgetMillis, int breakerThreshold,
+            long breakerOpenMillis, HandlerMetrics metrics) {
+        this.kind = kind;
+        this.rule = rule;
+        this.optional = optional;
+        this.budgetMillis = budgetMillis;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.breakerThreshold = optional && budgetMillis > 0 ? breakerThreshold : 0;
+        this.breakerOpenNanos = TimeUnit.MILLISECONDS.toNanos(breakerOpenMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param exist 控制器上已有的预算，配置不变时沿用以保留断路状态
+     * @return 未声明可选与预算时返回null
+     */
+    static HandlerBudget resolve(HandlerBudget exist, String kind, String rule, boolean optional, boolean exclusive,
+            long budgetMillis, int breakerThreshold, long breakerOpenMillis, HandlerMetrics metrics) {
+        optional = optional && !exclusive;
+        if (!optional && budgetMillis <= 0) {
+            return null;
+        }
+        HandlerBudget budget = new HandlerBudget(kind, rule, optional, budgetMillis, breakerThreshold,
+                breakerOpenMillis, metrics);
+        if (null != exist && exist.sameConfig(budget)) {
+            return exist;
+        }
+        return budget;
+    }
+
+    private boolean sameConfig(HandlerBudget other) {
+        return kind.equals(other.kind) && rule.equals(other.rule) && optional == other.optional
+                && budgetMillis == other.budgetMillis && breakerThreshold == other.breakerThreshold
+                && breakerOpenNanos == other.breakerOpenNanos;
+    }
+
+    /**
+     * 判断是否跳过，跳过时记录统计与context
+     * @return 是否跳过
+     */
+    boolean skip(RuleDispatcherContext ruleDispatcherContext) {
+        if (!optional) {
+            return false;
+        }
+
+        long deadlineMillis = ruleDispatcherContext.getDeadlineMillis();
+        if (deadlineMillis > 0) {
+            long remaining = deadlineMillis - System.currentTimeMillis();
+            if (remaining <= 0 || remaining < budgetMillis) {
+                skipped(ruleDispatcherContext);
+                return true;
+            }
+        }
+        if (breakerThreshold > 0 && !allow()) {
+            metrics.breakerRejectedCount.increment();
+            skipped(ruleDispatcherContext);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 执行完成，判定是否超时
+     * @return 是否超时
+     */
+    boolean complete(long nanos, RuleDispatcherContext ruleDispatcherContext) {
+        if (!overrun(nanos)) {
+            return false;
+        }
+        record(ruleDispatcherContext, false);
+        return true;
+    }
+
+    /**
+     * 批量控制器一次处理整批，整批耗时只判定一次超时与断路，超时时记录到整批的每个context
+     * @return 是否超时
+     */
+    boolean complete(long nanos, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        if (!overrun(nanos)) {
+            return false;
+        }
+        for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+            record(ruleDispatcherContext, false);
+        }
+        return true;
+    }
+
+    /**
+     * 判定超时，更新统计与断路器
+     */
+    private boolean overrun(long nanos) {
+        if (budgetNanos <= 0) {
+            return false;
+        }
+        if (nanos <= budgetNanos) {
+            if (breakerThreshold > 0) {
+                if (consecutiveOverruns.get() != 0) {
+                    consecutiveOverruns.set(0);
+                }
+                if (openUntil.get() != 0) {
+                    openUntil.set(0);
+                }
+            }
+            return false;
+        }
+
+        metrics.timeoutCount.increment();
+        if (breakerThreshold > 0 && consecutiveOverruns.incrementAndGet() >= breakerThreshold) {
+            openUntil.set(System.nanoTime() + breakerOpenNanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return 断路器是否放行，断路期满时只放行一次试探
+     */
+    private boolean allow() {
+        long until = openUntil.get();
+        if (until == 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - until < 0) {
+            return false;
+        }
+        // 试探期间仍视为断路，试探异常时下一周期再试探
+        return openUntil.compareAndSet(until, now + breakerOpenNanos);
+    }
+
+    boolean isOpen() {
+        long until = openUntil.get();
+        return until != 0 && System.nanoTime() - until < 0;
+    }
+
+    private void skipped(RuleDispatcherContext ruleDispatcherContext) {
+        metrics.skippedCount.increment();
+        record(ruleDispatcherContext, true);
+    }
+
+    /**
+     * 依赖调度与并行匹配时多个线程同时记录同一context，使用按context分段的内部锁，不锁调用方的对象
+     */
+    private void record(RuleDispatcherContext ruleDispatcherContext, boolean skipped) {
+        synchronized (RECORD_LOCKS[System.identityHashCode(ruleDispatcherContext) & (RECORD_LOCKS.length - 1)]) {
+            List<String> handlers = skipped ? ruleDispatcherContext.getSkippedHandlers()
+                    : ruleDispatcherContext.getOverrunHandlers();
+            if (null == handlers) {
+                handlers = new ArrayList<>(2);
+                if (skipped) {
+                    ruleDispatcherContext.setSkippedHandlers(handlers);
+                } else {
+                    ruleDispatcherContext.setOverrunHandlers(handlers);
+                }
+            }
+            handlers.add(kind + ":" + rule);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.annotation.Annotation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.chl.ruledispatcher.anotations.AsPreAction;
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 编译期生成的控制器定义，包含注解的全部显式属性，整理时据此构建元数据，不再反射读取注解
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+@AllArgsConstructor
+public class HandlerDefinition {
+
+    /**
+     * 同 {@link HandlerMetricsSnapshot#getKind()}
+     */
+    private String kind;
+
+    private Class<?> type;
+
+    private String scene;
+
+    private String app;
+
+    private String rule;
+
+    private int priority;
+
+    /**
+     * 仅规则控制器有效
+     */
+    private boolean exclusive;
+
+    /**
+     * 除以上之外显式声明的注解属性，属性名 -> 值
+     */
+    private Map<String, Object> attributes;
+
+    public static HandlerDefinition preAction(Class<?> type, String scene, String app, String rule, int priority) {
+        return new HandlerDefinition(HandlerMetricsSnapshot.KIND_PRE_ACTION, type, scene, app, rule, priority, false,
+                new LinkedHashMap<>());
+    }
+
+    public static HandlerDefinition ruleHandler(Class<?> type, String scene, String app, String rule, int priority,
+            boolean exclusive) {
+        return new HandlerDefinition(HandlerMetricsSnapshot.KIND_RULE_HANDLER, type, scene, app, rule, priority, exclusive,
+                new LinkedHashMap<>());
+    }
+
+    public static HandlerDefinition afterAction(Class<?> type, String scene, String app, String rule, int priority) {
+        return new HandlerDefinition(HandlerMetricsSnapshot.KIND_AFTER_ACTION, type, scene, app, rule, priority, false,
+                new LinkedHashMap<>());
+    }
+
+    /**
+     * 追加显式声明的注解属性，供生成的注册表使用
+     * @return this
+     */
+    public HandlerDefinition attribute(String name, Object value) {
+        attributes.put(name, value);
+        return this;
+    }
+
+    /**
+     * 由定义构建注解元数据
+     * @return 类型与定义不符时返回null
+     */
+    <A extends Annotation> A metadata(Class<A> annotationType) {
+        String expectedKind = annotationType == AsPreAction.class ? HandlerMetricsSnapshot.KIND_PRE_ACTION
+                : annotationType == AsRuleHandler.class ? HandlerMetricsSnapshot.KIND_RULE_HANDLER
+                : HandlerMetricsSnapshot.KIND_AFTER_ACTION;
+        if (!expectedKind.equals(kind)) {
+            return null;
+        }
+
+        Map<String, Object> values = new LinkedHashMap<>(attributes);
+        values.put("scene", scene);
+        values.put("app", app);
+        values.put("rule", rule);
+        values.put("priority", priority);
+        if (annotationType == AsRuleHandler.class) {
+            values.put("exclusive", exclusive);
+        }
+        return AnnotationMetadata.of(annotationType, values);
+    }
+}
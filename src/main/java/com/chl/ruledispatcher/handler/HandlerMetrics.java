@@ -0,0 +1,99 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 控制器维度的调用统计，挂在控制器实例上，重新发布调度计划后仍保留。
+ * <br/>
+ * 前置行为：hit 为立即返回；规则控制器：hit 为命中，latency 为match耗时，actionLatency 为action耗时；
+ * 后置行为：不统计hit。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class HandlerMetrics {
+
+    /**
+     * 统计开关
+     */
+    static volatile boolean enabled = true;
+
+    final LongAdder invocationCount = new LongAdder();
+    final LongAdder hitCount = new LongAdder();
+    final LongAdder exclusiveCutoffCount = new LongAdder();
+    final LongAdder errorCount = new LongAdder();
+
+    /**
+     * 并行前置行为等待超时，或执行超出时间预算
+     */
+    final LongAdder timeoutCount = new LongAdder();
+
+    /**
+     * 可选控制器因时间不足或断路被跳过
+     */
+    final LongAdder skippedCount = new LongAdder();
+
+    /**
+     * 其中因断路被跳过
+     */
+    final LongAdder breakerRejectedCount = new LongAdder();
+
+    /**
+     * 仅异步后置行为使用，队列已满时丢弃的次数
+     */
+    final LongAdder droppedCount = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * 仅规则控制器使用
+     */
+    final LatencyHistogram actionLatency;
+
+    HandlerMetrics(boolean withAction) {
+        this.actionLatency = withAction ? new LatencyHistogram() : null;
+    }
+
+    void record(long nanos, boolean hit) {
+        invocationCount.increment();
+        if (hit) {
+            hitCount.increment();
+        }
+        latency.record(nanos);
+    }
+
+    /**
+     * 批量调用记录为一次耗时
+     */
+    void record(int invocations, int hits, long nanos) {
+        invocationCount.add(invocations);
+        hitCount.add(hits);
+        latency.record(nanos);
+    }
+
+    HandlerMetricsSnapshot snapshot(String kind, String scene, String app, String rule, Object handler,
+            HandlerBudget budget) {
+        HandlerMetricsSnapshot snapshot = new HandlerMetricsSnapshot();
+        snapshot.setKind(kind);
+        snapshot.setScene(scene);
+        snapshot.setApp(app);
+        snapshot.setRule(rule);
+        snapshot.setClassName(handler.getClass().getSimpleName());
+        snapshot.setInvocationCount(invocationCount.sum());
+        snapshot.setHitCount(hitCount.sum());
+        snapshot.setExclusiveCutoffCount(exclusiveCutoffCount.sum());
+        snapshot.setErrorCount(errorCount.sum());
+        snapshot.setTimeoutCount(timeoutCount.sum());
+        snapshot.setSkippedCount(skippedCount.sum());
+        snapshot.setBreakerRejectedCount(breakerRejectedCount.sum());
+        snapshot.setBreakerOpen(null != budget && budget.isOpen());
+        snapshot.setDroppedCount(droppedCount.sum());
+        AfterActionQueue queue = handler instanceof AfterAction ? ((AfterAction) handler).queue : null;
+        if (null != queue) {
+            snapshot.setQueueSize(queue.size());
+        }
+        snapshot.setLatency(latency.snapshot());
+        if (null != actionLatency) {
+            snapshot.setActionLatency(actionLatency.snapshot());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,83 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 控制器调用统计快照
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class HandlerMetricsSnapshot {
+
+    public static final String KIND_PRE_ACTION = "preAction";
+    public static final String KIND_RULE_HANDLER = "ruleHandler";
+    public static final String KIND_AFTER_ACTION = "afterAction";
+
+    /**
+     * preAction、ruleHandler、afterAction
+     */
+    private String kind;
+
+    private String scene;
+
+    private String app;
+
+    private String rule;
+
+    private String className;
+
+    private long invocationCount;
+
+    /**
+     * 前置行为为立即返回次数，规则控制器为命中次数
+     */
+    private long hitCount;
+
+    /**
+     * 排他性规则命中后，截断后续规则的次数
+     */
+    private long exclusiveCutoffCount;
+
+    private long errorCount;
+
+    /**
+     * 并行前置行为等待超时、或执行超出时间预算的次数
+     */
+    private long timeoutCount;
+
+    /**
+     * 可选控制器因时间不足或断路被跳过的次数
+     */
+    private long skippedCount;
+
+    /**
+     * 其中因断路被跳过的次数
+     */
+    private long breakerRejectedCount;
+
+    /**
+     * 断路器当前是否断开
+     */
+    private boolean breakerOpen;
+
+    /**
+     * 异步后置行为队列已满时丢弃的次数
+     */
+    private long droppedCount;
+
+    /**
+     * 异步后置行为当前排队数
+     */
+    private int queueSize;
+
+    /**
+     * 前置、后置行为为handle耗时，规则控制器为match耗时
+     */
+    private LatencySnapshot latency;
+
+    /**
+     * 规则控制器的action耗时
+     */
+    private LatencySnapshot actionLatency;
+}
@@ -0,0 +1,38 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 加载编译期生成的 {@link HandlerRegistry}
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class HandlerRegistries {
+
+    private HandlerRegistries() {
+    }
+
+    /**
+     * @return 控制器类型 -> 定义，保持注册表中的顺序；不存在注册表时为空
+     */
+    static Map<Class<?>, HandlerDefinition> load() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (null == classLoader) {
+            classLoader = HandlerRegistries.class.getClassLoader();
+        }
+
+        Map<Class<?>, HandlerDefinition> definitionMap = new LinkedHashMap<>();
+        for (HandlerRegistry registry : ServiceLoader.load(HandlerRegistry.class, classLoader)) {
+            for (HandlerDefinition definition : registry.definitions()) {
+                definitionMap.put(definition.getType(), definition);
+            }
+            log.info("RuleDispatcher load handlerRegistry {}", registry.getClass().getName());
+        }
+        return definitionMap;
+    }
+}
@@ -0,0 +1,18 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.List;
+
+/**
+ * 控制器注册表，由注解处理器在编译期生成，通过 ServiceLoader 加载。
+ * <br/>
+ * 整理时不再扫描注解，只按注册表绑定控制器实例。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+public interface HandlerRegistry {
+
+    /**
+     * @return 控制器定义，已按类型、场景、app、优先级排序
+     */
+    List<HandlerDefinition> definitions();
+}
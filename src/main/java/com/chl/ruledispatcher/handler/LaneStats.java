@@ -0,0 +1,30 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 分区调度通道统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class LaneStats {
+
+    private String scene;
+
+    private int laneCount;
+
+    private int laneQueueCapacity;
+
+    /**
+     * 各通道当前排队数
+     */
+    private int[] queueSizes;
+
+    private long completedCount;
+
+    /**
+     * 通道已满被拒绝的次数
+     */
+    private long rejectedCount;
+}
@@ -0,0 +1,79 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图，按纳秒的2的幂分桶，记录使用 LongAdder，多线程记录无竞争。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class LatencyHistogram {
+
+    /**
+     * 第i个桶记录 [2^i, 2^(i+1)) 纳秒，最后一个桶记录更大的值
+     */
+    static final int BUCKET_COUNT = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        int index = nanos <= 1 ? 0 : Math.min(63 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+        buckets[index].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    LatencySnapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = buckets[i].sum();
+            total += bucketCounts[i];
+        }
+
+        LatencySnapshot snapshot = new LatencySnapshot();
+        snapshot.setCount(total);
+        snapshot.setTotalNanos(totalNanos.sum());
+        snapshot.setMaxNanos(maxNanos.get());
+        snapshot.setMeanNanos(total == 0 ? 0 : snapshot.getTotalNanos() / total);
+        snapshot.setP50Nanos(percentile(bucketCounts, total, 0.5));
+        snapshot.setP90Nanos(percentile(bucketCounts, total, 0.9));
+        snapshot.setP99Nanos(percentile(bucketCounts, total, 0.99));
+        snapshot.setBuckets(bucketCounts);
+        return snapshot;
+    }
+
+    /**
+     * @return 分位数所在桶的上界
+     */
+    private static long percentile(long[] bucketCounts, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * quantile);
+        long accumulated = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            accumulated += bucketCounts[i];
+            if (accumulated >= threshold) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKET_COUNT;
+    }
+}
@@ -0,0 +1,31 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 耗时直方图快照，分位数为所在桶的上界，精度为2倍
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class LatencySnapshot {
+
+    private long count;
+
+    private long totalNanos;
+
+    private long maxNanos;
+
+    private long meanNanos;
+
+    private long p50Nanos;
+
+    private long p90Nanos;
+
+    private long p99Nanos;
+
+    /**
+     * 第i个桶为 [2^i, 2^(i+1)) 纳秒的次数
+     */
+    private long[] buckets;
+}
@@ -0,0 +1,145 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 规则匹配结果缓存，按容量LRU淘汰，按写入时间过期；也用于整条调度的结果缓存。
+ * <br/>
+ * 分段加锁，降低并发调度之间的竞争；统计使用 LongAdder。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class MatchCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * 每段的最小容量，容量过小时分段会使LRU失真
+     */
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * 过期时间，小于等于0时不过期
+     */
+    private final long ttlNanos;
+
+    final int maximumSize;
+    final long ttlMillis;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    MatchCache(int maximumSize, long ttlMillis) {
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+        this.ttlNanos = ttlMillis * 1000000L;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * MIN_SEGMENT_SIZE <= maximumSize) {
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+
+        int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * @return 缓存的匹配结果，不存在或已过期返回null
+     */
+    Boolean get(Object key) {
+        return (Boolean) getValue(key);
+    }
+
+    void put(Object key, boolean match) {
+        putValue(key, match);
+    }
+
+    /**
+     * @return 缓存的值，不存在或已过期返回null
+     */
+    Object getValue(Object key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (null != entry && ttlNanos > 0 && System.nanoTime() - entry.expireAt > 0) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+
+        if (null == entry) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return entry.value;
+    }
+
+    void putValue(Object key, Object value) {
+        Entry entry = new Entry(value, ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    MatchCacheStats stats() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new MatchCacheStats(hitCount.sum(), missCount.sum(), evictionCount.sum(), size, maximumSize);
+    }
+
+    private Segment segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long expireAt;
+
+        Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 访问顺序的LinkedHashMap，超出容量时淘汰最久未访问的条目
+     */
+    private final class Segment extends LinkedHashMap<Object, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+            if (size() > maximumSize) {
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
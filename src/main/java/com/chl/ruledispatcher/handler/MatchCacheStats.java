@@ -0,0 +1,32 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 规则匹配结果缓存统计快照
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+@AllArgsConstructor
+public class MatchCacheStats {
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * 当前条目数，包含尚未清理的过期条目
+     */
+    private long size;
+
+    private int maximumSize;
+
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+}
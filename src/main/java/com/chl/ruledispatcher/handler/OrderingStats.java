@@ -0,0 +1,39 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 规则顺序自适应调整的统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class OrderingStats {
+
+    /**
+     * scene/app
+     */
+    private String name;
+
+    /**
+     * 当前发布的规则顺序
+     */
+    private List<String> ruleOrder;
+
+    /**
+     * 调整并发布新顺序的次数
+     */
+    private long reorderCount;
+
+    /**
+     * 按最近统计估算的当前顺序下分组规则的期望匹配耗时纳秒数
+     */
+    private double expectedNanos;
+
+    /**
+     * 最近一次调整的时间戳毫秒，未调整时为0
+     */
+    private long lastReorderMillis;
+}
@@ -14,6 +14,16 @@ import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
 public abstract class PreAction<T extends RuleDispatcherContext> {
     AsPreAction asPreAction;
 
+    /**
+     * 调用统计
+     */
+    final HandlerMetrics metrics = new HandlerMetrics(false);
+
+    /**
+     * 时间预算与断路器，未声明可选与预算时为null
+     */
+    HandlerBudget budget;
+
     /**
      * 可将结果放在context
      * @param ruleDispatcherContext
@@ -21,11 +31,32 @@ public abstract class PreAction<T extends RuleDispatcherContext> {
      */
     abstract protected boolean handle(T ruleDispatcherContext);
 
+    /**
+     * 执行并记录统计
+     * @return true 立即返回
+     */
+    boolean doHandle(T ruleDispatcherContext) {
+        if (!HandlerMetrics.enabled) {
+            return handle(ruleDispatcherContext);
+        }
+
+        long start = System.nanoTime();
+        boolean isReturn;
+        try {
+            isReturn = handle(ruleDispatcherContext);
+        } catch (Throwable e) {
+            metrics.errorCount.increment();
+            throw e;
+        }
+        metrics.record(System.nanoTime() - start, isReturn);
+        return isReturn;
+    }
+
     static Comparator<PreAction> comparator = new Comparator<PreAction>() {
 
         @Override
         public int compare(PreAction o1, PreAction o2) {
-            return o1.asPreAction.priority() < o2.asPreAction.priority() ? -1 : 1;
+            return Integer.compare(o1.asPreAction.priority(), o2.asPreAction.priority());
         }
     };
 
@@ -0,0 +1,46 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.File;
+
+import lombok.Data;
+
+/**
+ * 调度流量回放配置，见 {@link RuleDispatcher#replay(ReplayConfig)}
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class ReplayConfig {
+
+    /**
+     * 段文件所在目录，按文件名顺序回放其中全部段文件
+     */
+    private File directory;
+
+    /**
+     * 回放速度，相对录制时的间隔；0为不等待全速回放，1为原速，2为两倍速
+     */
+    private double speed;
+
+    /**
+     * 校验回放结果与录制结果一致：前置返回、命中的控制器、排他规则、是否异常。
+     * <br/>
+     * 校验时在当前线程直接执行处理流程，不经过并发隔离与合并调度
+     */
+    private boolean verify;
+
+    /**
+     * 最多回放的记录数，0为不限
+     */
+    private long limit;
+
+    /**
+     * 报告中最多保留的不一致样例数
+     */
+    private int maxMismatchSamples = 10;
+
+    /**
+     * 反序列化context使用的类加载器，为空时使用当前线程的上下文类加载器
+     */
+    private ClassLoader classLoader;
+}
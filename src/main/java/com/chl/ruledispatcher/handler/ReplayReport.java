@@ -0,0 +1,59 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 调度流量回放报告
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class ReplayReport {
+
+    private int segmentCount;
+
+    /**
+     * 回放的记录数
+     */
+    private long replayedCount;
+
+    /**
+     * 反序列化失败而跳过的记录数
+     */
+    private long skippedCount;
+
+    /**
+     * 回放时调度异常的次数
+     */
+    private long errorCount;
+
+    /**
+     * 开启校验时，结果与录制不一致的次数
+     */
+    private long mismatchCount;
+
+    private long elapsedNanos;
+
+    /**
+     * 每秒回放的记录数
+     */
+    private double throughput;
+
+    /**
+     * 单次调度耗时
+     */
+    private LatencySnapshot latency;
+
+    /**
+     * 录制时的单次调度耗时，用于对比
+     */
+    private LatencySnapshot recordedLatency;
+
+    /**
+     * 不一致样例，形如 scene/app/rule: 录制 -> 回放
+     */
+    private List<String> mismatchSamples = new ArrayList<>();
+}
@@ -0,0 +1,162 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 声明式匹配条件，形如 {@code channel == 'app'}、{@code level in (1, 2)}、{@code amount >= 100}。
+ * <br/>
+ * 等值条件按规范化后的字符串比较；范围条件只对数值属性成立。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class RuleCondition {
+
+    enum Op {
+        EQ, IN, GT, GE, LT, LE
+    }
+
+    private static final Pattern PATTERN = Pattern.compile(
+            "^\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*(==|>=|<=|>|<|\\s[iI][nN]\\s)\\s*(.+?)\\s*$");
+
+    final String property;
+    final Op op;
+
+    /**
+     * 等值条件的取值
+     */
+    final Set<String> values;
+
+    /**
+     * 范围条件的边界
+     */
+    final double bound;
+
+    private RuleCondition(String property, Op op, Set<String> values, double bound) {
+        this.property = property;
+        this.op = op;
+        this.values = values;
+        this.bound = bound;
+    }
+
+    static RuleCondition parse(String condition) {
+        Matcher matcher = PATTERN.matcher(condition);
+        if (!matcher.matches()) {
+            throw new RuntimeException("RuleDispatcher illegal condition " + condition);
+        }
+
+        String property = matcher.group(1);
+        String operator = matcher.group(2).trim();
+        String literal = matcher.group(3);
+        switch (operator) {
+            case "==":
+                return new RuleCondition(property, Op.EQ, Collections.singleton(literal(literal)), 0);
+            case ">":
+                return new RuleCondition(property, Op.GT, null, number(literal, condition));
+            case ">=":
+                return new RuleCondition(property, Op.GE, null, number(literal, condition));
+            case "<":
+                return new RuleCondition(property, Op.LT, null, number(literal, condition));
+            case "<=":
+                return new RuleCondition(property, Op.LE, null, number(literal, condition));
+            default:
+                if (!(literal.startsWith("(") && literal.endsWith(")"))) {
+                    throw new RuntimeException("RuleDispatcher illegal condition " + condition);
+                }
+                Set<String> values = new HashSet<>();
+                for (String item : literal.substring(1, literal.length() - 1).split(",")) {
+                    if (!item.trim().isEmpty()) {
+                        values.add(literal(item.trim()));
+                    }
+                }
+                return new RuleCondition(property, Op.IN, values, 0);
+        }
+    }
+
+    boolean isEquality() {
+        return op == Op.EQ || op == Op.IN;
+    }
+
+    boolean test(Object value) {
+        if (isEquality()) {
+            return null != value && values.contains(normalize(value));
+        }
+        return value instanceof Number && test(((Number) value).doubleValue());
+    }
+
+    /**
+     * 数值属性的判断，不装箱
+     */
+    boolean test(double number) {
+        if (isEquality()) {
+            return values.contains(normalize(number));
+        }
+        switch (op) {
+            case GT:
+                return number > bound;
+            case GE:
+                return number >= bound;
+            case LT:
+                return number < bound;
+            default:
+                return number <= bound;
+        }
+    }
+
+    /**
+     * 属性值规范化为比较用的字符串：枚举取name，整数值的小数去掉小数部分
+     */
+    static String normalize(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Enum) {
+            return ((Enum) value).name();
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value.toString();
+        }
+        if (value instanceof Number) {
+            return normalize(((Number) value).doubleValue());
+        }
+        return value.toString();
+    }
+
+    private static String normalize(double number) {
+        if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return Long.toString((long) number);
+        }
+        return Double.toString(number);
+    }
+
+    /**
+     * 带引号的字面量保持原样，数值按数值规范化
+     */
+    private static String literal(String literal) {
+        if (literal.length() >= 2 && (literal.startsWith("'") && literal.endsWith("'")
+                || literal.startsWith("\"") && literal.endsWith("\""))) {
+            return literal.substring(1, literal.length() - 1);
+        }
+        try {
+            return normalize(Double.parseDouble(literal));
+        } catch (NumberFormatException e) {
+            return literal;
+        }
+    }
+
+    private static double number(String literal, String condition) {
+        try {
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("RuleDispatcher illegal condition " + condition);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return property + " " + op + " " + (isEquality() ? values : bound);
+    }
+}
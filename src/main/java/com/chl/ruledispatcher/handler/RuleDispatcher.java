@@ -1,11 +1,29 @@
 package com.chl.ruledispatcher.handler;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.annotation.Annotation;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.chl.ruledispatcher.anotations.AsAfterAction;
 import com.chl.ruledispatcher.anotations.AsPreAction;
@@ -13,7 +31,7 @@ import com.chl.ruledispatcher.anotations.AsRuleHandler;
 import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
-import org.springframework.util.CollectionUtils;
+import org.springframework.util.ClassUtils;
 
 /**
  * 规则调度器
@@ -35,7 +53,7 @@ public class RuleDispatcher {
     /**
      * 获取当前配置的控制器关系
      */
-    public static String getNodes(){
+    public static synchronized String getNodes(){
         return sceneHandlerMap.toString();
     }
 
@@ -43,31 +61,310 @@ public class RuleDispatcher {
      * 调度
      */
     public static void dispatch(RuleDispatcherContext ruleDispatcherContext) {
-        if (log.isInfoEnabled()) {
-            log.info("RuleDispatcher dispatch {}", ruleDispatcherContext);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatch {}", ruleDispatcherContext);
         }
 
         if (isEmpty(ruleDispatcherContext.getScene()) || isEmpty(ruleDispatcherContext.getApp())) {
             throw new RuntimeException("must set scene and app");
         }
 
-        boolean isReturn = doPreAction(ruleDispatcherContext);
-        if (log.isInfoEnabled()) {
-            log.info("RuleDispatcher dispatch after doPreAction {} {}", ruleDispatcherContext, isReturn);
+        DispatchNode dispatchNode = getDispatchNode(ruleDispatcherContext.getScene(), ruleDispatcherContext.getApp());
+        doDispatch(dispatchNode, ruleDispatcherContext);
+    }
+
+    /**
+     * 限时调度，截止时间取context已有截止时间与当前时间+timeoutMillis的较早者；
+     * 剩余时间不足时跳过可选控制器，必需控制器仍执行
+     * @param timeoutMillis 本次调度的时限毫秒数
+     */
+    public static void dispatch(RuleDispatcherContext ruleDispatcherContext, long timeoutMillis) {
+        long previousDeadlineMillis = ruleDispatcherContext.getDeadlineMillis();
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        if (previousDeadlineMillis <= 0 || deadlineMillis < previousDeadlineMillis) {
+            ruleDispatcherContext.setDeadlineMillis(deadlineMillis);
+        }
+        try {
+            dispatch(ruleDispatcherContext);
+        } finally {
+            // 时限只对本次调度有效，context重复使用时不受影响
+            ruleDispatcherContext.setDeadlineMillis(previousDeadlineMillis);
+        }
+    }
+
+    /**
+     * 异步调度，在场景配置的执行器上执行，处理流程与 {@link #dispatch(RuleDispatcherContext)} 一致；
+     * 场景配置分区键时提交到分区键对应的通道，同一键按提交顺序执行
+     * @return 完成时为处理后的context；处理异常时异常完成
+     */
+    public static <T extends RuleDispatcherContext> CompletableFuture<T> dispatchAsync(final T ruleDispatcherContext) {
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatchAsync {}", ruleDispatcherContext);
+        }
+
+        if (isEmpty(ruleDispatcherContext.getScene()) || isEmpty(ruleDispatcherContext.getApp())) {
+            throw new RuntimeException("must set scene and app");
+        }
+
+        // 提交时确定节点，执行期间不受后续整理影响
+        final DispatchNode dispatchNode = getDispatchNode(ruleDispatcherContext.getScene(), ruleDispatcherContext.getApp());
+        if (null != dispatchNode.lanes) {
+            Object partitionKey = dispatchNode.sceneConfig.getPartitionKey().apply(ruleDispatcherContext);
+            if (null != partitionKey) {
+                return dispatchNode.lanes.submit(partitionKey, ruleDispatcherContext,
+                        () -> doDispatch(dispatchNode, ruleDispatcherContext));
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            doDispatch(dispatchNode, ruleDispatcherContext);
+            return ruleDispatcherContext;
+        }, dispatchNode.executor);
+    }
+
+    /**
+     * 流式调度，使用默认配置，见 {@link #dispatchStream(DispatchFlow.Publisher, StreamConfig)}
+     */
+    public static <T extends RuleDispatcherContext> DispatchFlow.Publisher<T> dispatchStream(DispatchFlow.Publisher<T> upstream) {
+        return dispatchStream(upstream, new StreamConfig());
+    }
+
+    /**
+     * 流式调度，上游的每个context经 {@link #dispatchAsync(RuleDispatcherContext)} 处理后发给下游，处理流程不变。
+     * <br/>
+     * 上游的未完成需求不超过 bufferSize，下游消费慢时不再向上游请求，不会无界排队；
+     * 每次订阅返回的发布者都会订阅一次上游。
+     * @return 处理后的context
+     */
+    public static <T extends RuleDispatcherContext> DispatchFlow.Publisher<T> dispatchStream(final DispatchFlow.Publisher<T> upstream,
+            final StreamConfig streamConfig) {
+        if (null == upstream || null == streamConfig) {
+            throw new RuntimeException("must set upstream and streamConfig");
+        }
+        return subscriber -> upstream.subscribe(new DispatchStream<T>(subscriber, streamConfig));
+    }
+
+    /**
+     * 批量调度，按场景+app+规则选择（rule、rules、tags）分组，每组只查找一次节点，组内按控制器逐个处理整组。
+     * <br/>
+     * 单个context的处理顺序与 {@link #dispatch(RuleDispatcherContext)} 一致；
+     * {@link BatchPreAction}、{@link BatchRuleHandler} 一次处理整组。
+     * 每个context的 deadlineMillis 与控制器预算同样生效，可选控制器按context分别跳过，批量控制器的整批耗时计入预算。
+     */
+    public static void dispatchBatch(Collection<? extends RuleDispatcherContext> ruleDispatcherContexts) {
+        if (isEmpty(ruleDispatcherContexts)) {
+            return;
+        }
+
+        // 节点 -> 规则选择 -> context
+        Map<DispatchNode, Map<List<Object>, List<RuleDispatcherContext>>> groups = new LinkedHashMap<>();
+        DispatchPlan plan = dispatchPlan;
+        for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+            String scene = ruleDispatcherContext.getScene();
+            String app = ruleDispatcherContext.getApp();
+            if (isEmpty(scene) || isEmpty(app)) {
+                throw new RuntimeException("must set scene and app");
+            }
+            resetDispatchState(ruleDispatcherContext);
+
+            DispatchNode dispatchNode = plan.getNode(scene, app);
+            if (null == dispatchNode) {
+                log.error("RuleDispatcher noSceneAppHandlerNode {} {}", scene, app);
+                throw new RuntimeException("RuleDispatcher noSceneAppHandlerNode " + scene + " " + app);
+            }
+
+            Map<List<Object>, List<RuleDispatcherContext>> ruleGroups = groups.get(dispatchNode);
+            if (null == ruleGroups) {
+                ruleGroups = new LinkedHashMap<>();
+                groups.put(dispatchNode, ruleGroups);
+            }
+
+            Collection<String> rules = ruleDispatcherContext.getRules();
+            String tags = ruleDispatcherContext.getTags();
+            List<Object> selection = Arrays.asList(isEmpty(ruleDispatcherContext.getRule()) ? "" : ruleDispatcherContext.getRule(),
+                    isEmpty(rules) ? null : new ArrayList<>(rules), isEmpty(tags) ? null : tags);
+            List<RuleDispatcherContext> group = ruleGroups.get(selection);
+            if (null == group) {
+                group = new ArrayList<>();
+                ruleGroups.put(selection, group);
+            }
+            group.add(ruleDispatcherContext);
+        }
+
+        for (Map.Entry<DispatchNode, Map<List<Object>, List<RuleDispatcherContext>>> entry : groups.entrySet()) {
+            for (Map.Entry<List<Object>, List<RuleDispatcherContext>> ruleEntry : entry.getValue().entrySet()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("RuleDispatcher dispatchBatch {} {} {} {}", entry.getKey().scene, entry.getKey().app,
+                            ruleEntry.getKey(), ruleEntry.getValue().size());
+                }
+                doBatchDispatch(entry.getKey(), ruleEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 批量调度一组，配置并发上限时整组占用一个许可，被拒绝时组内逐个回调或抛出
+     */
+    private static void doBatchDispatch(DispatchNode dispatchNode, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        Bulkhead bulkhead = dispatchNode.bulkhead;
+        if (null == bulkhead) {
+            BatchDispatch.dispatch(dispatchNode, ruleDispatcherContexts);
+            return;
+        }
+
+        if (!bulkhead.tryAcquire()) {
+            for (RuleDispatcherContext ruleDispatcherContext : ruleDispatcherContexts) {
+                reject(dispatchNode, ruleDispatcherContext);
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            BatchDispatch.dispatch(dispatchNode, ruleDispatcherContexts);
+            success = true;
+        } finally {
+            bulkhead.release(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * 场景+app维度，开启影子评估时先采样，配置指纹时合并相同的调度，跟随者不占用并发许可
+     */
+    private static void doDispatch(final DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext) {
+        resetDispatchState(ruleDispatcherContext);
+        ShadowEvaluation shadow = dispatchNode.shadow;
+        if (null != shadow) {
+            shadow.offer(ruleDispatcherContext);
+        }
+
+        SingleFlight singleFlight = dispatchNode.singleFlight;
+        if (null == singleFlight) {
+            doIsolatedDispatch(dispatchNode, ruleDispatcherContext);
+            return;
+        }
+        singleFlight.dispatch(ruleDispatcherContext, c -> doIsolatedDispatch(dispatchNode, c));
+    }
+
+    /**
+     * 清除上次调度留下的跳过、超时与未知规则记录，context重复使用或合并调度的跟随者不会带出旧结果
+     */
+    private static void resetDispatchState(RuleDispatcherContext ruleDispatcherContext) {
+        ruleDispatcherContext.setUnknownRules(null);
+        ruleDispatcherContext.setSkippedHandlers(null);
+        ruleDispatcherContext.setOverrunHandlers(null);
+    }
+
+    /**
+     * 场景+app维度，配置并发上限时先获取许可，被拒绝时回调或抛出 RejectedExecutionException
+     * @return 是否执行，被拒绝并回调时返回false
+     */
+    private static boolean doIsolatedDispatch(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext) {
+        Bulkhead bulkhead = dispatchNode.bulkhead;
+        if (null == bulkhead) {
+            doSampledDispatch(dispatchNode, ruleDispatcherContext);
+            return true;
+        }
+
+        if (!bulkhead.tryAcquire()) {
+            reject(dispatchNode, ruleDispatcherContext);
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            doSampledDispatch(dispatchNode, ruleDispatcherContext);
+            success = true;
+        } finally {
+            bulkhead.release(System.nanoTime() - start, success);
+        }
+        return true;
+    }
+
+    private static void reject(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext) {
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher rejected {} {}", dispatchNode.bulkhead.name, ruleDispatcherContext);
+        }
+        Consumer<RuleDispatcherContext> rejectionHandler = dispatchNode.sceneConfig.getRejectionHandler();
+        if (null == rejectionHandler) {
+            throw new RejectedExecutionException("RuleDispatcher rejected " + dispatchNode.scene + " " + dispatchNode.app);
+        }
+        rejectionHandler.accept(ruleDispatcherContext);
+    }
+
+    /**
+     * 场景+app维度，依次执行前置处理、规则处理、后置处理；被采样时记录调度轨迹，被录制时追加调度前的context与结果
+     */
+    private static void doSampledDispatch(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext) {
+        boolean traced = dispatchNode.sampleTrace(ruleDispatcherContext);
+        TrafficCapture capture = trafficCapture;
+        byte[] payload = null != capture && capture.sample() ? capture.serialize(ruleDispatcherContext) : null;
+        if (!traced && null == payload) {
+            doDispatch(dispatchNode, ruleDispatcherContext, null);
+            return;
+        }
+
+        DispatchTrace trace = new DispatchTrace(dispatchNode.scene, dispatchNode.app, ruleDispatcherContext.getRule());
+        long start = System.nanoTime();
+        try {
+            doDispatch(dispatchNode, ruleDispatcherContext, trace);
+        } catch (Throwable e) {
+            trace.setError(e.toString());
+            throw e;
+        } finally {
+            trace.setTotalNanos(System.nanoTime() - start);
+            if (traced) {
+                traceRecorder.record(trace);
+            }
+            if (null != payload) {
+                capture.append(payload, trace);
+            }
+        }
+    }
+
+    /**
+     * 回放校验用，在当前线程直接执行处理流程，不经过并发隔离、合并调度与录制
+     * @return 本次调度的轨迹，异常时记录在轨迹中
+     */
+    static DispatchTrace replayDispatch(RuleDispatcherContext ruleDispatcherContext) {
+        DispatchTrace trace = new DispatchTrace(ruleDispatcherContext.getScene(), ruleDispatcherContext.getApp(),
+                ruleDispatcherContext.getRule());
+        resetDispatchState(ruleDispatcherContext);
+        long start = System.nanoTime();
+        try {
+            doDispatch(getDispatchNode(ruleDispatcherContext.getScene(), ruleDispatcherContext.getApp()),
+                    ruleDispatcherContext, trace);
+        } catch (RuntimeException e) {
+            trace.setError(e.toString());
+        } finally {
+            trace.setTotalNanos(System.nanoTime() - start);
+        }
+        return trace;
+    }
+
+    /**
+     * @param trace 调度轨迹，未采样时为null
+     */
+    private static void doDispatch(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        boolean isReturn = doPreAction(dispatchNode, ruleDispatcherContext, trace);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatch after doPreAction {} {}", ruleDispatcherContext, isReturn);
         }
 
         if (isReturn) {
+            if (null != trace) {
+                trace.setReturned(true);
+            }
             return;
         }
 
-        doRuleHandler(ruleDispatcherContext);
-        if (log.isInfoEnabled()) {
-            log.info("RuleDispatcher dispatch after doRuleHandler {}", ruleDispatcherContext);
+        doRuleHandler(dispatchNode, ruleDispatcherContext, trace);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatch after doRuleHandler {}", ruleDispatcherContext);
         }
 
-        doAfterAction(ruleDispatcherContext);
-        if (log.isInfoEnabled()) {
-            log.info("RuleDispatcher dispatch after doAfterAction {}", ruleDispatcherContext);
+        doAfterAction(dispatchNode, ruleDispatcherContext, trace);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher dispatch after doAfterAction {}", ruleDispatcherContext);
         }
     }
 
@@ -75,46 +372,249 @@ public class RuleDispatcher {
      * 执行规则链
      * @param ruleDispatcherContext
      */
-    private static void doRuleHandler(RuleDispatcherContext ruleDispatcherContext) {
-        String scene = ruleDispatcherContext.getScene();
-        String app = ruleDispatcherContext.getApp();
+    private static void doRuleHandler(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        RuleHandler[] ruleHandlers = dispatchNode.ruleHandlers;
         String rule = ruleDispatcherContext.getRule();
 
-        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
-        if (null == sceneAppHandlerNode){
+        // 执行精确rule，不存在时与规则集合一致记录后返回
+        if (!isEmpty(rule)) {
+            int index = dispatchNode.indexOf(rule);
+            if (index < 0) {
+                unknownRules(dispatchNode, ruleDispatcherContext, rule);
+                return;
+            }
+            // 指定的规则不跳过
+            HandlerBudget budget = dispatchNode.ruleHandlerBudgets[index];
+            boolean timed = null != trace || null != budget;
+            long start = timed ? System.nanoTime() : 0;
+            boolean matched = ruleHandlers[index].handle(ruleDispatcherContext);
+            if (timed) {
+                complete(budget, HandlerMetricsSnapshot.KIND_RULE_HANDLER, rule, matched, System.nanoTime() - start, ruleDispatcherContext, trace);
+            }
+            if (matched && log.isDebugEnabled()) {
+                log.debug("doRuleHandler hitRule {} {} {} {}", dispatchNode.scene, dispatchNode.app, rule, ruleDispatcherContext);
+            }
             return;
         }
 
-        Map<String, RuleHandler> ruleHandlerMap = sceneAppHandlerNode.ruleHandlerMap;
-        List<RuleHandler> ruleHandlers = sceneAppHandlerNode.ruleHandlers;
-        if (isEmpty(ruleHandlerMap) || isEmpty(ruleHandlers)) {
+        if (ruleHandlers.length == 0) {
             return;
         }
 
-        List<RuleHandler> ruleHandlersTemp = ruleHandlers;
+        // 按规则集合、标签表达式选择部分规则
+        long[] selected = null;
+        long[] tagged = null;
+        Collection<String> rules = ruleDispatcherContext.getRules();
+        if (!isEmpty(rules)) {
+            selected = select(dispatchNode, dispatchNode.selectRules(rules), ruleDispatcherContext);
+        }
+        String tags = ruleDispatcherContext.getTags();
+        if (!isEmpty(tags)) {
+            tagged = select(dispatchNode, dispatchNode.selectTags(tags), ruleDispatcherContext);
+        }
 
-        // 执行精确rule
-        if (!isEmpty(rule)) {
-            RuleHandler ruleHandler = ruleHandlerMap.get(rule);
-            ruleHandlersTemp = new ArrayList<>();
-            ruleHandlersTemp.add(ruleHandler);
+        if (null == trace && null != dispatchNode.ruleGraph) {
+            doGraphRuleHandler(dispatchNode, ruleDispatcherContext, selected, tagged);
+            return;
+        }
+
+        if (dispatchNode.parallelMatch) {
+            doParallelRuleHandler(dispatchNode, ruleDispatcherContext, selected, tagged, trace);
+            return;
+        }
+
+        if (null == trace && null == selected && null == tagged && null != dispatchNode.chain && !log.isDebugEnabled()) {
+            int index = dispatchNode.chain.ruleHandler(ruleDispatcherContext);
+            if (index >= 0) {
+                cutoff(dispatchNode, index, null);
+            }
+            return;
         }
 
-        for (RuleHandler ruleHandler : ruleHandlersTemp) {
-            boolean matched = ruleHandler.handle(ruleDispatcherContext);
+        // 按声明条件索引只处理候选规则，候选已满足声明条件
+        long[] candidates = dispatchNode.candidates(ruleDispatcherContext);
+        boolean checkConditions = null == candidates;
+        boolean[] exclusives = dispatchNode.exclusives;
+        HandlerBudget[] budgets = dispatchNode.ruleHandlerBudgets;
+        for (int i = dispatchNode.nextCandidate(candidates, selected, tagged, 0); i >= 0;
+                i = dispatchNode.nextCandidate(candidates, selected, tagged, i + 1)) {
+            HandlerBudget budget = budgets[i];
+            if (skip(budget, ruleDispatcherContext, trace)) {
+                continue;
+            }
+            boolean timed = null != trace || null != budget;
+            long start = timed ? System.nanoTime() : 0;
+            boolean matched = ruleHandlers[i].handle(ruleDispatcherContext, checkConditions);
+            if (timed) {
+                complete(budget, HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.rules[i], matched, System.nanoTime() - start,
+                        ruleDispatcherContext, trace);
+            }
             if (matched) {
-                if (log.isInfoEnabled()) {
-                    log.info("doRuleHandler hitRule {} {} {} {}", scene, app, ruleHandler.asRuleHandler.rule(), ruleDispatcherContext);
+                if (log.isDebugEnabled()) {
+                    log.debug("doRuleHandler hitRule {} {} {} {}", dispatchNode.scene, dispatchNode.app, dispatchNode.rules[i], ruleDispatcherContext);
                 }
                 // 排他性规则
-                boolean exclusive = ruleHandler.asRuleHandler.exclusive();
-                if (exclusive) {
+                if (exclusives[i]) {
+                    cutoff(dispatchNode, i, trace);
                     break;
                 }
             }
         }
     }
 
+    /**
+     * 记录选择中不存在的规则与标签，不中断调度
+     * @return 选中的规则位图
+     */
+    private static long[] select(DispatchNode dispatchNode, RuleSelection selection, RuleDispatcherContext ruleDispatcherContext) {
+        if (selection.unknown.length > 0) {
+            unknownRules(dispatchNode, ruleDispatcherContext, selection.unknown);
+        }
+        return selection.bits;
+    }
+
+    /**
+     * 记录不存在的规则与标签到 {@link RuleDispatcherContext#getUnknownRules()}
+     */
+    static void unknownRules(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext, String... unknown) {
+        List<String> unknownRules = ruleDispatcherContext.getUnknownRules();
+        if (null == unknownRules) {
+            unknownRules = new ArrayList<>();
+            ruleDispatcherContext.setUnknownRules(unknownRules);
+        }
+        Collections.addAll(unknownRules, unknown);
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher unknownRules {} {} {}", dispatchNode.scene, dispatchNode.app, Arrays.toString(unknown));
+        }
+    }
+
+    /**
+     * 排他性规则命中，记录截断
+     */
+    private static void cutoff(DispatchNode dispatchNode, int index, DispatchTrace trace) {
+        if (index < dispatchNode.ruleHandlers.length - 1) {
+            dispatchNode.ruleHandlers[index].metrics.exclusiveCutoffCount.increment();
+        }
+        if (null != trace) {
+            trace.setExclusiveRule(dispatchNode.rules[index]);
+        }
+    }
+
+    /**
+     * 按依赖图执行规则链，与前序规则读写不冲突的规则在线程池上并行执行，排他性规则命中后截断后序规则
+     */
+    private static void doGraphRuleHandler(final DispatchNode dispatchNode, final RuleDispatcherContext ruleDispatcherContext,
+            final long[] selected, final long[] tagged) {
+        final long[] candidates = dispatchNode.candidates(ruleDispatcherContext);
+        final boolean checkConditions = null == candidates;
+        dispatchNode.ruleGraph.execute(dispatchNode.matchPool, i -> {
+            if (!RuleSelection.contains(candidates, i) || !RuleSelection.contains(selected, i) || !RuleSelection.contains(tagged, i)) {
+                return false;
+            }
+            HandlerBudget budget = dispatchNode.ruleHandlerBudgets[i];
+            if (skip(budget, ruleDispatcherContext, null)) {
+                return false;
+            }
+            long start = null == budget ? 0 : System.nanoTime();
+            boolean matched = dispatchNode.ruleHandlers[i].handle(ruleDispatcherContext, checkConditions);
+            if (null != budget) {
+                complete(budget, HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.rules[i], matched, System.nanoTime() - start,
+                        ruleDispatcherContext, null);
+            }
+            if (!matched) {
+                return false;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("doRuleHandler hitRule {} {} {} {}", dispatchNode.scene, dispatchNode.app, dispatchNode.rules[i], ruleDispatcherContext);
+            }
+            if (dispatchNode.exclusives[i]) {
+                cutoff(dispatchNode, i, null);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 并行匹配后按优先级执行规则链
+     * <br/>
+     * 声明并行匹配的规则，其match提前提交到线程池并行执行；随后按优先级依次取匹配结果并执行action，
+     * 排他性规则命中后取消剩余的匹配。
+     * @param ruleDispatcherContext
+     */
+    @SuppressWarnings("unchecked")
+    private static void doParallelRuleHandler(DispatchNode dispatchNode, final RuleDispatcherContext ruleDispatcherContext,
+            long[] selected, long[] tagged, DispatchTrace trace) {
+        RuleHandler[] ruleHandlers = dispatchNode.ruleHandlers;
+        boolean[] exclusives = dispatchNode.exclusives;
+        boolean[] parallelMatches = dispatchNode.parallelMatches;
+
+        long[] candidates = dispatchNode.candidates(ruleDispatcherContext);
+        final boolean checkConditions = null == candidates;
+
+        HandlerBudget[] budgets = dispatchNode.ruleHandlerBudgets;
+        // 并行匹配的规则在提交前判断是否跳过
+        boolean[] skipped = null;
+        ForkJoinTask<Boolean>[] matchTasks = new ForkJoinTask[ruleHandlers.length];
+        for (int i = dispatchNode.nextCandidate(candidates, selected, tagged, 0); i >= 0;
+                i = dispatchNode.nextCandidate(candidates, selected, tagged, i + 1)) {
+            if (parallelMatches[i] && null != budgets[i] && budgets[i].skip(ruleDispatcherContext)) {
+                if (null == skipped) {
+                    skipped = new boolean[ruleHandlers.length];
+                }
+                skipped[i] = true;
+            } else if (parallelMatches[i]) {
+                final RuleHandler ruleHandler = ruleHandlers[i];
+                matchTasks[i] = dispatchNode.matchPool.submit(() -> ruleHandler.matches(ruleDispatcherContext, checkConditions));
+            }
+        }
+
+        int i = dispatchNode.nextCandidate(candidates, selected, tagged, 0);
+        try {
+            for (; i >= 0; i = dispatchNode.nextCandidate(candidates, selected, tagged, i + 1)) {
+                RuleHandler ruleHandler = ruleHandlers[i];
+                HandlerBudget budget = budgets[i];
+                if (null != skipped && skipped[i]) {
+                    if (null != trace) {
+                        trace.addSkippedStep(HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.rules[i]);
+                    }
+                    continue;
+                }
+                if (null == matchTasks[i] && skip(budget, ruleDispatcherContext, trace)) {
+                    continue;
+                }
+                // 并行匹配的规则，耗时为等待匹配结果与action之和
+                boolean timed = null != trace || null != budget;
+                long start = timed ? System.nanoTime() : 0;
+                boolean matched = null == matchTasks[i] ? ruleHandler.matches(ruleDispatcherContext, checkConditions) : matchTasks[i].join();
+                if (matched) {
+                    ruleHandler.doAction(ruleDispatcherContext);
+                }
+                if (timed) {
+                    complete(budget, HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.rules[i], matched, System.nanoTime() - start,
+                            ruleDispatcherContext, trace);
+                }
+                if (matched) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("doRuleHandler hitRule {} {} {} {}", dispatchNode.scene, dispatchNode.app, dispatchNode.rules[i], ruleDispatcherContext);
+                    }
+                    // 排他性规则
+                    if (exclusives[i]) {
+                        cutoff(dispatchNode, i, trace);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            // 排他或异常时，剩余匹配结果不再需要
+            for (int j = i < 0 ? matchTasks.length : i + 1; j < matchTasks.length; j++) {
+                if (null != matchTasks[j]) {
+                    matchTasks[j].cancel(false);
+                }
+            }
+        }
+    }
+
     static boolean isEmpty(Collection<?> collection) {
         return (collection == null || collection.isEmpty());
     }
@@ -132,20 +632,28 @@ public class RuleDispatcher {
      * @param ruleDispatcherContext
      * @return 是否return
      */
-    private static boolean doPreAction(RuleDispatcherContext ruleDispatcherContext) {
-        String scene = ruleDispatcherContext.getScene();
-        String app = ruleDispatcherContext.getApp();
-        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
-        if (null == sceneAppHandlerNode){
-            return false;
+    private static boolean doPreAction(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        if (null == trace && null != dispatchNode.chain) {
+            return dispatchNode.chain.preAction(ruleDispatcherContext);
         }
-
-        if (CollectionUtils.isEmpty(sceneAppHandlerNode.preActions)) {
-            return false;
+        if (dispatchNode.parallelPreAction) {
+            return doParallelPreAction(dispatchNode, ruleDispatcherContext, trace);
         }
 
-        for (PreAction preAction : sceneAppHandlerNode.preActions) {
-            boolean isReturn = preAction.handle(ruleDispatcherContext);
+        PreAction[] preActions = dispatchNode.preActions;
+        HandlerBudget[] budgets = dispatchNode.preActionBudgets;
+        for (int i = 0; i < preActions.length; i++) {
+            HandlerBudget budget = budgets[i];
+            if (skip(budget, ruleDispatcherContext, trace)) {
+                continue;
+            }
+            boolean timed = null != trace || null != budget;
+            long start = timed ? System.nanoTime() : 0;
+            boolean isReturn = preActions[i].doHandle(ruleDispatcherContext);
+            if (timed) {
+                complete(budget, HandlerMetricsSnapshot.KIND_PRE_ACTION, preActions[i].asPreAction.rule(), isReturn, System.nanoTime() - start,
+                        ruleDispatcherContext, trace);
+            }
             if (isReturn) {
                 return true;
             }
@@ -154,111 +662,891 @@ public class RuleDispatcher {
         return false;
     }
 
+    /**
+     * 并行执行前置行为
+     * <br/>
+     * 声明并行的前置行为同时提交到执行器，随后按优先级依次取结果，结果与顺序执行一致；
+     * 某个前置行为立即返回后，优先级更低且尚未开始的前置行为不再执行，已开始的结果忽略。
+     * @return 是否return
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean doParallelPreAction(DispatchNode dispatchNode, final RuleDispatcherContext ruleDispatcherContext,
+            DispatchTrace trace) {
+        PreAction[] preActions = dispatchNode.preActions;
+        boolean[] parallelPreActions = dispatchNode.parallelPreActions;
+        HandlerBudget[] budgets = dispatchNode.preActionBudgets;
+
+        // 已知立即返回的最小下标
+        final AtomicInteger vetoIndex = new AtomicInteger(preActions.length);
+        // 并行前置行为的执行耗时，声明预算时使用
+        final long[] elapsed = dispatchNode.budgeted ? new long[preActions.length] : null;
+        boolean[] skipped = null;
+        long submitted = System.nanoTime();
+        CompletableFuture<Boolean>[] tasks = new CompletableFuture[preActions.length];
+        for (int i = 0; i < preActions.length; i++) {
+            if (parallelPreActions[i] && null != budgets[i] && budgets[i].skip(ruleDispatcherContext)) {
+                if (null == skipped) {
+                    skipped = new boolean[preActions.length];
+                }
+                skipped[i] = true;
+            } else if (parallelPreActions[i]) {
+                final int index = i;
+                final PreAction preAction = preActions[i];
+                tasks[i] = CompletableFuture.supplyAsync(() -> {
+                    if (vetoIndex.get() < index) {
+                        return false;
+                    }
+                    long start = null == elapsed ? 0 : System.nanoTime();
+                    boolean isReturn = preAction.doHandle(ruleDispatcherContext);
+                    if (null != elapsed) {
+                        elapsed[index] = System.nanoTime() - start;
+                    }
+                    if (isReturn) {
+                        vetoIndex.accumulateAndGet(index, Math::min);
+                    }
+                    return isReturn;
+                }, dispatchNode.preActionExecutor);
+            }
+        }
+
+        int i = 0;
+        try {
+            for (; i < preActions.length; i++) {
+                HandlerBudget budget = budgets[i];
+                if (null != skipped && skipped[i]) {
+                    if (null != trace) {
+                        trace.addSkippedStep(HandlerMetricsSnapshot.KIND_PRE_ACTION, preActions[i].asPreAction.rule());
+                    }
+                    continue;
+                }
+                if (null == tasks[i] && skip(budget, ruleDispatcherContext, trace)) {
+                    continue;
+                }
+                long start = null == trace && null == budget ? 0 : System.nanoTime();
+                boolean isReturn = null == tasks[i] ? preActions[i].doHandle(ruleDispatcherContext)
+                        : awaitPreAction(dispatchNode, i, tasks[i], submitted);
+                if (null != trace || null != budget) {
+                    long nanos = System.nanoTime() - start;
+                    if (null != budget && null != tasks[i]) {
+                        // 并行执行的取任务内耗时，等待超时取自提交起的耗时
+                        nanos = tasks[i].isCancelled() ? System.nanoTime() - submitted : elapsed[i];
+                    }
+                    complete(budget, HandlerMetricsSnapshot.KIND_PRE_ACTION, preActions[i].asPreAction.rule(), isReturn,
+                            nanos, ruleDispatcherContext, trace);
+                }
+                if (isReturn) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            for (int j = i + 1; j < tasks.length; j++) {
+                if (null != tasks[j]) {
+                    tasks[j].cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待并行前置行为的结果，超时按 vetoOnTimeout 处理
+     */
+    private static boolean awaitPreAction(DispatchNode dispatchNode, int index, CompletableFuture<Boolean> task,
+            long submitted) {
+        long timeoutNanos = dispatchNode.preActionTimeoutNanos[index];
+        try {
+            if (timeoutNanos <= 0) {
+                return task.get();
+            }
+            return task.get(Math.max(0, submitted + timeoutNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            task.cancel(false);
+            PreAction preAction = dispatchNode.preActions[index];
+            preAction.metrics.timeoutCount.increment();
+            log.debug("RuleDispatcher preAction timeout {} {} {}", dispatchNode.scene, dispatchNode.app, preAction.asPreAction.rule());
+            return dispatchNode.vetoOnTimeouts[index];
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("RuleDispatcher preAction fail", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("RuleDispatcher preAction interrupted", e);
+        }
+    }
+
     /**
      * 执行 后置行为
      * @param ruleDispatcherContext
      */
-    private static void doAfterAction(RuleDispatcherContext ruleDispatcherContext) {
-        String scene = ruleDispatcherContext.getScene();
-        String app = ruleDispatcherContext.getApp();
-        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
-        if (null == sceneAppHandlerNode){
+    private static void doAfterAction(DispatchNode dispatchNode, RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        if (null == trace && null != dispatchNode.chain) {
+            dispatchNode.chain.afterAction(ruleDispatcherContext);
             return;
         }
 
-        if (CollectionUtils.isEmpty(sceneAppHandlerNode.afterActions)) {
+        final AfterAction[] afterActions = dispatchNode.afterActions;
+        final HandlerBudget[] budgets = dispatchNode.afterActionBudgets;
+        // 按依赖图执行，读写不冲突的后置行为并行执行
+        if (null == trace && null != dispatchNode.afterActionGraph) {
+            dispatchNode.afterActionGraph.execute(dispatchNode.matchPool, i -> {
+                HandlerBudget budget = budgets[i];
+                if (skip(budget, ruleDispatcherContext, null)) {
+                    return false;
+                }
+                long start = null == budget ? 0 : System.nanoTime();
+                afterActions[i].submit(ruleDispatcherContext);
+                if (null != budget) {
+                    complete(budget, HandlerMetricsSnapshot.KIND_AFTER_ACTION, afterActions[i].asAfterAction.rule(), false,
+                            System.nanoTime() - start, ruleDispatcherContext, null);
+                }
+                return false;
+            });
             return;
         }
 
-        for (AfterAction afterAction : sceneAppHandlerNode.afterActions) {
-            afterAction.handle(ruleDispatcherContext);
+        for (int i = 0; i < afterActions.length; i++) {
+            HandlerBudget budget = budgets[i];
+            if (skip(budget, ruleDispatcherContext, trace)) {
+                continue;
+            }
+            boolean timed = null != trace || null != budget;
+            long start = timed ? System.nanoTime() : 0;
+            afterActions[i].submit(ruleDispatcherContext);
+            if (timed) {
+                complete(budget, HandlerMetricsSnapshot.KIND_AFTER_ACTION, afterActions[i].asAfterAction.rule(), false,
+                        System.nanoTime() - start, ruleDispatcherContext, trace);
+            }
         }
     }
 
-    private static SceneAppHandlerNode getSceneAppHandlerNode(String scene, String appType) {
-        SceneHandlerNode sceneHandlerNode = sceneHandlerMap.get(scene);
+    /**
+     * 可选控制器剩余时间不足或断路时跳过
+     * @param budget 未声明时为null
+     * @return 是否跳过
+     */
+    static boolean skip(HandlerBudget budget, RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        if (null == budget || !budget.skip(ruleDispatcherContext)) {
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("RuleDispatcher skip {} {} {}", budget.kind, budget.rule, ruleDispatcherContext);
+        }
+        if (null != trace) {
+            trace.addSkippedStep(budget.kind, budget.rule);
+        }
+        return true;
+    }
 
-        SceneAppHandlerNode sceneAppHandlerNode = sceneHandlerNode.appHandlerMap.get(appType);
-        if (null == sceneAppHandlerNode) {
-            log.error("RuleDispatcher noSceneAppHandlerNode {} {} {}", scene, appType, sceneHandlerNode.appHandlerMap.toString());
-            throw new RuntimeException("RuleDispatcher noSceneAppHandlerNode " + scene + " " + appType);
+    /**
+     * 控制器执行完成，判定预算并记录轨迹
+     * @param budget 未声明时为null
+     * @param trace 未采样时为null
+     */
+    static void complete(HandlerBudget budget, String kind, String rule, boolean hit, long nanos,
+            RuleDispatcherContext ruleDispatcherContext, DispatchTrace trace) {
+        if (null != budget && budget.complete(nanos, ruleDispatcherContext) && log.isDebugEnabled()) {
+            log.debug("RuleDispatcher overrun {} {} {} {}", kind, rule, nanos, ruleDispatcherContext);
         }
+        if (null != trace) {
+            trace.addStep(kind, rule, hit, nanos);
+        }
+    }
+
+    /**
+     * 批量控制器处理完整批，整批耗时判定一次预算
+     * @param budget 未声明时为null
+     */
+    static void complete(HandlerBudget budget, long nanos, List<RuleDispatcherContext> ruleDispatcherContexts) {
+        if (null != budget && budget.complete(nanos, ruleDispatcherContexts) && log.isDebugEnabled()) {
+            log.debug("RuleDispatcher overrun {} {} {} batch {}", budget.kind, budget.rule, nanos, ruleDispatcherContexts.size());
+        }
+    }
+
+    /**
+     * @return 当前发布的节点，不存在时返回null
+     */
+    static DispatchNode currentDispatchNode(String scene, String app) {
+        return dispatchPlan.getNode(scene, app);
+    }
+
+    private static DispatchNode getDispatchNode(String scene, String app) {
+        DispatchNode dispatchNode = dispatchPlan.getNode(scene, app);
+        if (null == dispatchNode) {
+            log.error("RuleDispatcher noSceneAppHandlerNode {} {}", scene, app);
+            throw new RuntimeException("RuleDispatcher noSceneAppHandlerNode " + scene + " " + app);
+        }
+        return dispatchNode;
+    }
 
-        if (CollectionUtils.isEmpty(sceneAppHandlerNode.preActions)) {
-            if (log.isInfoEnabled()) {
-                log.info("RuleDispatcher noPreAction {} {} {}", scene, appType, sceneAppHandlerNode);
+    /**
+     * 一次性整理控制器关系
+     * <br/>
+     * 按控制器类型取bean，不再按注解扫描全部bean；存在编译期生成的 {@link HandlerRegistry} 时按其中的定义绑定元数据，
+     * 注册表中没有的控制器读取类上的注解。
+     * @param beanFactory
+     */
+    public static synchronized void arrange(ConfigurableListableBeanFactory beanFactory){
+        if (arranged){
+            return;
+        }
+
+        Map<Class<?>, HandlerDefinition> definitionMap = HandlerRegistries.load();
+
+        arranging = true;
+        try {
+            for (Object beanObject : beanFactory.getBeansOfType(PreAction.class).values()) {
+                bindPreAction((PreAction) beanObject, definitionMap.get(ClassUtils.getUserClass(beanObject)));
             }
+            for (Object beanObject : beanFactory.getBeansOfType(RuleHandler.class).values()) {
+                bindRuleHandler((RuleHandler) beanObject, definitionMap.get(ClassUtils.getUserClass(beanObject)));
+            }
+            for (Object beanObject : beanFactory.getBeansOfType(AfterAction.class).values()) {
+                bindAfterAction((AfterAction) beanObject, definitionMap.get(ClassUtils.getUserClass(beanObject)));
+            }
+        } finally {
+            arranging = false;
+            sortNodes();
         }
+        arranged = true;
+        publish();
+    }
 
-        if (CollectionUtils.isEmpty(sceneAppHandlerNode.afterActions)) {
-            if (log.isInfoEnabled()) {
-                log.info("RuleDispatcher noAfterAction {} {} {}", scene, appType, sceneAppHandlerNode);
+    /**
+     * 不依赖Spring，按编译期生成的注册表一次性整理控制器关系，控制器通过无参构造器创建
+     */
+    public static void arrange() {
+        arrange(type -> {
+            try {
+                return type.newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("RuleDispatcher newInstance fail " + type.getName(), e);
             }
+        });
+    }
+
+    /**
+     * 不依赖Spring，按编译期生成的注册表一次性整理控制器关系
+     * @param handlerProvider 根据控制器类型提供实例
+     */
+    public static synchronized void arrange(Function<Class<?>, ?> handlerProvider) {
+        if (arranged){
+            return;
+        }
+
+        Map<Class<?>, HandlerDefinition> definitionMap = HandlerRegistries.load();
+        if (definitionMap.isEmpty()) {
+            log.warn("RuleDispatcher noHandlerRegistry");
         }
 
-        if (CollectionUtils.isEmpty(sceneAppHandlerNode.ruleHandlers)) {
-            if (log.isInfoEnabled()) {
-                log.info("RuleDispatcher noRuleHandlers {} {} {}", scene, appType, sceneAppHandlerNode);
+        arranging = true;
+        try {
+            for (HandlerDefinition definition : definitionMap.values()) {
+                Object handler = handlerProvider.apply(definition.getType());
+                if (handler instanceof PreAction) {
+                    bindPreAction((PreAction) handler, definition);
+                } else if (handler instanceof RuleHandler) {
+                    bindRuleHandler((RuleHandler) handler, definition);
+                } else if (handler instanceof AfterAction) {
+                    bindAfterAction((AfterAction) handler, definition);
+                } else {
+                    log.warn("RuleDispatcher illegal handler {} {}", definition, handler);
+                }
             }
+        } finally {
+            arranging = false;
+            sortNodes();
         }
+        arranged = true;
+        publish();
+    }
 
-        return sceneAppHandlerNode;
+    /**
+     * 按优先级排序全部节点
+     */
+    private static void sortNodes() {
+        for (SceneHandlerNode sceneHandlerNode : sceneHandlerMap.values()) {
+            for (SceneAppHandlerNode sceneAppHandlerNode : sceneHandlerNode.appHandlerMap.values()) {
+                sceneAppHandlerNode.preActions.sort(PreAction.comparator);
+                sceneAppHandlerNode.ruleHandlers.sort(RuleHandler.comparator);
+                sceneAppHandlerNode.afterActions.sort(AfterAction.comparator);
+            }
+        }
     }
 
     /**
-     * 一次性整理控制器关系
-     * @param beanFactory
+     * 绑定元数据并添加；优先使用注册表中的定义，没有时读取类上的注解，都没有时忽略
      */
-    public static synchronized void arrange(ConfigurableListableBeanFactory beanFactory){
-        if (arranged){
+    private static void bindPreAction(PreAction preAction, HandlerDefinition definition) {
+        AsPreAction annotation = definitionMetadata(preAction, definition, AsPreAction.class);
+        if (null == annotation) {
+            return;
+        }
+        preAction.asPreAction = annotation;
+        addPreAction(preAction, false);
+    }
+
+    private static void bindRuleHandler(RuleHandler handler, HandlerDefinition definition) {
+        AsRuleHandler annotation = definitionMetadata(handler, definition, AsRuleHandler.class);
+        if (null == annotation) {
             return;
         }
+        handler.bind(annotation);
+        addRuleHandler(handler, false);
+    }
+
+    private static void bindAfterAction(AfterAction afterAction, HandlerDefinition definition) {
+        AsAfterAction annotation = definitionMetadata(afterAction, definition, AsAfterAction.class);
+        if (null == annotation) {
+            return;
+        }
+        afterAction.asAfterAction = annotation;
+        addAfterAction(afterAction, false);
+    }
+
+    /**
+     * @return 注册表定义构建的元数据，没有定义时为类上的注解
+     */
+    private static <A extends Annotation> A definitionMetadata(Object handler, HandlerDefinition definition,
+            Class<A> annotationClass) {
+        A annotation = null == definition ? null : definition.metadata(annotationClass);
+        return null != annotation ? annotation : ClassUtils.getUserClass(handler).getAnnotation(annotationClass);
+    }
+
+    /**
+     * 注册场景配置，已存在则替换；已整理时立即生效
+     */
+    public static synchronized void configScene(SceneConfig sceneConfig) {
+        if (null == sceneConfig || isEmpty(sceneConfig.getScene())) {
+            throw new RuntimeException("must set scene");
+        }
+
+        if (sceneConfig.isVirtualThread() && null == sceneConfig.getExecutor() && !DispatchExecutors.isVirtualThreadSupported()) {
+            log.warn("RuleDispatcher virtualThread not supported, use default executor {}", sceneConfig.getScene());
+        }
+        if (sceneConfig.isSpecializedChain() && !DispatchChains.isSupported()) {
+            log.warn("RuleDispatcher specializedChain not supported, use generic chain {}", sceneConfig.getScene());
+        }
+
+        sceneConfigMap.put(sceneConfig.getScene(), sceneConfig);
+        log.info("RuleDispatcher configScene {}", sceneConfig);
+
+        if (arranged) {
+            publish();
+        }
+    }
+
+    /**
+     * 设置异步调度的默认执行器，未配置执行器的场景使用
+     */
+    public static synchronized void setDefaultExecutor(Executor executor) {
+        if (null == executor) {
+            throw new RuntimeException("must set executor");
+        }
+        DispatchExecutors.defaultExecutor = executor;
+
+        if (arranged) {
+            publish();
+        }
+    }
+
+    /**
+     * 运行时注册前置行为，已存在相同 scene+app+rule 时替换。
+     * <br/>
+     * 立即发布新的调度计划，进行中的调度继续使用旧计划。
+     * @param asPreAction 元数据，为空时读取类上的注解，可用于调整优先级
+     * @return 被替换的前置行为
+     */
+    public static synchronized PreAction register(PreAction preAction, AsPreAction asPreAction) {
+        preAction.asPreAction = metadata(preAction, asPreAction, AsPreAction.class);
+        PreAction exist = addPreAction(preAction, true);
+        publish(preAction.asPreAction.scene(), preAction.asPreAction.app());
+        return exist;
+    }
+
+    /**
+     * 运行时注册规则控制器，已存在相同 scene+app+rule 时替换。
+     * <br/>
+     * 立即发布新的调度计划，进行中的调度继续使用旧计划。
+     * @param asRuleHandler 元数据，为空时读取类上的注解，可用于调整优先级、排他性
+     * @return 被替换的规则控制器
+     */
+    public static synchronized RuleHandler register(RuleHandler ruleHandler, AsRuleHandler asRuleHandler) {
+        ruleHandler.bind(metadata(ruleHandler, asRuleHandler, AsRuleHandler.class));
+        RuleHandler exist = addRuleHandler(ruleHandler, true);
+        publish(ruleHandler.asRuleHandler.scene(), ruleHandler.asRuleHandler.app());
+        return exist;
+    }
+
+    /**
+     * 运行时注册后置行为，已存在相同 scene+app+rule 时替换。
+     * <br/>
+     * 立即发布新的调度计划，进行中的调度继续使用旧计划。
+     * @param asAfterAction 元数据，为空时读取类上的注解，可用于调整优先级
+     * @return 被替换的后置行为
+     */
+    public static synchronized AfterAction register(AfterAction afterAction, AsAfterAction asAfterAction) {
+        afterAction.asAfterAction = metadata(afterAction, asAfterAction, AsAfterAction.class);
+        AfterAction exist = addAfterAction(afterAction, true);
+        publish(afterAction.asAfterAction.scene(), afterAction.asAfterAction.app());
+        return exist;
+    }
+
+    public static PreAction register(PreAction preAction) {
+        return register(preAction, null);
+    }
+
+    public static RuleHandler register(RuleHandler ruleHandler) {
+        return register(ruleHandler, null);
+    }
+
+    public static AfterAction register(AfterAction afterAction) {
+        return register(afterAction, null);
+    }
+
+    /**
+     * 运行时移除前置行为，立即发布新的调度计划
+     * @return 被移除的前置行为，不存在返回null
+     */
+    public static synchronized PreAction unregisterPreAction(String scene, String app, String rule) {
+        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
+        if (null == sceneAppHandlerNode) {
+            return null;
+        }
+
+        PreAction exist = sceneAppHandlerNode.preActionMap.remove(rule);
+        if (null != exist) {
+            sceneAppHandlerNode.preActions.remove(exist);
+            log.info("RuleDispatcher remove preAction for {} {} {} ", scene, app, rule);
+            publish(scene, app);
+        }
+        return exist;
+    }
+
+    /**
+     * 运行时移除规则控制器，立即发布新的调度计划
+     * @return 被移除的规则控制器，不存在返回null
+     */
+    public static synchronized RuleHandler unregisterRuleHandler(String scene, String app, String rule) {
+        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
+        if (null == sceneAppHandlerNode) {
+            return null;
+        }
+
+        RuleHandler exist = sceneAppHandlerNode.ruleHandlerMap.remove(rule);
+        if (null != exist) {
+            sceneAppHandlerNode.ruleHandlers.remove(exist);
+            log.info("RuleDispatcher remove ruleHandler for {} {} {} ", scene, app, rule);
+            publish(scene, app);
+        }
+        return exist;
+    }
+
+    /**
+     * 运行时移除后置行为，立即发布新的调度计划
+     * @return 被移除的后置行为，不存在返回null
+     */
+    public static synchronized AfterAction unregisterAfterAction(String scene, String app, String rule) {
+        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
+        if (null == sceneAppHandlerNode) {
+            return null;
+        }
+
+        AfterAction exist = sceneAppHandlerNode.afterActionMap.remove(rule);
+        if (null != exist) {
+            sceneAppHandlerNode.afterActions.remove(exist);
+            exist.stop();
+            log.info("RuleDispatcher remove afterAction for {} {} {} ", scene, app, rule);
+            publish(scene, app);
+        }
+        return exist;
+    }
 
-        Map<String, Object> beansWithAsPreActionAnnotation = beanFactory.getBeansWithAnnotation(AsPreAction.class);
-        for (Object beanObject : beansWithAsPreActionAnnotation.values()) {
-            if (beanObject instanceof PreAction){
-                PreAction preAction = (PreAction) beanObject;
-                AsPreAction annotation = preAction.getClass().getAnnotation(AsPreAction.class);
-                preAction.asPreAction = annotation;
-                addPreAction(preAction);
+    /**
+     * 移除全部控制器并允许再次整理；异步后置行为停止接收，已入队的继续处理。
+     * <br/>
+     * 只供基准在同一进程内重复整理，不是完整的重置：场景配置以及按 scene/app 保存的自适应排序、影子评估、
+     * 合并调度、分区通道与并发上限保留，再次整理后沿用；匹配结果缓存随控制器一起移除。调度中调用时之后的调度找不到节点
+     */
+    static synchronized void reset() {
+        for (SceneHandlerNode sceneHandlerNode : sceneHandlerMap.values()) {
+            for (SceneAppHandlerNode sceneAppHandlerNode : sceneHandlerNode.appHandlerMap.values()) {
+                for (AfterAction afterAction : sceneAppHandlerNode.afterActions) {
+                    afterAction.stop();
+                }
             }
         }
+        sceneHandlerMap.clear();
+        arranged = false;
+        publish();
+        log.info("RuleDispatcher reset");
+    }
+
+    /**
+     * 从决策表加载表达式规则，编译为规则控制器后注册，已存在相同 scene+app+rule 时替换，可用于不发版调整规则。
+     * <br/>
+     * 每行一条规则：{@code scene | app | rule | priority | exclusive | when | then}，如
+     * {@code risk | app | bigAmount | 10 | true | amount >= 10000 && channel in ('app', 'web') | decision = 'review'}；
+     * when 写法同 {@link AsRuleHandler#conditions()}，then 为命中后通过 setXxx 设置的属性。
+     * <br/>
+     * 加载时为每条规则生成直接调用getter/setter的专用类，调度开销与手写的规则控制器相当。任一行有误时不注册任何规则。
+     * 立即发布新的调度计划，进行中的调度继续使用旧计划。
+     * @param contextType 规则读写的context类型，其他类型的context不匹配
+     * @return 加载的规则控制器
+     */
+    public static synchronized List<RuleHandler> loadExpressionRules(Class<? extends RuleDispatcherContext> contextType,
+            Reader reader) throws IOException {
+        List<RuleHandler> ruleHandlers = ExpressionRules.compile(contextType, reader);
+        Set<List<String>> nodes = new LinkedHashSet<>();
+        for (RuleHandler ruleHandler : ruleHandlers) {
+            addRuleHandler(ruleHandler, true);
+            nodes.add(Arrays.asList(ruleHandler.asRuleHandler.scene(), ruleHandler.asRuleHandler.app()));
+        }
+        for (List<String> node : nodes) {
+            publish(node.get(0), node.get(1));
+        }
+        log.info("RuleDispatcher loadExpressionRules {} {}", contextType.getName(), ruleHandlers.size());
+        return ruleHandlers;
+    }
 
-        Map<String, Object> beansWithAsRuleHanlerAnnotation = beanFactory.getBeansWithAnnotation(AsRuleHandler.class);
-        for (Object beanObject : beansWithAsRuleHanlerAnnotation.values()) {
-            if (beanObject instanceof RuleHandler){
-                RuleHandler handler = (RuleHandler) beanObject;
-                AsRuleHandler annotation = beanObject.getClass().getAnnotation(AsRuleHandler.class);
-                handler.asRuleHandler = annotation;
-                addRuleHandler(handler);
+    /**
+     * 停止全部异步后置行为并等待已入队的context处理完，停止后提交的context在调度线程上直接执行
+     * @param timeoutMillis 最多等待的毫秒数
+     * @return 是否全部处理完
+     */
+    public static boolean shutdownAfterActions(long timeoutMillis) {
+        List<AfterActionQueue> queues = new ArrayList<>();
+        synchronized (RuleDispatcher.class) {
+            for (SceneHandlerNode sceneHandlerNode : sceneHandlerMap.values()) {
+                for (SceneAppHandlerNode sceneAppHandlerNode : sceneHandlerNode.appHandlerMap.values()) {
+                    for (AfterAction afterAction : sceneAppHandlerNode.afterActions) {
+                        AfterActionQueue queue = afterAction.queue;
+                        if (null != queue) {
+                            queue.stop();
+                            queues.add(queue);
+                        }
+                    }
+                }
             }
         }
 
-        Map<String, Object> beansWithAsAfterActionAnnotation = beanFactory
-                .getBeansWithAnnotation(AsAfterAction.class);
-        for (Object beanObject : beansWithAsAfterActionAnnotation.values()) {
-            if (beanObject instanceof AfterAction){
-                AfterAction afterAction = (AfterAction) beanObject;
-                AsAfterAction annotation = beanObject.getClass().getAnnotation(AsAfterAction.class);
-                afterAction.asAfterAction = annotation;
-                addAfterAction(afterAction);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (AfterActionQueue queue : queues) {
+                if (!queue.await(deadline - System.currentTimeMillis())) {
+                    log.warn("RuleDispatcher shutdownAfterActions timeout");
+                    return false;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+        return true;
+    }
 
-        arranged = true;
+    /**
+     * 停止全部分区调度通道并等待已入队的调度执行完，停止后提交到通道的异步调度被拒绝，直到再次发布该场景时新建通道
+     * @param timeoutMillis 最多等待的毫秒数
+     * @return 是否全部执行完
+     */
+    public static boolean shutdownLanes(long timeoutMillis) {
+        try {
+            return DispatchLanes.shutdown(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 获取分区调度通道的统计
+     * @return scene -> 统计
+     */
+    public static Map<String, LaneStats> getLaneStats() {
+        return DispatchLanes.allStats();
+    }
+
+    /**
+     * 开启影子评估：按采样率拷贝 scene + app 的调度前context，在后台线程上对线上与候选规则链只调用 match，
+     * 比较命中集合、排他截断与耗时。已开启时替换。
+     * <br/>
+     * 调度线程只做采样与一次入队，队列已满时丢弃，不等待评估。候选规则链在开启时由线上规则链按配置调整得到。
+     * 未设置 contextCopier 时 contextType 必须能安全浅拷贝，见 {@link ShadowConfig#getContextCopier()}。
+     */
+    public static synchronized void startShadow(ShadowConfig shadowConfig) {
+        if (null == shadowConfig || isEmpty(shadowConfig.getScene()) || isEmpty(shadowConfig.getApp())) {
+            throw new RuntimeException("must set scene and app");
+        }
+        DispatchNode dispatchNode = getDispatchNode(shadowConfig.getScene(), shadowConfig.getApp());
+        ShadowEvaluation.start(dispatchNode, shadowConfig);
+        publish(shadowConfig.getScene(), shadowConfig.getApp());
+    }
+
+    /**
+     * 停止影子评估
+     * @return 停止时的统计，未开启时返回null
+     */
+    public static synchronized ShadowStats stopShadow(String scene, String app) {
+        ShadowEvaluation shadowEvaluation = ShadowEvaluation.stop(scene, app);
+        if (null == shadowEvaluation) {
+            return null;
+        }
+        if (null != getSceneAppHandlerNode(scene, app)) {
+            publish(scene, app);
+        }
+        return shadowEvaluation.stats();
+    }
+
+    /**
+     * 获取影子评估的统计
+     * @return scene/app -> 统计
+     */
+    public static Map<String, ShadowStats> getShadowStats() {
+        return ShadowEvaluation.allStats();
+    }
+
+    /**
+     * 获取规则顺序自适应调整的统计，只包含声明了 AsRuleHandler#orderGroup 的节点
+     * @return scene/app -> 统计
+     */
+    public static Map<String, OrderingStats> getOrderingStats() {
+        return AdaptiveOrdering.allStats();
+    }
+
+    /**
+     * 获取合并调度的统计
+     * @return scene/app -> 统计
+     */
+    public static Map<String, SingleFlightStats> getSingleFlightStats() {
+        return SingleFlight.allStats();
+    }
+
+    /**
+     * 获取并发隔离的统计
+     * @return scene 或 scene/app -> 统计
+     */
+    public static Map<String, BulkheadStats> getBulkheadStats() {
+        return Bulkhead.allStats();
+    }
+
+    /**
+     * 获取开启匹配结果缓存的规则控制器的统计
+     * @return scene/app/rule -> 统计
+     */
+    public static Map<String, MatchCacheStats> getMatchCacheStats() {
+        Map<String, MatchCacheStats> statsMap = new LinkedHashMap<>();
+        for (DispatchNode dispatchNode : dispatchPlan.nodes) {
+            for (int i = 0; i < dispatchNode.ruleHandlers.length; i++) {
+                MatchCacheStats stats = dispatchNode.ruleHandlers[i].getMatchCacheStats();
+                if (null != stats) {
+                    statsMap.put(dispatchNode.scene + "/" + dispatchNode.app + "/" + dispatchNode.rules[i], stats);
+                }
+            }
+        }
+        return statsMap;
+    }
+
+    /**
+     * 获取全部控制器的调用统计
+     */
+    public static List<HandlerMetricsSnapshot> getMetrics() {
+        return getMetrics(null, null);
+    }
+
+    /**
+     * 获取 scene + app 维度控制器的调用统计
+     * @param scene 为空时不限
+     * @param app 为空时不限
+     */
+    public static List<HandlerMetricsSnapshot> getMetrics(String scene, String app) {
+        List<HandlerMetricsSnapshot> snapshots = new ArrayList<>();
+        for (DispatchNode dispatchNode : dispatchPlan.nodes) {
+            if ((!isEmpty(scene) && !scene.equals(dispatchNode.scene)) || (!isEmpty(app) && !app.equals(dispatchNode.app))) {
+                continue;
+            }
+
+            for (PreAction preAction : dispatchNode.preActions) {
+                snapshots.add(preAction.metrics.snapshot(HandlerMetricsSnapshot.KIND_PRE_ACTION, dispatchNode.scene,
+                        dispatchNode.app, preAction.asPreAction.rule(), preAction, preAction.budget));
+            }
+            for (int i = 0; i < dispatchNode.ruleHandlers.length; i++) {
+                RuleHandler ruleHandler = dispatchNode.ruleHandlers[i];
+                snapshots.add(ruleHandler.metrics.snapshot(HandlerMetricsSnapshot.KIND_RULE_HANDLER, dispatchNode.scene,
+                        dispatchNode.app, dispatchNode.rules[i], ruleHandler, ruleHandler.budget));
+            }
+            for (AfterAction afterAction : dispatchNode.afterActions) {
+                snapshots.add(afterAction.metrics.snapshot(HandlerMetricsSnapshot.KIND_AFTER_ACTION, dispatchNode.scene,
+                        dispatchNode.app, afterAction.asAfterAction.rule(), afterAction, afterAction.budget));
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * 开始录制调度流量，已在录制时先停止原录制；采样的调度把调度前的context与结果追加到段文件
+     */
+    public static synchronized void startCapture(CaptureConfig captureConfig) {
+        if (null == captureConfig || null == captureConfig.getDirectory()) {
+            throw new RuntimeException("must set directory");
+        }
+        stopCapture();
+        try {
+            trafficCapture = new TrafficCapture(captureConfig);
+        } catch (IOException e) {
+            throw new RuntimeException("RuleDispatcher startCapture fail " + captureConfig.getDirectory(), e);
+        }
+        log.info("RuleDispatcher startCapture {}", captureConfig);
+    }
+
+    /**
+     * 停止录制并刷盘
+     * @return 录制统计，未在录制时返回null
+     */
+    public static synchronized CaptureStats stopCapture() {
+        TrafficCapture capture = trafficCapture;
+        if (null == capture) {
+            return null;
+        }
+        trafficCapture = null;
+        CaptureStats stats = capture.close();
+        log.info("RuleDispatcher stopCapture {}", stats);
+        return stats;
+    }
+
+    /**
+     * @return 当前录制的统计，未在录制时返回null
+     */
+    public static CaptureStats getCaptureStats() {
+        TrafficCapture capture = trafficCapture;
+        return null == capture ? null : capture.stats();
+    }
+
+    /**
+     * 在当前线程回放录制的调度流量，可用于离线性能分析，或启动时用真实流量预热后再接入流量。
+     * <br/>
+     * 回放前应停止录制，否则回放的调度也会被录制
+     * @return 吞吐、耗时与校验结果
+     */
+    public static ReplayReport replay(ReplayConfig replayConfig) {
+        if (null == replayConfig || null == replayConfig.getDirectory()) {
+            throw new RuntimeException("must set directory");
+        }
+        try {
+            return new TrafficReplayer(replayConfig).replay();
+        } catch (IOException e) {
+            throw new RuntimeException("RuleDispatcher replay fail " + replayConfig.getDirectory(), e);
+        }
+    }
+
+    /**
+     * 取出并清空已记录的调度轨迹
+     * @return 按记录顺序；缓冲写满后最旧的轨迹被覆盖
+     */
+    public static List<DispatchTrace> drainTraces() {
+        return traceRecorder.drain();
+    }
+
+    /**
+     * 设置调度轨迹缓冲容量，默认1024；已记录的轨迹被丢弃
+     */
+    public static void setTraceCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("capacity must be positive");
+        }
+        traceRecorder = new TraceRecorder(capacity);
+    }
+
+    /**
+     * 控制器调用统计开关，默认开启
+     */
+    public static void setMetricsEnabled(boolean enabled) {
+        HandlerMetrics.enabled = enabled;
+    }
+
+    private static <A extends Annotation> A metadata(Object handler, A annotation, Class<A> annotationClass) {
+        if (null != annotation) {
+            return annotation;
+        }
+
+        A classAnnotation = handler.getClass().getAnnotation(annotationClass);
+        if (null == classAnnotation) {
+            throw new RuntimeException("RuleDispatcher no " + annotationClass.getSimpleName() + " " + handler.getClass().getName());
+        }
+        return classAnnotation;
+    }
+
+    private static SceneAppHandlerNode getSceneAppHandlerNode(String scene, String app) {
+        SceneHandlerNode sceneHandlerNode = sceneHandlerMap.get(scene);
+        return null == sceneHandlerNode ? null : sceneHandlerNode.appHandlerMap.get(app);
+    }
+
+    /**
+     * 重新编译并发布调度计划
+     */
+    private static void publish() {
+        dispatchPlan = DispatchPlan.compile(sceneHandlerMap, sceneConfigMap);
+    }
+
+    /**
+     * 按规则顺序的调整结果重新发布节点，节点已移除时忽略
+     */
+    static synchronized void republish(String scene, String app) {
+        if (null != getSceneAppHandlerNode(scene, app)) {
+            publish(scene, app);
+        }
+    }
+
+    /**
+     * 仅重新编译 scene + app 对应的节点，其余节点沿用，发布新的调度计划
+     */
+    private static void publish(String scene, String app) {
+        SceneAppHandlerNode sceneAppHandlerNode = getSceneAppHandlerNode(scene, app);
+        dispatchPlan = dispatchPlan.with(DispatchNode.compile(sceneAppHandlerNode, sceneConfigMap.get(scene)));
     }
 
     private static Boolean arranged = false;
+
     /**
-     * 不需要考虑并发
+     * 整理中，期间添加控制器不逐个排序，结束时统一排序
+     */
+    private static boolean arranging;
+    /**
+     * 控制器关系，仅在持有锁时读写；调度不读取，只读取发布的调度计划
      */
     private static Map<String, SceneHandlerNode> sceneHandlerMap = new HashMap<>();
 
     /**
-     * 添加 前置处理；若已存在前置处理，则忽略本次配置
+     * 整理或运行时注册后发布的不可变调度计划，调度只读取该计划，无需加锁
+     */
+    private static volatile DispatchPlan dispatchPlan = DispatchPlan.EMPTY;
+
+    /**
+     * 调度轨迹缓冲
+     */
+    private static volatile TraceRecorder traceRecorder = new TraceRecorder(1024);
+
+    /**
+     * 调度流量录制，未录制时为null
+     */
+    private static volatile TrafficCapture trafficCapture;
+
+    /**
+     * 场景配置，仅在持有锁时修改
+     */
+    private static Map<String, SceneConfig> sceneConfigMap = new HashMap<>();
+
+    /**
+     * 添加 前置处理；若已存在前置处理，replace时替换，否则忽略本次配置
      * @param preAction
+     * @return 被替换的前置处理
      */
-    private static void addPreAction(PreAction preAction) {
+    private static PreAction addPreAction(PreAction preAction, boolean replace) {
         String app = preAction.asPreAction.app();
         String scene = preAction.asPreAction.scene();
         String rule = preAction.asPreAction.rule();
@@ -266,19 +1554,31 @@ public class RuleDispatcher {
         initNode(app, scene);
 
         SceneAppHandlerNode sceneAppHandlerNode = sceneHandlerMap.get(scene).appHandlerMap.get(app);
-        if (!sceneAppHandlerNode.preActionMap.containsKey(rule)) {
-            sceneAppHandlerNode.preActionMap.put(rule, preAction);
-            sceneAppHandlerNode.preActions.add(preAction);
+        PreAction exist = sceneAppHandlerNode.preActionMap.get(rule);
+        if (null != exist) {
+            if (!replace) {
+                return null;
+            }
+            sceneAppHandlerNode.preActions.remove(exist);
+            log.info("RuleDispatcher remove preAction for {} {} {} ", scene, app, rule);
+        }
+
+        sceneAppHandlerNode.preActionMap.put(rule, preAction);
+        sceneAppHandlerNode.preActions.add(preAction);
+        // 整理期间统一排序一次，其余时候插入即排序
+        if (!arranging) {
             sceneAppHandlerNode.preActions.sort(PreAction.comparator);
-            log.info("RuleDispatcher add preAction for {} {} {} ", scene, app, rule);
         }
+        log.info("RuleDispatcher add preAction for {} {} {} ", scene, app, rule);
+        return exist;
     }
 
     /**
-     * 添加 后置处理；若已存在后置处理，则忽略本次配置
+     * 添加 后置处理；若已存在后置处理，replace时替换，否则忽略本次配置
      * @param afterAction
+     * @return 被替换的后置处理
      */
-    private static void addAfterAction(AfterAction afterAction) {
+    private static AfterAction addAfterAction(AfterAction afterAction, boolean replace) {
         String app = afterAction.asAfterAction.app();
         String scene = afterAction.asAfterAction.scene();
         String rule = afterAction.asAfterAction.rule();
@@ -286,19 +1586,33 @@ public class RuleDispatcher {
         initNode(app, scene);
 
         SceneAppHandlerNode sceneAppHandlerNode = sceneHandlerMap.get(scene).appHandlerMap.get(app);
-        if (!sceneAppHandlerNode.afterActionMap.containsKey(rule)) {
-            sceneAppHandlerNode.afterActionMap.put(rule, afterAction);
-            sceneAppHandlerNode.afterActions.add(afterAction);
+        AfterAction exist = sceneAppHandlerNode.afterActionMap.get(rule);
+        if (null != exist) {
+            if (!replace) {
+                return null;
+            }
+            sceneAppHandlerNode.afterActions.remove(exist);
+            exist.stop();
+            log.info("RuleDispatcher remove afterAction for {} {} {} ", scene, app, rule);
+        }
+
+        sceneAppHandlerNode.afterActionMap.put(rule, afterAction);
+        sceneAppHandlerNode.afterActions.add(afterAction);
+        afterAction.start();
+        // 整理期间统一排序一次，其余时候插入即排序
+        if (!arranging) {
             sceneAppHandlerNode.afterActions.sort(AfterAction.comparator);
-            log.info("RuleDispatcher add afterAction for {} {} {} ", scene, app, rule);
         }
+        log.info("RuleDispatcher add afterAction for {} {} {} ", scene, app, rule);
+        return exist;
     }
 
     /**
-     * 添加 规则控制器 根据优先级排序
+     * 添加 规则控制器 根据优先级排序；若已存在规则控制器，replace时替换，否则忽略本次配置
      * @param handler
+     * @return 被替换的规则控制器
      */
-    private static void addRuleHandler(RuleHandler handler) {
+    private static RuleHandler addRuleHandler(RuleHandler handler, boolean replace) {
         String app = handler.asRuleHandler.app();
         String scene = handler.asRuleHandler.scene();
         String rule = handler.asRuleHandler.rule();
@@ -306,12 +1620,23 @@ public class RuleDispatcher {
         initNode(app, scene);
 
         SceneAppHandlerNode sceneAppHandlerNode = sceneHandlerMap.get(scene).appHandlerMap.get(app);
-        if (!sceneAppHandlerNode.ruleHandlerMap.containsKey(rule)) {
-            sceneAppHandlerNode.ruleHandlerMap.put(rule, handler);
-            sceneAppHandlerNode.ruleHandlers.add(handler);
+        RuleHandler exist = sceneAppHandlerNode.ruleHandlerMap.get(rule);
+        if (null != exist) {
+            if (!replace) {
+                return null;
+            }
+            sceneAppHandlerNode.ruleHandlers.remove(exist);
+            log.info("RuleDispatcher remove ruleHandler for {} {} {} ", scene, app, rule);
+        }
+
+        sceneAppHandlerNode.ruleHandlerMap.put(rule, handler);
+        sceneAppHandlerNode.ruleHandlers.add(handler);
+        // 整理期间统一排序一次，其余时候插入即排序
+        if (!arranging) {
             sceneAppHandlerNode.ruleHandlers.sort(RuleHandler.comparator);
-            log.info("RuleDispatcher add ruleHandler for {} {} {} ", scene, app, rule);
         }
+        log.info("RuleDispatcher add ruleHandler for {} {} {} ", scene, app, rule);
+        return exist;
     }
 
     private static void initNode(String app, String scene) {
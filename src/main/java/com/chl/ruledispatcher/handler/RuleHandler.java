@@ -14,15 +14,145 @@ import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
 public abstract class RuleHandler<T extends RuleDispatcherContext> {
     AsRuleHandler asRuleHandler;
 
+    /**
+     * 匹配结果缓存，未开启时为null
+     */
+    MatchCache matchCache;
+
+    /**
+     * 调用统计
+     */
+    final HandlerMetrics metrics = new HandlerMetrics(true);
+
+    /**
+     * 时间预算与断路器，未声明可选与预算时为null
+     */
+    HandlerBudget budget;
+
+    /**
+     * 声明式匹配条件
+     */
+    RuleCondition[] conditions = new RuleCondition[0];
+
+    /**
+     * 绑定元数据，按需创建匹配结果缓存；缓存配置不变时沿用已有缓存
+     */
+    void bind(AsRuleHandler asRuleHandler) {
+        String[] conditionExpressions = asRuleHandler.conditions();
+        RuleCondition[] conditions = new RuleCondition[conditionExpressions.length];
+        for (int i = 0; i < conditionExpressions.length; i++) {
+            conditions[i] = RuleCondition.parse(conditionExpressions[i]);
+        }
+        this.conditions = conditions;
+        this.asRuleHandler = asRuleHandler;
+
+        int size = asRuleHandler.matchCacheSize();
+        long ttlMillis = asRuleHandler.matchCacheTtlMillis();
+        if (size <= 0) {
+            matchCache = null;
+        } else if (null == matchCache || matchCache.maximumSize != size || matchCache.ttlMillis != ttlMillis) {
+            matchCache = new MatchCache(size, ttlMillis);
+        }
+    }
+
     /**
      * 命中规则与执行
      * @return true 规则命中
      */
     boolean handle(T param){
-        boolean match = match(param);
+        return handle(param, true);
+    }
+
+    /**
+     * 命中规则与执行
+     * @param checkConditions 是否判断声明条件，来自条件索引的候选已满足条件
+     * @return true 规则命中
+     */
+    boolean handle(T param, boolean checkConditions){
+        boolean match = matches(param, checkConditions);
         if (match) {
+            doAction(param);
+        }
+        return match;
+    }
+
+    boolean matches(T param) {
+        return matches(param, true);
+    }
+
+    /**
+     * 命中规则并记录统计
+     * @param checkConditions 是否判断声明条件
+     */
+    boolean matches(T param, boolean checkConditions) {
+        if (!HandlerMetrics.enabled) {
+            return (!checkConditions || conditionsHold(param)) && cachedMatch(param);
+        }
+
+        long start = System.nanoTime();
+        boolean match;
+        try {
+            match = (!checkConditions || conditionsHold(param)) && cachedMatch(param);
+        } catch (Throwable e) {
+            metrics.errorCount.increment();
+            throw e;
+        }
+        metrics.record(System.nanoTime() - start, match);
+        return match;
+    }
+
+    /**
+     * 执行规则命中后的行为并记录统计
+     */
+    void doAction(T param) {
+        if (!HandlerMetrics.enabled) {
+            action(param);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
             action(param);
+        } catch (Throwable e) {
+            metrics.errorCount.increment();
+            throw e;
         }
+        metrics.actionLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return 声明条件全部满足，未声明时为true
+     */
+    boolean conditionsHold(T param) {
+        for (RuleCondition condition : conditions) {
+            if (!condition.test(ContextProperties.get(param, condition.property))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 命中规则，开启缓存时优先读取缓存
+     */
+    boolean cachedMatch(T param) {
+        MatchCache cache = matchCache;
+        if (null == cache) {
+            return match(param);
+        }
+
+        Object key = matchCacheKey(param);
+        if (null == key) {
+            return match(param);
+        }
+
+        Boolean cached = cache.get(key);
+        if (null != cached) {
+            return cached;
+        }
+
+        boolean match = match(param);
+        cache.put(key, match);
         return match;
     }
 
@@ -39,12 +169,29 @@ public abstract class RuleHandler<T extends RuleDispatcherContext> {
      */
     abstract protected void action(T param);
 
+    /**
+     * 匹配结果缓存的key，match的结果只取决于key时才可使用；需要同时配置 AsRuleHandler#matchCacheSize
+     * @param param
+     * @return 缓存key，需实现equals与hashCode；null 不使用缓存
+     */
+    protected Object matchCacheKey(T param) {
+        return null;
+    }
+
+    /**
+     * @return 匹配结果缓存统计，未开启缓存时返回null
+     */
+    public MatchCacheStats getMatchCacheStats() {
+        MatchCache cache = matchCache;
+        return null == cache ? null : cache.stats();
+    }
+
 
     static Comparator<RuleHandler> comparator = new Comparator<RuleHandler>() {
 
         @Override
         public int compare(RuleHandler o1, RuleHandler o2) {
-            return o1.asRuleHandler.priority() < o2.asRuleHandler.priority() ? -1 : 1;
+            return Integer.compare(o1.asRuleHandler.priority(), o2.asRuleHandler.priority());
         }
     };
 
@@ -0,0 +1,184 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按规则名或标签表达式选出的规则，为节点规则数组上的位图。
+ * <br/>
+ * 标签表达式由标签与 |（或）、&amp;（与）、!（非）、括号组成，如 {@code fraud}、{@code fraud | aml}、{@code fraud & !slow}；
+ * 不存在的规则与标签不抛异常，选中为空并记录在 {@link #unknown}，标签记为 tag:xxx。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class RuleSelection {
+
+    private static final String[] NONE = new String[0];
+
+    final long[] bits;
+
+    /**
+     * 不存在的规则与标签，没有时为空数组
+     */
+    final String[] unknown;
+
+    private RuleSelection(long[] bits, List<String> unknown) {
+        this.bits = bits;
+        this.unknown = unknown.isEmpty() ? NONE : unknown.toArray(new String[0]);
+    }
+
+    /**
+     * @param ruleIndexMap rule -> 下标
+     */
+    static RuleSelection ofRules(Map<String, Integer> ruleIndexMap, int size, Collection<String> rules) {
+        long[] bits = new long[words(size)];
+        List<String> unknown = new ArrayList<>();
+        for (String rule : rules) {
+            Integer index = ruleIndexMap.get(rule);
+            if (null == index) {
+                unknown.add(rule);
+            } else {
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+        return new RuleSelection(bits, unknown);
+    }
+
+    /**
+     * @param tagBits 标签 -> 位图，见 {@link #tagBits(RuleHandler[])}
+     */
+    static RuleSelection ofTags(Map<String, long[]> tagBits, int size, String expression) {
+        List<String> unknown = new ArrayList<>();
+        Parser parser = new Parser(expression, tagBits, words(size), unknown);
+        long[] bits = parser.or();
+        parser.skipSpaces();
+        if (parser.position < expression.length()) {
+            throw new RuntimeException("RuleDispatcher illegal tags " + expression);
+        }
+        // 非运算可能置位超出规则数的位
+        if (size % 64 != 0 && bits.length > 0) {
+            bits[bits.length - 1] &= (1L << (size & 63)) - 1;
+        }
+        return new RuleSelection(bits, unknown);
+    }
+
+    /**
+     * @return 标签 -> 声明该标签的规则在数组中的位图
+     */
+    static Map<String, long[]> tagBits(RuleHandler[] ruleHandlers) {
+        Map<String, long[]> tagBits = new HashMap<>();
+        for (int i = 0; i < ruleHandlers.length; i++) {
+            for (String tag : ruleHandlers[i].asRuleHandler.tags()) {
+                tagBits.computeIfAbsent(tag, t -> new long[words(ruleHandlers.length)])[i >>> 6] |= 1L << i;
+            }
+        }
+        return tagBits;
+    }
+
+    /**
+     * @param selected 为null时不限
+     * @return 是否选中下标为index的规则
+     */
+    static boolean contains(long[] selected, int index) {
+        return null == selected || (selected[index >>> 6] & 1L << index) != 0;
+    }
+
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+
+    /**
+     * 递归下降：or := and ('|' and)*，and := unary ('&amp;' unary)*，unary := '!' unary | '(' or ')' | tag
+     */
+    private static final class Parser {
+        private final String expression;
+        private final Map<String, long[]> tagBits;
+        private final int words;
+        private final List<String> unknown;
+        private int position;
+
+        Parser(String expression, Map<String, long[]> tagBits, int words, List<String> unknown) {
+            this.expression = expression;
+            this.tagBits = tagBits;
+            this.words = words;
+            this.unknown = unknown;
+        }
+
+        long[] or() {
+            long[] bits = and();
+            while (accept('|')) {
+                long[] other = and();
+                for (int i = 0; i < words; i++) {
+                    bits[i] |= other[i];
+                }
+            }
+            return bits;
+        }
+
+        private long[] and() {
+            long[] bits = unary();
+            while (accept('&')) {
+                long[] other = unary();
+                for (int i = 0; i < words; i++) {
+                    bits[i] &= other[i];
+                }
+            }
+            return bits;
+        }
+
+        private long[] unary() {
+            if (accept('!')) {
+                long[] bits = unary();
+                for (int i = 0; i < words; i++) {
+                    bits[i] = ~bits[i];
+                }
+                return bits;
+            }
+            if (accept('(')) {
+                long[] bits = or();
+                if (!accept(')')) {
+                    throw new RuntimeException("RuleDispatcher illegal tags " + expression);
+                }
+                return bits;
+            }
+
+            skipSpaces();
+            int start = position;
+            while (position < expression.length() && isTagChar(expression.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw new RuntimeException("RuleDispatcher illegal tags " + expression);
+            }
+            String tag = expression.substring(start, position);
+            long[] bits = tagBits.get(tag);
+            if (null == bits) {
+                unknown.add("tag:" + tag);
+                return new long[words];
+            }
+            return bits.clone();
+        }
+
+        private boolean accept(char ch) {
+            skipSpaces();
+            if (position < expression.length() && expression.charAt(position) == ch) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void skipSpaces() {
+            while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isTagChar(char ch) {
+            return Character.isLetterOrDigit(ch) || ch == '_' || ch == '-' || ch == '.' || ch == ':';
+        }
+    }
+}
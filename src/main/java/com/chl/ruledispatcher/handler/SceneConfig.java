@@ -0,0 +1,147 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 场景维度的调度配置，通过 {@link RuleDispatcher#configScene(SceneConfig)} 注册。
+ * <br/>
+ * 注册后会冻结进调度计划，不应再修改；需要变更时重新注册新的实例。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+@NoArgsConstructor
+public class SceneConfig {
+
+    /**
+     * 场景
+     */
+    private String scene;
+
+    /**
+     * 异步调度使用的执行器，为空时使用默认执行器
+     */
+    private Executor executor;
+
+    /**
+     * 异步调度时每次调度使用一个虚拟线程，需要JDK21+，不支持时退化为默认执行器；executor不为空时忽略
+     */
+    private boolean virtualThread;
+
+    /**
+     * 场景内全部规则并行匹配，等同于全部规则声明 parallelMatch
+     */
+    private boolean parallelMatch;
+
+    /**
+     * 并行匹配使用的线程池，为空时使用 ForkJoinPool.commonPool()
+     */
+    private ForkJoinPool matchPool;
+
+    /**
+     * 场景内全部前置行为并行执行，等同于全部前置行为声明 parallel
+     */
+    private boolean parallelPreAction;
+
+    /**
+     * 并行前置行为使用的执行器，前置行为有I/O时建议单独指定；为空时使用 matchPool
+     */
+    private Executor preActionExecutor;
+
+    /**
+     * 按控制器声明的 reads、writes 调度规则与后置行为：读写不冲突的控制器在 matchPool 上并行执行，
+     * 存在读写冲突、排他性规则及未声明读写的仍按优先级先后执行；记录调度轨迹时按优先级顺序执行
+     */
+    private boolean dependencyScheduling;
+
+    /**
+     * 调度轨迹采样率 [0, 1]，默认0即不采样；context设置trace时总是记录
+     */
+    private double traceSampleRate;
+
+    /**
+     * 为场景内每个节点生成专用控制器链，使调用点单态以便JIT内联控制器；不支持时退化为通用路径。
+     * <br/>
+     * 每个节点各自编译，只适合少量热点场景，节点多且流量分散时预热慢、代码缓存压力大，反而更慢。
+     */
+    private boolean specializedChain;
+
+    /**
+     * 声明 AsRuleHandler#orderGroup 的规则按统计调整顺序的间隔毫秒数，0为不调整
+     */
+    private long reorderIntervalMillis = 10000;
+
+    /**
+     * 并发上限，超过时等待或拒绝，隔离慢场景；0为不限
+     */
+    private int maxConcurrency;
+
+    /**
+     * 并发上限按 scene + app 分别计算，默认整个场景共用
+     */
+    private boolean concurrencyPerApp;
+
+    /**
+     * 达到并发上限时最多等待的毫秒数，0为立即拒绝
+     */
+    private long maxWaitMillis;
+
+    /**
+     * 自适应并发上限的延迟阈值毫秒数，调度超过阈值或异常时减小上限，否则逐步恢复到 maxConcurrency；0为固定上限
+     */
+    private long adaptiveLatencyMillis;
+
+    /**
+     * 被拒绝时的回调，为空时抛出 RejectedExecutionException
+     */
+    private Consumer<RuleDispatcherContext> rejectionHandler;
+
+    /**
+     * 分区键，配置后异步调度按分区键路由到单线程通道，同一键严格按提交顺序执行，不同键并行；
+     * 返回null的context使用异步执行器，不保证顺序
+     */
+    private Function<RuleDispatcherContext, Object> partitionKey;
+
+    /**
+     * 分区通道数，0为CPU核数
+     */
+    private int laneCount;
+
+    /**
+     * 每个分区通道的队列容量，已满时异步调度以 RejectedExecutionException 异常完成
+     */
+    private int laneQueueCapacity = 1024;
+
+    /**
+     * 幂等场景的调度指纹，配置后同一 scene + app 下 规则 + 指纹 相同的并发调度只执行一次，其余拷贝结果；
+     * 返回null的context正常执行。指纹需实现 equals、hashCode，且只能由影响调度结果的入参得到
+     */
+    private Function<RuleDispatcherContext, Object> fingerprint;
+
+    /**
+     * 结果拷贝 (结果, 目标)，为空时浅拷贝 RuleDispatcherContext 子类的字段，要求类型相同；unknownRules 等调度结果总是拷贝
+     */
+    private BiConsumer<RuleDispatcherContext, RuleDispatcherContext> resultCopier;
+
+    /**
+     * 调度结果缓存的有效毫秒数，需要配置 fingerprint；0为不缓存，只合并并发的调度
+     */
+    private long resultCacheTtlMillis;
+
+    /**
+     * 调度结果缓存的最大条目数
+     */
+    private int resultCacheSize = 1024;
+
+    public SceneConfig(String scene) {
+        this.scene = scene;
+    }
+}
@@ -0,0 +1,75 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.Data;
+
+/**
+ * 影子评估配置，见 {@link RuleDispatcher#startShadow(ShadowConfig)}。
+ * <br/>
+ * 候选规则链在开启时由线上规则链按以下调整得到：移除、替换或新增规则控制器，覆盖优先级与排他性。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class ShadowConfig {
+
+    private String scene;
+
+    private String app;
+
+    /**
+     * 采样率，0~1
+     */
+    private double sampleRate = 0.01;
+
+    /**
+     * 待评估的context队列容量，已满时丢弃
+     */
+    private int queueCapacity = 1024;
+
+    /**
+     * rule -> 候选优先级
+     */
+    private Map<String, Integer> priorities = new HashMap<>();
+
+    /**
+     * rule -> 候选排他性
+     */
+    private Map<String, Boolean> exclusives = new HashMap<>();
+
+    /**
+     * 候选中移除的规则
+     */
+    private Set<String> removedRules = new HashSet<>();
+
+    /**
+     * 候选中新增的规则控制器，需标注 AsRuleHandler，与线上相同 rule 时替换；应为未注册的新实例
+     */
+    private List<RuleHandler> addedRuleHandlers = new ArrayList<>();
+
+    /**
+     * 采样时拷贝context，返回null时丢弃；拷贝在后台线程上被读取，不能与线上context共享可变成员。
+     * 为空时由无参构造的新实例浅拷贝字段，只适用于子类字段均为非final的基本类型或不可变类型（String、包装类型、枚举等），
+     * 含集合等可变成员的context必须设置
+     */
+    private Function<RuleDispatcherContext, RuleDispatcherContext> contextCopier;
+
+    /**
+     * 采样的context类型，未设置 contextCopier 时必填，开启时检查能否安全浅拷贝，不能时开启失败；
+     * 采样到其他不能浅拷贝的子类时丢弃
+     */
+    private Class<? extends RuleDispatcherContext> contextType;
+
+    /**
+     * 统计中最多保留的分歧样例数
+     */
+    private int maxDivergenceSamples = 10;
+}
@@ -0,0 +1,467 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.chl.ruledispatcher.anotations.AsRuleHandler;
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 候选规则链的影子评估：按采样率拷贝调度前的context放入有界队列，队列已满时丢弃；
+ * 后台线程对线上与候选规则链只调用 match，记录命中集合、排他截断与耗时的差异。
+ * <br/>
+ * 调度线程只做采样判断，采中时拷贝并入队一次，不等待评估。线上规则链取评估时已发布的节点，候选规则链在开启时固定。
+ * match 会在后台线程上被再次调用，需要无副作用且线程安全。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class ShadowEvaluation implements Runnable {
+
+    /**
+     * scene/app -> 影子评估，重新发布后沿用
+     */
+    private static final Map<String, ShadowEvaluation> shadowMap = new ConcurrentHashMap<>();
+
+    /**
+     * context类型 -> 无参构造与需要拷贝的字段
+     */
+    private static final ClassValue<ContextCopy> contextCopies = new ClassValue<ContextCopy>() {
+        @Override
+        protected ContextCopy computeValue(Class<?> type) {
+            return new ContextCopy(type);
+        }
+    };
+
+    final String name;
+    private final String scene;
+    private final String app;
+    private final double sampleRate;
+    private final Function<RuleDispatcherContext, RuleDispatcherContext> contextCopier;
+    private final BlockingQueue<RuleDispatcherContext> queue;
+    private final int maxDivergenceSamples;
+    private final Thread worker;
+
+    /**
+     * 候选规则链，按优先级排序
+     */
+    private final RuleHandler[] ruleHandlers;
+    private final String[] rules;
+    private final boolean[] exclusives;
+    private final Map<String, Integer> ruleIndexMap = new HashMap<>();
+    private final Map<String, long[]> tagBits;
+
+    private final LongAdder sampledCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LatencyHistogram liveLatency = new LatencyHistogram();
+    private final LatencyHistogram candidateLatency = new LatencyHistogram();
+
+    /**
+     * 以下在 this 锁内访问
+     */
+    private long evaluatedCount;
+    private long errorCount;
+    private long hitDivergenceCount;
+    private long exclusiveDivergenceCount;
+    private final Map<String, Long> liveOnlyHits = new TreeMap<>();
+    private final Map<String, Long> candidateOnlyHits = new TreeMap<>();
+    private final List<String> divergenceSamples = new ArrayList<>();
+
+    private volatile boolean stopped;
+
+    private ShadowEvaluation(DispatchNode live, ShadowConfig shadowConfig) {
+        this.scene = shadowConfig.getScene();
+        this.app = shadowConfig.getApp();
+        this.name = scene + "/" + app;
+        this.sampleRate = shadowConfig.getSampleRate();
+        this.contextCopier = shadowConfig.getContextCopier();
+        if (null == contextCopier) {
+            // 默认拷贝只适用于字段均不可变的context，开启时检查，不静默地共享可变成员
+            Class<? extends RuleDispatcherContext> contextType = shadowConfig.getContextType();
+            if (null == contextType) {
+                throw new RuntimeException("RuleDispatcher startShadow must set contextCopier or contextType " + name);
+            }
+            ContextCopy contextCopy = contextCopies.get(contextType);
+            if (null != contextCopy.unsupported) {
+                throw new RuntimeException("RuleDispatcher startShadow must set contextCopier " + name + " "
+                        + contextCopy.unsupported);
+            }
+        }
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, shadowConfig.getQueueCapacity()));
+        this.maxDivergenceSamples = shadowConfig.getMaxDivergenceSamples();
+
+        List<Candidate> candidates = candidates(live, shadowConfig);
+        int size = candidates.size();
+        this.ruleHandlers = new RuleHandler[size];
+        this.rules = new String[size];
+        this.exclusives = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            ruleHandlers[i] = candidates.get(i).ruleHandler;
+            rules[i] = candidates.get(i).rule;
+            exclusives[i] = candidates.get(i).exclusive;
+            ruleIndexMap.put(rules[i], i);
+        }
+        this.tagBits = RuleSelection.tagBits(ruleHandlers);
+
+        this.worker = new Thread(this, "RuleDispatcher-shadow-" + scene + "-" + app);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 开启影子评估，替换 scene + app 已有的影子评估
+     * @param live 当前发布的节点
+     */
+    static ShadowEvaluation start(DispatchNode live, ShadowConfig shadowConfig) {
+        ShadowEvaluation shadowEvaluation = new ShadowEvaluation(live, shadowConfig);
+        ShadowEvaluation exist = shadowMap.put(shadowEvaluation.name, shadowEvaluation);
+        if (null != exist) {
+            exist.stopped = true;
+        }
+        log.info("RuleDispatcher startShadow {} candidate {}", shadowEvaluation.name, shadowEvaluation.rules);
+        return shadowEvaluation;
+    }
+
+    /**
+     * @return 被停止的影子评估，不存在时返回null
+     */
+    static ShadowEvaluation stop(String scene, String app) {
+        ShadowEvaluation exist = shadowMap.remove(scene + "/" + app);
+        if (null != exist) {
+            exist.stopped = true;
+            log.info("RuleDispatcher stopShadow {}", exist.name);
+        }
+        return exist;
+    }
+
+    static ShadowEvaluation get(String scene, String app) {
+        return shadowMap.isEmpty() ? null : shadowMap.get(scene + "/" + app);
+    }
+
+    static Map<String, ShadowStats> allStats() {
+        Map<String, ShadowStats> statsMap = new TreeMap<>();
+        for (ShadowEvaluation shadowEvaluation : shadowMap.values()) {
+            statsMap.put(shadowEvaluation.name, shadowEvaluation.stats());
+        }
+        return statsMap;
+    }
+
+    /**
+     * 调度线程调用，采中时拷贝context入队，不阻塞
+     */
+    void offer(RuleDispatcherContext ruleDispatcherContext) {
+        if (stopped || sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        sampledCount.increment();
+        RuleDispatcherContext copy = copy(ruleDispatcherContext);
+        if (null == copy || !queue.offer(copy)) {
+            droppedCount.increment();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!stopped) {
+            try {
+                RuleDispatcherContext ruleDispatcherContext = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null != ruleDispatcherContext) {
+                    evaluate(ruleDispatcherContext);
+                }
+            } catch (InterruptedException e) {
+                stopped = true;
+            } catch (Throwable e) {
+                log.warn("RuleDispatcher shadow evaluate fail {}", name, e);
+            }
+        }
+        queue.clear();
+    }
+
+    private void evaluate(RuleDispatcherContext ruleDispatcherContext) {
+        DispatchNode live = RuleDispatcher.currentDispatchNode(scene, app);
+        if (null == live) {
+            return;
+        }
+
+        List<String> liveHits = new ArrayList<>();
+        List<String> candidateHits = new ArrayList<>();
+        String liveExclusive;
+        String candidateExclusive;
+        long liveNanos;
+        long candidateNanos;
+        try {
+            long[] liveSelected = select(live.ruleIndexMap, live.tagBits, live.ruleHandlers.length, ruleDispatcherContext);
+            long[] candidateSelected = select(ruleIndexMap, tagBits, ruleHandlers.length, ruleDispatcherContext);
+            long start = System.nanoTime();
+            liveExclusive = evaluate(live.ruleHandlers, live.rules, live.exclusives, liveSelected, ruleDispatcherContext, liveHits);
+            long middle = System.nanoTime();
+            candidateExclusive = evaluate(ruleHandlers, rules, exclusives, candidateSelected, ruleDispatcherContext, candidateHits);
+            liveNanos = middle - start;
+            candidateNanos = System.nanoTime() - middle;
+        } catch (Throwable e) {
+            synchronized (this) {
+                errorCount++;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher shadow match fail {} {}", name, e.toString());
+            }
+            return;
+        }
+        liveLatency.record(liveNanos);
+        candidateLatency.record(candidateNanos);
+
+        boolean hitDivergence = !liveHits.containsAll(candidateHits) || !candidateHits.containsAll(liveHits);
+        boolean exclusiveDivergence = null == liveExclusive ? null != candidateExclusive
+                : !liveExclusive.equals(candidateExclusive);
+        synchronized (this) {
+            evaluatedCount++;
+            if (hitDivergence) {
+                hitDivergenceCount++;
+                for (String rule : liveHits) {
+                    if (!candidateHits.contains(rule)) {
+                        liveOnlyHits.merge(rule, 1L, Long::sum);
+                    }
+                }
+                for (String rule : candidateHits) {
+                    if (!liveHits.contains(rule)) {
+                        candidateOnlyHits.merge(rule, 1L, Long::sum);
+                    }
+                }
+            }
+            if (exclusiveDivergence) {
+                exclusiveDivergenceCount++;
+            }
+            if ((hitDivergence || exclusiveDivergence) && divergenceSamples.size() < maxDivergenceSamples) {
+                divergenceSamples.add("live=" + liveHits + "/" + liveExclusive + " candidate=" + candidateHits + "/"
+                        + candidateExclusive);
+            }
+        }
+    }
+
+    /**
+     * 按 rules、tags 在规则链上选择规则，指定 rule 时以 rule 为准
+     * @return 选中的规则位图，不限时返回null
+     */
+    private static long[] select(Map<String, Integer> ruleIndexMap, Map<String, long[]> tagBits, int size,
+            RuleDispatcherContext ruleDispatcherContext) {
+        if (!RuleDispatcher.isEmpty(ruleDispatcherContext.getRule())) {
+            return null;
+        }
+        long[] selected = null;
+        if (!RuleDispatcher.isEmpty(ruleDispatcherContext.getRules())) {
+            selected = RuleSelection.ofRules(ruleIndexMap, size, ruleDispatcherContext.getRules()).bits;
+        }
+        if (!RuleDispatcher.isEmpty(ruleDispatcherContext.getTags())) {
+            long[] tagged = RuleSelection.ofTags(tagBits, size, ruleDispatcherContext.getTags()).bits;
+            if (null != selected) {
+                for (int i = 0; i < selected.length; i++) {
+                    tagged[i] &= selected[i];
+                }
+            }
+            selected = tagged;
+        }
+        return selected;
+    }
+
+    /**
+     * 按顺序只调用 match，指定规则时只评估该规则，指定 rules、tags 时只评估选中的规则
+     * @return 排他截断的规则，没有时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private static String evaluate(RuleHandler[] ruleHandlers, String[] rules, boolean[] exclusives, long[] selected,
+            RuleDispatcherContext ruleDispatcherContext, List<String> hits) {
+        String rule = ruleDispatcherContext.getRule();
+        for (int i = 0; i < ruleHandlers.length; i++) {
+            if (null != rule && !rule.equals(rules[i]) || !RuleSelection.contains(selected, i)) {
+                continue;
+            }
+            if (ruleHandlers[i].conditionsHold(ruleDispatcherContext) && ruleHandlers[i].match(ruleDispatcherContext)) {
+                hits.add(rules[i]);
+                if (exclusives[i]) {
+                    return rules[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    synchronized ShadowStats stats() {
+        ShadowStats stats = new ShadowStats();
+        stats.setName(name);
+        stats.setSampledCount(sampledCount.sum());
+        stats.setDroppedCount(droppedCount.sum());
+        stats.setEvaluatedCount(evaluatedCount);
+        stats.setErrorCount(errorCount);
+        stats.setHitDivergenceCount(hitDivergenceCount);
+        stats.setExclusiveDivergenceCount(exclusiveDivergenceCount);
+        stats.setLiveOnlyHits(new LinkedHashMap<>(liveOnlyHits));
+        stats.setCandidateOnlyHits(new LinkedHashMap<>(candidateOnlyHits));
+        stats.setLiveLatency(liveLatency.snapshot());
+        stats.setCandidateLatency(candidateLatency.snapshot());
+        stats.setQueueSize(queue.size());
+        stats.setDivergenceSamples(new ArrayList<>(divergenceSamples));
+        return stats;
+    }
+
+    /**
+     * @return context的拷贝，无法拷贝时返回null
+     */
+    private RuleDispatcherContext copy(RuleDispatcherContext ruleDispatcherContext) {
+        try {
+            if (null != contextCopier) {
+                return contextCopier.apply(ruleDispatcherContext);
+            }
+            return contextCopies.get(ruleDispatcherContext.getClass()).copy(ruleDispatcherContext);
+        } catch (RuntimeException | ReflectiveOperationException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher shadow copy fail {} {}", name, e.toString());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 由线上规则链调整得到候选规则链
+     */
+    private static List<Candidate> candidates(DispatchNode live, ShadowConfig shadowConfig) {
+        Map<String, Candidate> candidateMap = new LinkedHashMap<>();
+        for (int i = 0; i < live.ruleHandlers.length; i++) {
+            candidateMap.put(live.rules[i], new Candidate(live.ruleHandlers[i], live.rules[i], live.priorities[i],
+                    live.exclusives[i]));
+        }
+        for (RuleHandler ruleHandler : shadowConfig.getAddedRuleHandlers()) {
+            AsRuleHandler asRuleHandler = ruleHandler.getClass().getAnnotation(AsRuleHandler.class);
+            if (null == asRuleHandler) {
+                throw new RuntimeException("RuleDispatcher no AsRuleHandler " + ruleHandler.getClass().getName());
+            }
+            ruleHandler.bind(asRuleHandler);
+            candidateMap.put(asRuleHandler.rule(), new Candidate(ruleHandler, asRuleHandler.rule(),
+                    asRuleHandler.priority(), asRuleHandler.exclusive()));
+        }
+        candidateMap.keySet().removeAll(shadowConfig.getRemovedRules());
+
+        List<Candidate> candidates = new ArrayList<>(candidateMap.values());
+        for (Candidate candidate : candidates) {
+            candidate.priority = shadowConfig.getPriorities().getOrDefault(candidate.rule, candidate.priority);
+            candidate.exclusive = shadowConfig.getExclusives().getOrDefault(candidate.rule, candidate.exclusive);
+        }
+        candidates.sort(Comparator.comparingInt(candidate -> candidate.priority));
+        return candidates;
+    }
+
+    private static final class Candidate {
+        final RuleHandler ruleHandler;
+        final String rule;
+        int priority;
+        boolean exclusive;
+
+        Candidate(RuleHandler ruleHandler, String rule, int priority, boolean exclusive) {
+            this.ruleHandler = ruleHandler;
+            this.rule = rule;
+            this.priority = priority;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * 由无参构造的新实例浅拷贝全部字段，只适用于字段均为基本类型或不可变类型的context。
+     * <br/>
+     * 基类字段中 rules 拷贝为新集合，unknownRules 等调度结果在采样时已清空，不拷贝。
+     */
+    private static final class ContextCopy {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+
+        /**
+         * 不能安全浅拷贝的原因，如无参构造不存在、final或可变类型的字段；可以拷贝时为null
+         */
+        final String unsupported;
+
+        private volatile boolean warned;
+
+        ContextCopy(Class<?> type) {
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                constructor = null;
+            }
+            this.constructor = constructor;
+
+            List<Field> fields = new ArrayList<>();
+            List<String> unsafeFields = new ArrayList<>();
+            for (Class<?> c = type; c != RuleDispatcherContext.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                        continue;
+                    }
+                    if (Modifier.isFinal(field.getModifiers()) || !isImmutable(field.getType())) {
+                        unsafeFields.add(c.getSimpleName() + "." + field.getName());
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            this.fields = fields.toArray(new Field[0]);
+            if (null == constructor) {
+                this.unsupported = "noDefaultConstructor " + type.getName();
+            } else if (!unsafeFields.isEmpty()) {
+                this.unsupported = "unsafeFields " + type.getName() + " " + unsafeFields;
+            } else {
+                this.unsupported = null;
+            }
+        }
+
+        RuleDispatcherContext copy(RuleDispatcherContext source) throws ReflectiveOperationException {
+            if (null != unsupported) {
+                if (!warned) {
+                    warned = true;
+                    log.warn("RuleDispatcher shadow drop samples, must set contextCopier {}", unsupported);
+                }
+                return null;
+            }
+            RuleDispatcherContext target = (RuleDispatcherContext) constructor.newInstance();
+            target.setScene(source.getScene());
+            target.setApp(source.getApp());
+            target.setRule(source.getRule());
+            target.setRules(null == source.getRules() ? null : new ArrayList<>(source.getRules()));
+            target.setTags(source.getTags());
+            target.setTrace(source.isTrace());
+            target.setDeadlineMillis(source.getDeadlineMillis());
+            for (Field field : fields) {
+                field.set(target, field.get(source));
+            }
+            return target;
+        }
+
+        private static boolean isImmutable(Class<?> type) {
+            return type.isPrimitive() || type.isEnum() || type == String.class || type == Integer.class
+                    || type == Long.class || type == Double.class || type == Float.class || type == Short.class
+                    || type == Byte.class || type == Character.class || type == Boolean.class
+                    || type == BigDecimal.class || type == BigInteger.class || type == UUID.class
+                    || type == Class.class || (type.getName().startsWith("java.time.") && !type.isInterface()
+                    && Modifier.isFinal(type.getModifiers()));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * 影子评估统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class ShadowStats {
+
+    /**
+     * scene/app
+     */
+    private String name;
+
+    private long sampledCount;
+
+    /**
+     * 拷贝失败或队列已满而丢弃的次数
+     */
+    private long droppedCount;
+
+    private long evaluatedCount;
+
+    /**
+     * 评估时match异常的次数
+     */
+    private long errorCount;
+
+    /**
+     * 命中集合不一致的次数
+     */
+    private long hitDivergenceCount;
+
+    /**
+     * 排他截断的规则不一致的次数
+     */
+    private long exclusiveDivergenceCount;
+
+    /**
+     * rule -> 仅线上命中的次数
+     */
+    private Map<String, Long> liveOnlyHits = new LinkedHashMap<>();
+
+    /**
+     * rule -> 仅候选命中的次数
+     */
+    private Map<String, Long> candidateOnlyHits = new LinkedHashMap<>();
+
+    /**
+     * 线上规则链的匹配耗时
+     */
+    private LatencySnapshot liveLatency;
+
+    /**
+     * 候选规则链的匹配耗时
+     */
+    private LatencySnapshot candidateLatency;
+
+    private int queueSize;
+
+    /**
+     * 分歧样例，形如 live=[a, b]/a candidate=[b]/null，斜杠后为排他截断的规则
+     */
+    private List<String> divergenceSamples = new ArrayList<>();
+}
@@ -0,0 +1,260 @@
+package com.chl.ruledispatcher.handler;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 幂等场景的合并调度：同一 scene + app 下 规则（含 rules、tags） + 指纹 相同的并发调度只执行一次，其余等待并拷贝结果；
+ * 配置结果缓存时，有效期内的相同调度直接拷贝缓存的结果。
+ * <br/>
+ * 结果为执行完成时context的快照，默认由无参构造的新实例浅拷贝 RuleDispatcherContext 子类的字段得到，
+ * 基类中只拷贝调度结果 unknownRules、skippedHandlers、overrunHandlers（不受 resultCopier 影响），其余基类字段如 scene、app、rule、
+ * rules、tags、trace、deadlineMillis 不拷贝；子类字段引用的可变对象会被共享，需要深拷贝时配置 resultCopier。
+ * 没有无参构造且未配置 resultCopier 时不缓存。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class SingleFlight {
+
+    /**
+     * scene/app -> 合并调度，重新发布后沿用，保留缓存与在途调度
+     */
+    private static final Map<String, SingleFlight> singleFlightMap = new ConcurrentHashMap<>();
+
+    /**
+     * context类型 -> 需要拷贝的字段
+     */
+    private static final ClassValue<Field[]> copyFields = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != RuleDispatcherContext.class && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    final String name;
+    final Function<RuleDispatcherContext, Object> fingerprint;
+    final BiConsumer<RuleDispatcherContext, RuleDispatcherContext> resultCopier;
+
+    /**
+     * 结果缓存，未配置有效期时为null
+     */
+    final MatchCache resultCache;
+
+    /**
+     * 规则 + 指纹 -> 执行中的调度
+     */
+    private final Map<Object, CompletableFuture<RuleDispatcherContext>> flights = new ConcurrentHashMap<>();
+
+    final LongAdder executedCount = new LongAdder();
+    final LongAdder coalescedCount = new LongAdder();
+
+    SingleFlight(String name, SceneConfig sceneConfig) {
+        this.name = name;
+        this.fingerprint = sceneConfig.getFingerprint();
+        this.resultCopier = sceneConfig.getResultCopier();
+        this.resultCache = sceneConfig.getResultCacheTtlMillis() > 0
+                ? new MatchCache(sceneConfig.getResultCacheSize(), sceneConfig.getResultCacheTtlMillis()) : null;
+    }
+
+    /**
+     * @return 场景配置对应的合并调度，未配置指纹时返回null
+     */
+    static SingleFlight resolve(SceneConfig sceneConfig, String app) {
+        if (null == sceneConfig || null == sceneConfig.getFingerprint()) {
+            return null;
+        }
+
+        String name = sceneConfig.getScene() + "/" + app;
+        SingleFlight singleFlight = singleFlightMap.get(name);
+        if (null == singleFlight || !singleFlight.sameConfig(sceneConfig)) {
+            singleFlight = new SingleFlight(name, sceneConfig);
+            singleFlightMap.put(name, singleFlight);
+        }
+        return singleFlight;
+    }
+
+    static Map<String, SingleFlightStats> allStats() {
+        Map<String, SingleFlightStats> statsMap = new TreeMap<>();
+        for (SingleFlight singleFlight : singleFlightMap.values()) {
+            statsMap.put(singleFlight.name, singleFlight.stats());
+        }
+        return statsMap;
+    }
+
+    /**
+     * @return 配置是否与当前一致，一致时沿用以保留缓存
+     */
+    boolean sameConfig(SceneConfig sceneConfig) {
+        return fingerprint == sceneConfig.getFingerprint()
+                && resultCopier == sceneConfig.getResultCopier()
+                && (null == resultCache ? sceneConfig.getResultCacheTtlMillis() <= 0
+                        : resultCache.ttlMillis == sceneConfig.getResultCacheTtlMillis()
+                                && resultCache.maximumSize == sceneConfig.getResultCacheSize());
+    }
+
+    /**
+     * 指纹为null时直接执行，否则合并相同的调度
+     * @param execute 实际的调度，返回是否执行，未执行（如被拒绝）时结果不共享
+     */
+    void dispatch(RuleDispatcherContext ruleDispatcherContext, Predicate<RuleDispatcherContext> execute) {
+        Object fingerprint = this.fingerprint.apply(ruleDispatcherContext);
+        if (null == fingerprint) {
+            execute.test(ruleDispatcherContext);
+            return;
+        }
+
+        Collection<String> rules = ruleDispatcherContext.getRules();
+        String tags = ruleDispatcherContext.getTags();
+        Object key = RuleDispatcher.isEmpty(rules) && RuleDispatcher.isEmpty(tags)
+                ? Arrays.asList(ruleDispatcherContext.getRule(), fingerprint)
+                : Arrays.asList(ruleDispatcherContext.getRule(), RuleDispatcher.isEmpty(rules) ? null : new ArrayList<>(rules), tags, fingerprint);
+        if (null != resultCache) {
+            Object cached = resultCache.getValue(key);
+            if (null != cached) {
+                copy((RuleDispatcherContext) cached, ruleDispatcherContext);
+                return;
+            }
+        }
+
+        CompletableFuture<RuleDispatcherContext> flight = new CompletableFuture<>();
+        CompletableFuture<RuleDispatcherContext> leader = flights.putIfAbsent(key, flight);
+        if (null != leader) {
+            coalescedCount.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher coalesced {} {}", name, key);
+            }
+            RuleDispatcherContext result = await(leader);
+            if (null == result) {
+                // 执行者未执行，各自执行
+                execute.test(ruleDispatcherContext);
+                return;
+            }
+            copy(result, ruleDispatcherContext);
+            return;
+        }
+
+        try {
+            if (!execute.test(ruleDispatcherContext)) {
+                flight.complete(null);
+                return;
+            }
+            executedCount.increment();
+            RuleDispatcherContext snapshot = snapshot(ruleDispatcherContext);
+            if (null != snapshot && null != resultCache) {
+                resultCache.putValue(key, snapshot);
+            }
+            // 无法快照时跟随者直接从执行者的context拷贝
+            flight.complete(null != snapshot ? snapshot : ruleDispatcherContext);
+        } catch (Throwable e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            // 先完成再移除，移除前加入的跟随者也能拿到结果
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * 等待执行者完成，执行者异常时抛出同一异常
+     */
+    private static RuleDispatcherContext await(CompletableFuture<RuleDispatcherContext> leader) {
+        try {
+            return leader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("RuleDispatcher coalesce interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * @return 结果快照，无法创建实例时返回null
+     */
+    private RuleDispatcherContext snapshot(RuleDispatcherContext source) {
+        RuleDispatcherContext target;
+        try {
+            Constructor<? extends RuleDispatcherContext> constructor = source.getClass().getDeclaredConstructor();
+            constructor.setAccessible(true);
+            target = constructor.newInstance();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher noSnapshot {} {}", name, source.getClass().getName());
+            }
+            return null;
+        }
+        copy(source, target);
+        return target;
+    }
+
+    private void copy(RuleDispatcherContext source, RuleDispatcherContext target) {
+        target.setUnknownRules(copyOf(source.getUnknownRules()));
+        target.setSkippedHandlers(copyOf(source.getSkippedHandlers()));
+        target.setOverrunHandlers(copyOf(source.getOverrunHandlers()));
+        if (null != resultCopier) {
+            resultCopier.accept(source, target);
+            return;
+        }
+        if (source.getClass() != target.getClass()) {
+            throw new RuntimeException("RuleDispatcher coalesce contextTypeMismatch " + name + " "
+                    + source.getClass().getName() + " " + target.getClass().getName());
+        }
+        try {
+            for (Field field : copyFields.get(source.getClass())) {
+                field.set(target, field.get(source));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("RuleDispatcher coalesce copy fail " + name, e);
+        }
+    }
+
+    private static List<String> copyOf(List<String> list) {
+        return null == list ? null : new ArrayList<>(list);
+    }
+
+    SingleFlightStats stats() {
+        SingleFlightStats stats = new SingleFlightStats();
+        stats.setName(name);
+        stats.setExecutedCount(executedCount.sum());
+        stats.setCoalescedCount(coalescedCount.sum());
+        stats.setInFlight(flights.size());
+        if (null != resultCache) {
+            stats.setResultCache(resultCache.stats());
+        }
+        return stats;
+    }
+}
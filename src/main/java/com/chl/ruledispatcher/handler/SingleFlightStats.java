@@ -0,0 +1,34 @@
+package com.chl.ruledispatcher.handler;
+
+import lombok.Data;
+
+/**
+ * 合并调度统计
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class SingleFlightStats {
+
+    /**
+     * scene/app
+     */
+    private String name;
+
+    /**
+     * 实际执行的调度数
+     */
+    private long executedCount;
+
+    /**
+     * 等待其他相同调度并拷贝结果的调度数
+     */
+    private long coalescedCount;
+
+    private int inFlight;
+
+    /**
+     * 结果缓存统计，未配置结果缓存时为null
+     */
+    private MatchCacheStats resultCache;
+}
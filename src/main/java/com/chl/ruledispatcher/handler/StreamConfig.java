@@ -0,0 +1,35 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.function.BiConsumer;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.Data;
+
+/**
+ * 流式调度配置，见 {@link RuleDispatcher#dispatchStream(DispatchFlow.Publisher, StreamConfig)}
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Data
+public class StreamConfig {
+
+    /**
+     * 同时调度的context数，0为CPU核数
+     */
+    private int parallelism;
+
+    /**
+     * 已从上游请求、尚未发给下游的context上限，即上游的最大未完成需求；小于 parallelism 时取 parallelism
+     */
+    private int bufferSize = 256;
+
+    /**
+     * 按上游顺序发出，默认true；false时按完成顺序发出，慢的context不阻塞后续结果
+     */
+    private boolean ordered = true;
+
+    /**
+     * 调度异常的处理，为空时以该异常结束流并取消上游；不为空时回调后丢弃该context，流继续
+     */
+    private BiConsumer<RuleDispatcherContext, Throwable> errorHandler;
+}
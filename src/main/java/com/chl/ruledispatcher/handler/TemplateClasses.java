@@ -0,0 +1,110 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 把模板类的字节码重新定义为隐藏类（JDK15+）或匿名类（JDK8~16，Unsafe），每次定义得到一个独立的类，
+ * 其中的调用点各自收集类型信息，JIT可以按单态内联。
+ * <br/>
+ * 模板须与本类同包；两者都不可用时 {@link #define(Class)} 返回null，调用方退化为共用模板类本身。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class TemplateClasses {
+
+    private static final byte[] NO_TEMPLATE = new byte[0];
+
+    /**
+     * 模板类的字节码，读取失败时为 {@link #NO_TEMPLATE}
+     */
+    private static final ClassValue<byte[]> TEMPLATES = new ClassValue<byte[]>() {
+        @Override
+        protected byte[] computeValue(Class<?> template) {
+            return read(template);
+        }
+    };
+
+    private static final Definer DEFINER = createDefiner();
+
+    private TemplateClasses() {
+    }
+
+    /**
+     * @return 由模板字节码新定义的类，不支持时返回null
+     */
+    static Class<?> define(Class<?> template) throws Exception {
+        if (null == DEFINER) {
+            return null;
+        }
+        byte[] bytes = TEMPLATES.get(template);
+        return bytes == NO_TEMPLATE ? null : DEFINER.define(template, bytes);
+    }
+
+    /**
+     * @return 当前JDK是否支持由模板定义新类
+     */
+    static boolean isSupported() {
+        return null != DEFINER;
+    }
+
+    private interface Definer {
+        Class<?> define(Class<?> template, byte[] bytes) throws Exception;
+    }
+
+    private static byte[] read(Class<?> template) {
+        String name = template.getName().substring(template.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = template.getResourceAsStream(name)) {
+            if (null == in) {
+                log.info("RuleDispatcher noTemplate {}", template.getName());
+                return NO_TEMPLATE;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            log.info("RuleDispatcher noTemplate {} {}", template.getName(), e.toString());
+            return NO_TEMPLATE;
+        }
+    }
+
+    private static Definer createDefiner() {
+        // JDK15+ 隐藏类，模板与本类同包，lookup具有完整权限
+        try {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object options = Array.newInstance(optionClass, 0);
+            Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                    boolean.class, options.getClass());
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            return (template, bytes) -> ((MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true, options))
+                    .lookupClass();
+        } catch (Exception e) {
+            // 低版本JDK
+        }
+
+        // JDK8 ~ JDK16 Unsafe匿名类
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            Method defineAnonymousClass = unsafeClass.getMethod("defineAnonymousClass", Class.class, byte[].class,
+                    Object[].class);
+            return (template, bytes) -> (Class<?>) defineAnonymousClass.invoke(unsafe, template, bytes, null);
+        } catch (Exception e) {
+            log.info("RuleDispatcher templateClass unsupported {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.chl.ruledispatcher.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 调度轨迹的环形缓冲，无锁写入；写满后覆盖最旧的轨迹。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class TraceRecorder {
+
+    private final AtomicReferenceArray<DispatchTrace> slots;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param capacity 向上取整为2的幂
+     */
+    TraceRecorder(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    void record(DispatchTrace trace) {
+        long seq = sequence.getAndIncrement();
+        trace.setSequence(seq);
+        slots.set((int) (seq & mask), trace);
+    }
+
+    /**
+     * 取出并清空当前缓冲中的轨迹
+     * @return 按记录顺序
+     */
+    List<DispatchTrace> drain() {
+        List<DispatchTrace> traces = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            DispatchTrace trace = slots.getAndSet(i, null);
+            if (null != trace) {
+                traces.add(trace);
+            }
+        }
+
+        Collections.sort(traces, new Comparator<DispatchTrace>() {
+            @Override
+            public int compare(DispatchTrace o1, DispatchTrace o2) {
+                return Long.compare(o1.getSequence(), o2.getSequence());
+            }
+        });
+        return traces;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,251 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 调度流量录制，按采样率把调度前的context与调度结果追加到内存映射的段文件。
+ * <br/>
+ * 段文件：int 魔数、int 版本，之后为连续的记录，每条为 int 长度 + 记录体，长度为0表示段结束；段文件按配置大小预分配。
+ * 记录体：long 时间戳毫秒、long 耗时纳秒、byte 标志（1 前置返回，2 异常）、scene、app、rule、排他规则、异常、
+ * short 命中数及每个命中的 kind、rule，最后为 int 长度 + context的Java序列化字节。可空字符串前置一个boolean。
+ * <br/>
+ * 序列化在调度线程上、锁外完成，追加只在锁内拷贝字节。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class TrafficCapture {
+
+    static final int MAGIC = 0x52444346;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final String SEGMENT_SUFFIX = ".rdc";
+
+    static final int FLAG_RETURNED = 1;
+    static final int FLAG_ERROR = 2;
+
+    /**
+     * 异常信息最多保留的字符数
+     */
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final File directory;
+    private final double sampleRate;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    /**
+     * 段文件名前缀的录制开始时间，同一次录制的段文件按序号排序
+     */
+    private final long captureMillis = System.currentTimeMillis();
+
+    private final LongAdder capturedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * 以下在 this 锁内访问
+     */
+    private MappedByteBuffer segment;
+    private int segmentCount;
+    private long bytes;
+    private boolean closed;
+
+    TrafficCapture(CaptureConfig captureConfig) throws IOException {
+        this.directory = captureConfig.getDirectory();
+        this.sampleRate = captureConfig.getSampleRate();
+        this.segmentBytes = captureConfig.getSegmentBytes();
+        this.maxSegments = captureConfig.getMaxSegments();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("RuleDispatcher capture mkdirs fail " + directory);
+        }
+        roll();
+    }
+
+    /**
+     * @return 本次调度是否录制
+     */
+    boolean sample() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * 序列化调度前的context
+     * @return 失败时返回null并计入丢弃
+     */
+    byte[] serialize(RuleDispatcherContext ruleDispatcherContext) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+                objectOut.writeObject(ruleDispatcherContext);
+            }
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            droppedCount.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher capture serialize fail {} {}", ruleDispatcherContext, e.toString());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 追加一条记录
+     * @param payload {@link #serialize(RuleDispatcherContext)} 的结果
+     * @param trace 本次调度的轨迹
+     */
+    void append(byte[] payload, DispatchTrace trace) {
+        byte[] record;
+        try {
+            record = encode(payload, trace);
+        } catch (IOException e) {
+            droppedCount.increment();
+            return;
+        }
+
+        synchronized (this) {
+            if (closed || null == segment) {
+                droppedCount.increment();
+                return;
+            }
+            // 保留4字节的段结束标记
+            if (segment.remaining() < 4 + record.length + 4) {
+                if (HEADER_BYTES + 4 + record.length + 4 > segmentBytes || !rollQuietly()) {
+                    droppedCount.increment();
+                    return;
+                }
+            }
+            segment.putInt(record.length);
+            segment.put(record);
+            bytes += 4 + record.length;
+        }
+        capturedCount.increment();
+    }
+
+    /**
+     * 停止录制并刷盘
+     */
+    synchronized CaptureStats close() {
+        if (!closed) {
+            closed = true;
+            if (null != segment) {
+                segment.force();
+                segment = null;
+            }
+        }
+        return stats();
+    }
+
+    synchronized CaptureStats stats() {
+        CaptureStats stats = new CaptureStats();
+        stats.setCapturedCount(capturedCount.sum());
+        stats.setDroppedCount(droppedCount.sum());
+        stats.setBytes(bytes);
+        stats.setSegmentCount(segmentCount);
+        return stats;
+    }
+
+    private boolean rollQuietly() {
+        try {
+            return roll();
+        } catch (IOException e) {
+            log.warn("RuleDispatcher capture roll fail {}", directory, e);
+            segment = null;
+            return false;
+        }
+    }
+
+    /**
+     * 映射下一个段文件
+     * @return 段文件数已达上限时返回false
+     */
+    private boolean roll() throws IOException {
+        if (maxSegments > 0 && segmentCount >= maxSegments) {
+            if (null != segment) {
+                segment.force();
+                segment = null;
+            }
+            return false;
+        }
+        if (null != segment) {
+            segment.force();
+        }
+
+        File file = new File(directory, String.format("capture-%d-%06d%s", captureMillis, segmentCount,
+                SEGMENT_SUFFIX));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // 映射在通道关闭后仍有效
+            segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segmentCount++;
+        log.info("RuleDispatcher capture segment {}", file);
+        return true;
+    }
+
+    private static byte[] encode(byte[] payload, DispatchTrace trace) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 128);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeLong(trace.getStartMillis());
+        dataOut.writeLong(trace.getTotalNanos());
+        dataOut.writeByte((trace.isReturned() ? FLAG_RETURNED : 0) | (null != trace.getError() ? FLAG_ERROR : 0));
+        dataOut.writeUTF(trace.getScene());
+        dataOut.writeUTF(trace.getApp());
+        writeNullable(dataOut, trace.getRule());
+        writeNullable(dataOut, trace.getExclusiveRule());
+        String error = trace.getError();
+        writeNullable(dataOut, null != error && error.length() > MAX_ERROR_LENGTH
+                ? error.substring(0, MAX_ERROR_LENGTH) : error);
+
+        List<String> hits = hits(trace);
+        dataOut.writeShort(hits.size() / 2);
+        for (String hit : hits) {
+            dataOut.writeUTF(hit);
+        }
+
+        dataOut.writeInt(payload.length);
+        dataOut.write(payload);
+        dataOut.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * @return 命中的控制器，依次为 kind、rule
+     */
+    static List<String> hits(DispatchTrace trace) {
+        List<String> hits = new ArrayList<>();
+        for (DispatchTrace.Step step : trace.getSteps()) {
+            if (step.isHit()) {
+                hits.add(step.getKind());
+                hits.add(step.getRule());
+            }
+        }
+        return hits;
+    }
+
+    private static void writeNullable(DataOutputStream dataOut, String value) throws IOException {
+        dataOut.writeBoolean(null != value);
+        if (null != value) {
+            dataOut.writeUTF(value);
+        }
+    }
+
+    static String readNullable(DataInput dataInput) throws IOException {
+        return dataInput.readBoolean() ? dataInput.readUTF() : null;
+    }
+}
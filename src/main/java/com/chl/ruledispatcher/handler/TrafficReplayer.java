@@ -0,0 +1,221 @@
+package com.chl.ruledispatcher.handler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 调度流量回放，按文件名顺序读取 {@link TrafficCapture} 写入的段文件，在当前线程逐条调度。
+ * <br/>
+ * 启动时回放可用真实流量预热JIT与缓存，之后再接入流量。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@Slf4j
+final class TrafficReplayer {
+
+    private final ReplayConfig replayConfig;
+    private final ClassLoader classLoader;
+    private final ReplayReport report = new ReplayReport();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram recordedLatency = new LatencyHistogram();
+
+    private long startNanos;
+
+    /**
+     * 第一条记录的录制时间，用于按速度等待
+     */
+    private long firstMillis = -1;
+
+    TrafficReplayer(ReplayConfig replayConfig) {
+        this.replayConfig = replayConfig;
+        this.classLoader = null != replayConfig.getClassLoader() ? replayConfig.getClassLoader()
+                : Thread.currentThread().getContextClassLoader();
+    }
+
+    ReplayReport replay() throws IOException {
+        File[] files = replayConfig.getDirectory().listFiles((dir, name) -> name.endsWith(TrafficCapture.SEGMENT_SUFFIX));
+        if (null == files) {
+            throw new IOException("RuleDispatcher replay noDirectory " + replayConfig.getDirectory());
+        }
+        Arrays.sort(files);
+
+        startNanos = System.nanoTime();
+        for (File file : files) {
+            if (!replaySegment(file)) {
+                break;
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        report.setSegmentCount(files.length);
+        report.setElapsedNanos(elapsedNanos);
+        report.setThroughput(elapsedNanos == 0 ? 0 : report.getReplayedCount() * 1e9 / elapsedNanos);
+        report.setLatency(latency.snapshot());
+        report.setRecordedLatency(recordedLatency.snapshot());
+        log.info("RuleDispatcher replay {} replayed {} mismatch {} throughput {}", replayConfig.getDirectory(),
+                report.getReplayedCount(), report.getMismatchCount(), (long) report.getThroughput());
+        return report;
+    }
+
+    /**
+     * @return 是否继续回放后续段文件
+     */
+    private boolean replaySegment(File file) throws IOException {
+        MappedByteBuffer segment;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            segment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+        if (segment.remaining() < TrafficCapture.HEADER_BYTES || segment.getInt() != TrafficCapture.MAGIC
+                || segment.getInt() != TrafficCapture.VERSION) {
+            log.warn("RuleDispatcher replay unknownSegment {}", file);
+            return true;
+        }
+
+        while (segment.remaining() >= 4) {
+            int length = segment.getInt();
+            if (length <= 0 || length > segment.remaining()) {
+                break;
+            }
+            byte[] record = new byte[length];
+            segment.get(record);
+            replayRecord(record);
+            if (replayConfig.getLimit() > 0 && report.getReplayedCount() >= replayConfig.getLimit()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void replayRecord(byte[] record) throws IOException {
+        DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(record));
+        long recordedMillis = dataIn.readLong();
+        long recordedNanos = dataIn.readLong();
+        int flags = dataIn.readByte();
+        String scene = dataIn.readUTF();
+        String app = dataIn.readUTF();
+        String rule = TrafficCapture.readNullable(dataIn);
+        String exclusiveRule = TrafficCapture.readNullable(dataIn);
+        TrafficCapture.readNullable(dataIn);
+        int hitCount = dataIn.readShort();
+        String[] hits = new String[hitCount * 2];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = dataIn.readUTF();
+        }
+        byte[] payload = new byte[dataIn.readInt()];
+        dataIn.readFully(payload);
+
+        RuleDispatcherContext ruleDispatcherContext;
+        try {
+            ruleDispatcherContext = deserialize(payload);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            report.setSkippedCount(report.getSkippedCount() + 1);
+            if (log.isDebugEnabled()) {
+                log.debug("RuleDispatcher replay deserialize fail {} {} {}", scene, app, e.toString());
+            }
+            return;
+        }
+
+        pace(recordedMillis);
+        recordedLatency.record(recordedNanos);
+
+        // 录制的截止时间是绝对时间，按录制时的剩余时间换算到回放时
+        long deadlineMillis = ruleDispatcherContext.getDeadlineMillis();
+        if (deadlineMillis > 0) {
+            ruleDispatcherContext.setDeadlineMillis(System.currentTimeMillis() + deadlineMillis - recordedMillis);
+        }
+
+        long start = System.nanoTime();
+        if (replayConfig.isVerify()) {
+            DispatchTrace trace = RuleDispatcher.replayDispatch(ruleDispatcherContext);
+            latency.record(System.nanoTime() - start);
+            if (null != trace.getError()) {
+                report.setErrorCount(report.getErrorCount() + 1);
+            }
+            String recorded = outcome((flags & TrafficCapture.FLAG_RETURNED) != 0, Arrays.asList(hits), exclusiveRule,
+                    (flags & TrafficCapture.FLAG_ERROR) != 0);
+            String replayed = outcome(trace.isReturned(), TrafficCapture.hits(trace), trace.getExclusiveRule(),
+                    null != trace.getError());
+            if (!recorded.equals(replayed)) {
+                report.setMismatchCount(report.getMismatchCount() + 1);
+                if (report.getMismatchSamples().size() < replayConfig.getMaxMismatchSamples()) {
+                    report.getMismatchSamples().add(scene + "/" + app + "/" + rule + ": " + recorded + " -> " + replayed);
+                }
+            }
+        } else {
+            try {
+                RuleDispatcher.dispatch(ruleDispatcherContext);
+            } catch (RuntimeException e) {
+                report.setErrorCount(report.getErrorCount() + 1);
+            }
+            latency.record(System.nanoTime() - start);
+        }
+        report.setReplayedCount(report.getReplayedCount() + 1);
+    }
+
+    /**
+     * 按录制时的间隔与速度等待
+     */
+    private void pace(long recordedMillis) {
+        if (replayConfig.getSpeed() <= 0) {
+            return;
+        }
+        if (firstMillis < 0) {
+            firstMillis = recordedMillis;
+            return;
+        }
+        long target = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(recordedMillis - firstMillis) / replayConfig.getSpeed());
+        long waitNanos;
+        while ((waitNanos = target - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    private static String outcome(boolean returned, List<String> hits, String exclusiveRule, boolean error) {
+        return "returned=" + returned + " hits=" + hits + " exclusive=" + exclusiveRule + " error=" + error;
+    }
+
+    private RuleDispatcherContext deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectIn = new ContextObjectInputStream(new ByteArrayInputStream(payload), classLoader)) {
+            return (RuleDispatcherContext) objectIn.readObject();
+        }
+    }
+
+    /**
+     * 优先使用指定的类加载器解析context类型
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        ContextObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (null != classLoader) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    // 基本类型等由默认实现解析
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.chl.ruledispatcher.handler;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 展开的控制器链模板，处理一段 {@link DispatchChainSegment}，超出部分交给下一段。
+ * <br/>
+ * 由 {@link DispatchChains} 为每一段复制一份字节码定义为独立的类，每个调用点只见到一个控制器类型，
+ * JIT可以内联到具体的 match/action。
+ * <br/>
+ * 隐藏类的栈映射帧不能引用自身类型，分支只能写在静态方法中；同时不能有静态状态、lambda、内部类。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+@SuppressWarnings("unchecked")
+final class UnrolledDispatchChain extends DispatchChain {
+
+    private final DispatchChainSegment segment;
+
+    UnrolledDispatchChain(DispatchChainSegment segment) {
+        this.segment = segment;
+    }
+
+    @Override
+    public boolean preAction(RuleDispatcherContext ruleDispatcherContext) {
+        return HandlerMetrics.enabled ? preAction(segment, ruleDispatcherContext)
+                : leanPreAction(segment, ruleDispatcherContext);
+    }
+
+    @Override
+    public int ruleHandler(RuleDispatcherContext ruleDispatcherContext) {
+        return HandlerMetrics.enabled ? ruleHandler(segment, ruleDispatcherContext)
+                : leanRuleHandler(segment, ruleDispatcherContext);
+    }
+
+    @Override
+    public void afterAction(RuleDispatcherContext ruleDispatcherContext) {
+        if (HandlerMetrics.enabled) {
+            afterAction(segment, ruleDispatcherContext);
+        } else {
+            leanAfterAction(segment, ruleDispatcherContext);
+        }
+    }
+
+    private static boolean preAction(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.p0) {
+            return false;
+        }
+        if (segment.p0.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p1) {
+            return false;
+        }
+        if (segment.p1.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p2) {
+            return false;
+        }
+        if (segment.p2.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p3) {
+            return false;
+        }
+        if (segment.p3.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p4) {
+            return false;
+        }
+        if (segment.p4.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p5) {
+            return false;
+        }
+        if (segment.p5.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p6) {
+            return false;
+        }
+        if (segment.p6.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p7) {
+            return false;
+        }
+        if (segment.p7.doHandle(ruleDispatcherContext)) {
+            return true;
+        }
+        return null != segment.next && segment.next.preAction(ruleDispatcherContext);
+    }
+
+    private static int ruleHandler(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.r0) {
+            return -1;
+        }
+        if (segment.r0.handle(ruleDispatcherContext, true) && segment.x0) {
+            return segment.offset + 0;
+        }
+        if (null == segment.r1) {
+            return -1;
+        }
+        if (segment.r1.handle(ruleDispatcherContext, true) && segment.x1) {
+            return segment.offset + 1;
+        }
+        if (null == segment.r2) {
+            return -1;
+        }
+        if (segment.r2.handle(ruleDispatcherContext, true) && segment.x2) {
+            return segment.offset + 2;
+        }
+        if (null == segment.r3) {
+            return -1;
+        }
+        if (segment.r3.handle(ruleDispatcherContext, true) && segment.x3) {
+            return segment.offset + 3;
+        }
+        if (null == segment.r4) {
+            return -1;
+        }
+        if (segment.r4.handle(ruleDispatcherContext, true) && segment.x4) {
+            return segment.offset + 4;
+        }
+        if (null == segment.r5) {
+            return -1;
+        }
+        if (segment.r5.handle(ruleDispatcherContext, true) && segment.x5) {
+            return segment.offset + 5;
+        }
+        if (null == segment.r6) {
+            return -1;
+        }
+        if (segment.r6.handle(ruleDispatcherContext, true) && segment.x6) {
+            return segment.offset + 6;
+        }
+        if (null == segment.r7) {
+            return -1;
+        }
+        if (segment.r7.handle(ruleDispatcherContext, true) && segment.x7) {
+            return segment.offset + 7;
+        }
+        return null == segment.next ? -1 : segment.next.ruleHandler(ruleDispatcherContext);
+    }
+
+    private static void afterAction(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.a0) {
+            return;
+        }
+        segment.a0.doHandle(ruleDispatcherContext);
+        if (null == segment.a1) {
+            return;
+        }
+        segment.a1.doHandle(ruleDispatcherContext);
+        if (null == segment.a2) {
+            return;
+        }
+        segment.a2.doHandle(ruleDispatcherContext);
+        if (null == segment.a3) {
+            return;
+        }
+        segment.a3.doHandle(ruleDispatcherContext);
+        if (null == segment.a4) {
+            return;
+        }
+        segment.a4.doHandle(ruleDispatcherContext);
+        if (null == segment.a5) {
+            return;
+        }
+        segment.a5.doHandle(ruleDispatcherContext);
+        if (null == segment.a6) {
+            return;
+        }
+        segment.a6.doHandle(ruleDispatcherContext);
+        if (null == segment.a7) {
+            return;
+        }
+        segment.a7.doHandle(ruleDispatcherContext);
+        if (null != segment.next) {
+            segment.next.afterAction(ruleDispatcherContext);
+        }
+    }
+
+    /**
+     * 未开启统计时直接调用控制器，内联后只剩 match/action 本身
+     */
+    private static boolean leanPreAction(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.p0) {
+            return false;
+        }
+        if (segment.p0.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p1) {
+            return false;
+        }
+        if (segment.p1.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p2) {
+            return false;
+        }
+        if (segment.p2.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p3) {
+            return false;
+        }
+        if (segment.p3.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p4) {
+            return false;
+        }
+        if (segment.p4.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p5) {
+            return false;
+        }
+        if (segment.p5.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p6) {
+            return false;
+        }
+        if (segment.p6.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        if (null == segment.p7) {
+            return false;
+        }
+        if (segment.p7.handle(ruleDispatcherContext)) {
+            return true;
+        }
+        return null != segment.next && segment.next.preAction(ruleDispatcherContext);
+    }
+
+    private static int leanRuleHandler(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.r0) {
+            return -1;
+        }
+        if (segment.r0.cachedMatch(ruleDispatcherContext)) {
+            segment.r0.action(ruleDispatcherContext);
+            if (segment.x0) {
+                return segment.offset + 0;
+            }
+        }
+        if (null == segment.r1) {
+            return -1;
+        }
+        if (segment.r1.cachedMatch(ruleDispatcherContext)) {
+            segment.r1.action(ruleDispatcherContext);
+            if (segment.x1) {
+                return segment.offset + 1;
+            }
+        }
+        if (null == segment.r2) {
+            return -1;
+        }
+        if (segment.r2.cachedMatch(ruleDispatcherContext)) {
+            segment.r2.action(ruleDispatcherContext);
+            if (segment.x2) {
+                return segment.offset + 2;
+            }
+        }
+        if (null == segment.r3) {
+            return -1;
+        }
+        if (segment.r3.cachedMatch(ruleDispatcherContext)) {
+            segment.r3.action(ruleDispatcherContext);
+            if (segment.x3) {
+                return segment.offset + 3;
+            }
+        }
+        if (null == segment.r4) {
+            return -1;
+        }
+        if (segment.r4.cachedMatch(ruleDispatcherContext)) {
+            segment.r4.action(ruleDispatcherContext);
+            if (segment.x4) {
+                return segment.offset + 4;
+            }
+        }
+        if (null == segment.r5) {
+            return -1;
+        }
+        if (segment.r5.cachedMatch(ruleDispatcherContext)) {
+            segment.r5.action(ruleDispatcherContext);
+            if (segment.x5) {
+                return segment.offset + 5;
+            }
+        }
+        if (null == segment.r6) {
+            return -1;
+        }
+        if (segment.r6.cachedMatch(ruleDispatcherContext)) {
+            segment.r6.action(ruleDispatcherContext);
+            if (segment.x6) {
+                return segment.offset + 6;
+            }
+        }
+        if (null == segment.r7) {
+            return -1;
+        }
+        if (segment.r7.cachedMatch(ruleDispatcherContext)) {
+            segment.r7.action(ruleDispatcherContext);
+            if (segment.x7) {
+                return segment.offset + 7;
+            }
+        }
+        return null == segment.next ? -1 : segment.next.ruleHandler(ruleDispatcherContext);
+    }
+
+    private static void leanAfterAction(DispatchChainSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (null == segment.a0) {
+            return;
+        }
+        segment.a0.handle(ruleDispatcherContext);
+        if (null == segment.a1) {
+            return;
+        }
+        segment.a1.handle(ruleDispatcherContext);
+        if (null == segment.a2) {
+            return;
+        }
+        segment.a2.handle(ruleDispatcherContext);
+        if (null == segment.a3) {
+            return;
+        }
+        segment.a3.handle(ruleDispatcherContext);
+        if (null == segment.a4) {
+            return;
+        }
+        segment.a4.handle(ruleDispatcherContext);
+        if (null == segment.a5) {
+            return;
+        }
+        segment.a5.handle(ruleDispatcherContext);
+        if (null == segment.a6) {
+            return;
+        }
+        segment.a6.handle(ruleDispatcherContext);
+        if (null == segment.a7) {
+            return;
+        }
+        segment.a7.handle(ruleDispatcherContext);
+        if (null != segment.next) {
+            segment.next.afterAction(ruleDispatcherContext);
+        }
+    }
+}
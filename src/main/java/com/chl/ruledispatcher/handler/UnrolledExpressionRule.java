@@ -0,0 +1,92 @@
+package com.chl.ruledispatcher.handler;
+
+import com.chl.ruledispatcher.handler.param.RuleDispatcherContext;
+
+/**
+ * 展开的表达式规则模板，依次判断 {@link ExpressionRuleSegment} 的条件。
+ * <br/>
+ * 由 {@link ExpressionRules} 为每条规则复制一份字节码定义为独立的类，每个属性读取的调用点只见到一个访问器类型，
+ * JIT可以内联到context的getter，与手写的match相当。
+ * <br/>
+ * 隐藏类的栈映射帧不能引用自身类型，分支只能写在静态方法中；同时不能有静态状态、lambda、内部类。
+ *
+ * @author ccchhhlll1988@163.com
+ */
+final class UnrolledExpressionRule extends RuleHandler<RuleDispatcherContext> {
+
+    private final ExpressionRuleSegment segment;
+
+    UnrolledExpressionRule(ExpressionRuleSegment segment) {
+        this.segment = segment;
+    }
+
+    @Override
+    protected boolean match(RuleDispatcherContext ruleDispatcherContext) {
+        return match(segment, ruleDispatcherContext);
+    }
+
+    @Override
+    protected void action(RuleDispatcherContext ruleDispatcherContext) {
+        segment.action(ruleDispatcherContext);
+    }
+
+    private static boolean match(ExpressionRuleSegment segment, RuleDispatcherContext ruleDispatcherContext) {
+        if (!segment.contextType.isInstance(ruleDispatcherContext)) {
+            return false;
+        }
+        if (null == segment.c0) {
+            return true;
+        }
+        if (!(null != segment.n0 ? segment.c0.test(segment.n0.applyAsDouble(ruleDispatcherContext))
+                : segment.c0.test(segment.g0.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c1) {
+            return true;
+        }
+        if (!(null != segment.n1 ? segment.c1.test(segment.n1.applyAsDouble(ruleDispatcherContext))
+                : segment.c1.test(segment.g1.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c2) {
+            return true;
+        }
+        if (!(null != segment.n2 ? segment.c2.test(segment.n2.applyAsDouble(ruleDispatcherContext))
+                : segment.c2.test(segment.g2.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c3) {
+            return true;
+        }
+        if (!(null != segment.n3 ? segment.c3.test(segment.n3.applyAsDouble(ruleDispatcherContext))
+                : segment.c3.test(segment.g3.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c4) {
+            return true;
+        }
+        if (!(null != segment.n4 ? segment.c4.test(segment.n4.applyAsDouble(ruleDispatcherContext))
+                : segment.c4.test(segment.g4.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c5) {
+            return true;
+        }
+        if (!(null != segment.n5 ? segment.c5.test(segment.n5.applyAsDouble(ruleDispatcherContext))
+                : segment.c5.test(segment.g5.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c6) {
+            return true;
+        }
+        if (!(null != segment.n6 ? segment.c6.test(segment.n6.applyAsDouble(ruleDispatcherContext))
+                : segment.c6.test(segment.g6.apply(ruleDispatcherContext)))) {
+            return false;
+        }
+        if (null == segment.c7) {
+            return true;
+        }
+        return null != segment.n7 ? segment.c7.test(segment.n7.applyAsDouble(ruleDispatcherContext))
+                : segment.c7.test(segment.g7.apply(ruleDispatcherContext));
+    }
+}
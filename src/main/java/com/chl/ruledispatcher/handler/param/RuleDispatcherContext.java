@@ -1,6 +1,8 @@
 package com.chl.ruledispatcher.handler.param;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -31,4 +33,45 @@ public class RuleDispatcherContext implements Serializable {
      * 特定规则
      */
     String rule;
+
+    /**
+     * 只执行其中的规则，仍按优先级执行并遵循排他性；设置 rule 时以 rule 为准
+     */
+    Collection<String> rules;
+
+    /**
+     * 只执行标签满足表达式的规则，由标签与 |、&amp;、!、括号组成，如 {@code fraud & !slow}；与 rules 同时设置时取交集
+     */
+    String tags;
+
+    /**
+     * 本次调度中 rules、tags 指定但不存在的规则与标签，标签记为 tag:xxx；没有时为null
+     */
+    List<String> unknownRules;
+
+    /**
+     * 强制记录调度轨迹，不受场景采样率影响
+     */
+    boolean trace;
+
+    /**
+     * 调度截止时间，毫秒时间戳，0为不限；剩余时间不足时跳过可选控制器
+     */
+    long deadlineMillis;
+
+    /**
+     * 本次调度因时间不足或断路被跳过的控制器，形如 ruleHandler:rule；没有时为null
+     */
+    List<String> skippedHandlers;
+
+    /**
+     * 本次调度执行超出预算的控制器，形如 ruleHandler:rule；没有时为null
+     */
+    List<String> overrunHandlers;
+
+    public RuleDispatcherContext(String scene, String app, String rule) {
+        this.scene = scene;
+        this.app = app;
+        this.rule = rule;
+    }
 }